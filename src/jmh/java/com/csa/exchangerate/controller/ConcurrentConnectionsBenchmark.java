@@ -0,0 +1,190 @@
+package com.csa.exchangerate.controller;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.ClassUtils;
+
+import com.csa.exchangerate.ExchangeRateApplication;
+
+/**
+ * Thread count and memory of the server with 10k connections each waiting on a request, on platform
+ * threads or on virtual threads.  Every connection is opened before any request is sent, then all the
+ * requests are sent at once and their responses read by a single selector, so the client adds no threads.
+ * 
+ * Run it with the jdk21 profile, for example:
+ *    mvn -Pjmh,jdk21 -DskipTests verify -Djmh.args="ConcurrentConnections"
+ * 
+ * Besides the time to serve every connection, it reports the peak number of live platform threads, the
+ * resident memory of the process in MB (Linux only) and how many requests were served or timed out.  The
+ * client and server both hold a socket per connection, so the open file limit must be above twice the
+ * number of connections.  The counters add up over the measurement iterations, hence only one.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrentConnectionsBenchmark {
+	
+	private static final byte[] REQUEST = ("GET /currency/latest?fromCurrencyCode=USD&toCurrencyCode=EUR HTTP/1.1\r\n"
+			+ "Host: localhost\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+	
+	@Param({ "false", "true" })
+	boolean virtualThreads;
+	
+	@Param("10000")
+	int connections;
+	
+	ConfigurableApplicationContext context;
+	InetSocketAddress address;
+	
+	@Setup
+	public void setUp() throws Exception {
+		if (virtualThreads && !ClassUtils.isPresent("com.csa.exchangerate.executor.VirtualThreadConfig", null)) {
+			throw new IllegalStateException("Virtual threads need the jdk21 build, run with -Pjmh,jdk21");
+		}
+		// arguments rather than default properties, which application.properties would override
+		context = new SpringApplicationBuilder(ExchangeRateApplication.class)
+				.properties("server.port=0", "logging.level.root=WARN")
+				.run("--exchangerate.executor.virtual-threads=" + virtualThreads,
+						"--server.tomcat.max-connections=" + connections,
+						"--server.tomcat.accept-count=" + connections);
+		address = new InetSocketAddress("localhost", Integer.parseInt(context.getEnvironment().getProperty("local.server.port")));
+		
+		try (SocketChannel channel = SocketChannel.open(address)) {
+			String exchangeRate = "{\"from\":\"USD\",\"to\":\"EUR\",\"rate\":0.85,\"reportedOn\":\"" + LocalDate.now() + "\"}";
+			channel.write(ByteBuffer.wrap(("POST /currency HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+					+ "Content-Type: application/json\r\nContent-Length: " + exchangeRate.length() + "\r\n\r\n" + exchangeRate)
+					.getBytes(StandardCharsets.US_ASCII)));
+			while (channel.read(ByteBuffer.allocate(1024)) >= 0) {
+				// wait for the server to close it
+			}
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+	
+	/**
+	 * Counters reported with the benchmark's time
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Footprint {
+		
+		public long peakThreads;
+		public long residentMb;
+		public long served;
+		public long timedOut;
+		
+		@Setup(Level.Iteration)
+		public void reset() {
+			peakThreads = 0;
+			residentMb = 0;
+			served = 0;
+			timedOut = 0;
+			ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+		}
+	}
+	
+	@Benchmark
+	public void serveConnections(Footprint footprint) throws IOException {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		SocketChannel[] channels = new SocketChannel[connections];
+		try (Selector selector = Selector.open()) {
+			for (int i = 0; i < channels.length; i++) {
+				channels[i] = SocketChannel.open(address);
+				channels[i].setOption(StandardSocketOptions.SO_LINGER, 0);
+			}
+			for (SocketChannel channel : channels) {
+				channel.write(ByteBuffer.wrap(REQUEST));
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ);
+			}
+			
+			// the status code is in the first 12 bytes of a response, the rest is dropped
+			ByteBuffer buffer = ByteBuffer.allocate(4096);
+			int open = channels.length;
+			while (open > 0) {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					buffer.clear();
+					int read = ((SocketChannel) key.channel()).read(buffer);
+					if (key.attachment() == null && buffer.position() >= 12) {
+						boolean served = buffer.get(9) == '2';
+						key.attach(served);
+						if (served) {
+							footprint.served++;
+						} else {
+							footprint.timedOut++;
+						}
+					}
+					if (read < 0) {
+						key.cancel();
+						key.channel().close();
+						open--;
+					}
+				}
+			}
+		} finally {
+			for (SocketChannel channel : channels) {
+				if (channel != null) {
+					channel.close();
+				}
+			}
+		}
+		footprint.peakThreads = threads.getPeakThreadCount();
+		footprint.residentMb = residentKb() / 1024;
+	}
+	
+	private static long residentKb() throws IOException {
+		if (!Files.isReadable(Paths.get("/proc/self/status"))) {
+			return 0;
+		}
+		for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+			if (line.startsWith("VmRSS:")) {
+				return Long.parseLong(line.replaceAll("[^0-9]", ""));
+			}
+		}
+		return 0;
+	}
+}
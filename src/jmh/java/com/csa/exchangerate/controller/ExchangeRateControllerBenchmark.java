@@ -0,0 +1,95 @@
+package com.csa.exchangerate.controller;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.csa.exchangerate.ExchangeRateApplication;
+
+/**
+ * The controller path through the dispatcher servlet: request binding, validation, the request executor,
+ * the service and JSON serialization.  The HTTP connector isn't included.  The dispatcher path takes
+ * far longer than the repository to warm up, hence the longer warmup.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExchangeRateControllerBenchmark {
+
+	ConfigurableApplicationContext context;
+	MockMvc mockMvc;
+	byte[] exchangeRate;
+	
+	@Setup
+	public void setUp() throws Exception {
+		context = new SpringApplicationBuilder(ExchangeRateApplication.class)
+				.properties("server.port=0", "logging.level.root=WARN")
+				.run();
+		mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+		
+		String today = LocalDate.now().toString();
+		exchangeRate = ("{\"from\":\"USD\",\"to\":\"EUR\",\"rate\":0.85,\"reportedOn\":\"" + today + "\"}")
+				.getBytes(StandardCharsets.UTF_8);
+		mockMvc.perform(post("/currency").contentType(MediaType.APPLICATION_JSON).content(exchangeRate));
+		mockMvc.perform(post("/currency").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"from\":\"EUR\",\"to\":\"JPY\",\"rate\":130,\"reportedOn\":\"" + today + "\"}"));
+	}
+	
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+	
+	@Benchmark
+	public MvcResult setExchangeRate() throws Exception {
+		return mockMvc.perform(post("/currency").contentType(MediaType.APPLICATION_JSON).content(exchangeRate)).andReturn();
+	}
+	
+	@Benchmark
+	public MvcResult getLatestExchangeRate() throws Exception {
+		return mockMvc.perform(get("/currency/latest").param("fromCurrencyCode", "USD").param("toCurrencyCode", "EUR")).andReturn();
+	}
+	
+	@Benchmark
+	public MvcResult getLatestCrossRate() throws Exception {
+		return mockMvc.perform(get("/currency/latest").param("fromCurrencyCode", "USD").param("toCurrencyCode", "JPY")).andReturn();
+	}
+	
+	@Benchmark
+	public MvcResult getLatestExchangeRates() throws Exception {
+		return mockMvc.perform(get("/currency/latest").param("pairs", "USDEUR,EURJPY,USDJPY")).andReturn();
+	}
+	
+	@Benchmark
+	public MvcResult getExchangeRateHistory() throws Exception {
+		return mockMvc.perform(get("/currency").param("fromCurrencyCode", "USD").param("toCurrencyCode", "EUR")).andReturn();
+	}
+}
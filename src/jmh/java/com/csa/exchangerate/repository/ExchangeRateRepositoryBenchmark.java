@@ -0,0 +1,136 @@
+package com.csa.exchangerate.repository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.util.CurrencyPair;
+
+/**
+ * Reads and writes against the in memory repository.  The single method benchmarks run on as many 
+ * threads as -t asks for (1 by default), the read/write groups run 3 readers to 1 writer and 
+ * 1 reader to 1 writer.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExchangeRateRepositoryBenchmark {
+
+	private static final String[] CURRENCIES = { "USD", "EUR", "JPY", "GBP", "CAD", "AUD", "CHF", "CNY", 
+			"SEK", "NZD", "MXN", "SGD", "HKD", "NOK", "KRW", "TRY", "INR", "RUB", "BRL", "ZAR" };
+	
+	@Param({ "20", "380" })
+	int pairCount;
+	
+	InMemoryExchangeRateRepository repository;
+	int[] pairs;
+	ExchangeRate[] exchangeRates;
+	
+	@Setup
+	public void setUp() {
+		repository = new InMemoryExchangeRateRepository();
+		
+		List<ExchangeRate> rates = new ArrayList<>();
+		LocalDate today = LocalDate.now();
+		for (int from = 0; from < CURRENCIES.length && rates.size() < pairCount * 3; from++) {
+			for (int to = 0; to < CURRENCIES.length && rates.size() < pairCount * 3; to++) {
+				if (from != to) {
+					for (int day = 0; day < 3; day++) {
+						rates.add(new ExchangeRate(CURRENCIES[from], CURRENCIES[to], 1f + from + to / 100f, 
+								today.minusDays(day).toString()));
+					}
+				}
+			}
+		}
+		exchangeRates = rates.toArray(new ExchangeRate[0]);
+		repository.saveAll(rates);
+		pairs = repository.findPairs();
+	}
+	
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+		
+		int next(int length) {
+			int index = next++;
+			if (next == length) {
+				next = 0;
+			}
+			return index;
+		}
+	}
+	
+	@Benchmark
+	public Optional<ExchangeRate> findLatest(Cursor cursor) {
+		return repository.findLatest(pairs[cursor.next(pairs.length)]);
+	}
+	
+	@Benchmark
+	public List<ExchangeRate> findAll(Cursor cursor) {
+		return repository.findAll(pairs[cursor.next(pairs.length)]);
+	}
+	
+	@Benchmark
+	public ExchangeRate save(Cursor cursor) {
+		return repository.save(exchangeRates[cursor.next(exchangeRates.length)]);
+	}
+	
+	@Benchmark
+	@Threads(1)
+	public List<ExchangeRate> saveAll() {
+		return repository.saveAll(Arrays.asList(exchangeRates));
+	}
+	
+	@Benchmark
+	@Group("readMostly")
+	@GroupThreads(3)
+	public Optional<ExchangeRate> readMostlyRead(Cursor cursor) {
+		return repository.findLatest(pairs[cursor.next(pairs.length)]);
+	}
+	
+	@Benchmark
+	@Group("readMostly")
+	@GroupThreads(1)
+	public ExchangeRate readMostlyWrite(Cursor cursor) {
+		return repository.save(exchangeRates[cursor.next(exchangeRates.length)]);
+	}
+	
+	@Benchmark
+	@Group("balanced")
+	@GroupThreads(1)
+	public Optional<ExchangeRate> balancedRead(Cursor cursor) {
+		return repository.findLatest(pairs[cursor.next(pairs.length)]);
+	}
+	
+	@Benchmark
+	@Group("balanced")
+	@GroupThreads(1)
+	public ExchangeRate balancedWrite(Cursor cursor) {
+		return repository.save(exchangeRates[cursor.next(exchangeRates.length)]);
+	}
+}
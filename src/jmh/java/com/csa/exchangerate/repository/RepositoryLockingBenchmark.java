@@ -0,0 +1,93 @@
+package com.csa.exchangerate.repository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.util.CurrencyPair;
+
+/**
+ * The same mixed workload (9 reads to every write) against the original single-lock repository and the
+ * concurrent one, to compare their throughput as threads are added: run it with -t 1, 4, 8...
+ * 
+ * @author Brian A Zied
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepositoryLockingBenchmark {
+	
+	private static final String[] CODES = { "USD", "EUR", "GBP", "JPY", "CHF", "CAD", "AUD", "NZD" };
+	
+	@Param({ "synchronized", "concurrent" })
+	String repository;
+	
+	SynchronizedExchangeRateRepository synchronizedRepository;
+	InMemoryExchangeRateRepository concurrentRepository;
+	ExchangeRate[] exchangeRates;
+	
+	@Setup
+	public void setUp() {
+		List<ExchangeRate> rates = new ArrayList<>();
+		LocalDate today = LocalDate.now();
+		for (String from : CODES) {
+			for (String to : CODES) {
+				if (!from.equals(to)) {
+					for (int day = 0; day < 3; day++) {
+						rates.add(new ExchangeRate(from, to, day + 1, today.minusDays(day).toString()));
+					}
+				}
+			}
+		}
+		exchangeRates = rates.toArray(new ExchangeRate[0]);
+		synchronizedRepository = new SynchronizedExchangeRateRepository();
+		concurrentRepository = new InMemoryExchangeRateRepository();
+		for (ExchangeRate exchangeRate : exchangeRates) {
+			synchronizedRepository.save(exchangeRate);
+			concurrentRepository.save(exchangeRate);
+		}
+	}
+	
+	@Benchmark
+	public void mixed(Blackhole blackhole) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		ExchangeRate exchangeRate = exchangeRates[random.nextInt(exchangeRates.length)];
+		boolean read = random.nextInt(10) != 0;
+		LocalDate date = LocalDate.parse(exchangeRate.getReportedOn());
+		if (repository.equals("synchronized")) {
+			if (read) {
+				blackhole.consume(synchronizedRepository.findForDate(Currency.getInstance(exchangeRate.getFrom()),
+						Currency.getInstance(exchangeRate.getTo()), date));
+			} else {
+				blackhole.consume(synchronizedRepository.save(exchangeRate));
+			}
+		} else {
+			if (read) {
+				blackhole.consume(concurrentRepository.findForDate(CurrencyPair.of(exchangeRate.getFrom(), exchangeRate.getTo()), date));
+			} else {
+				blackhole.consume(concurrentRepository.save(exchangeRate));
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package com.csa.exchangerate.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Puts, gets and expiry churn on the self expiring map.  The churn benchmark puts keys with a lifetime of 
+ * a few ticks, so the timing wheel is expiring entries as fast as they are added.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SelfExpiringHashMapBenchmark {
+
+	private static final int KEYS = 1 << 16;
+	
+	TimingWheel engine;
+	SelfExpiringHashMap<Integer, String> map;
+	SelfExpiringHashMap<Integer, String> churn;
+	Integer[] keys;
+	
+	@Setup
+	public void setUp() {
+		engine = new TimingWheel(1, 6, 4);
+		map = new SelfExpiringHashMap<>(TimeUnit.HOURS.toMillis(1), engine);
+		churn = new SelfExpiringHashMap<>(5, engine);
+		keys = new Integer[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			keys[i] = i;
+			map.put(keys[i], "rate");
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		engine.close();
+	}
+	
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+		
+		Integer next(Integer[] keys) {
+			return keys[next++ & (KEYS - 1)];
+		}
+	}
+	
+	@Benchmark
+	public String get(Cursor cursor) {
+		return map.get(cursor.next(keys));
+	}
+	
+	@Benchmark
+	public String put(Cursor cursor) {
+		return map.put(cursor.next(keys), "rate");
+	}
+	
+	@Benchmark
+	public String putExpiring(Cursor cursor) {
+		return churn.put(cursor.next(keys), "rate");
+	}
+}
@@ -0,0 +1,356 @@
+package com.csa.exchangerate.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.csa.exchangerate.ExchangeRateApplication;
+import com.csa.exchangerate.metrics.LatencyHistogram;
+import com.csa.exchangerate.util.CurrencyCodes;
+
+/**
+ * Load generator for the /currency endpoints, to check a build still meets the 10ms budget.
+ * 
+ *    mvn -Ploadtest -DskipTests verify -Dloadtest.args="--mode=open --rate=2000 --duration=30s"
+ * 
+ * It drives the four endpoints (set, history, latest and for date) with a weighted mix over a number of
+ * pairs, against an instance it starts in this JVM or the one at --url.  Arguments it doesn't know are
+ * passed to the instance it starts, e.g. --spring.main.web-application-type=reactive.
+ * 
+ *    --mode=open|closed     open loop: requests are due at the arrival rate whatever the responses, spread
+ *                           over the connections.  closed loop: each connection sends its next request
+ *                           when the last one completes (paced to rate / connections if a rate is given).
+ *    --rate=2000            requests per second in total, required for open loop, 0 is flat out
+ *    --connections=64       concurrent connections
+ *    --pairs=100            distinct from->to pairs
+ *    --mix=set:10,latest:60,history:15,date:15   relative weights of the endpoints
+ *    --warmup=10s --duration=30s
+ *    --budget=10ms          the p99 (corrected) every endpoint must meet, the run fails if one doesn't
+ *    --url=http://host:port to test a running instance instead
+ * 
+ * Latency is measured from the time each request was due, not the time it was sent, so a stall that holds
+ * up the requests behind it is counted against all of them rather than hidden (coordinated omission).
+ * Both that and the send to response latency are reported, in the log-linear {@link LatencyHistogram}.
+ * Flat out closed loop requests are never due before they're sent, so their latencies are the same.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public class LoadGenerator {
+	
+	enum Operation {
+		SET, HISTORY, LATEST, DATE
+	}
+	
+	private static final List<String> OPTIONS = Arrays.asList(
+			"mode", "rate", "connections", "pairs", "mix", "warmup", "duration", "budget", "url");
+	
+	private final Map<String, String> options;
+	private final boolean open;
+	private final long rate;
+	private final int connections;
+	private final String[][] pairs;
+	private final Operation[] mix;
+	private final long warmupNanos;
+	private final long durationNanos;
+	private final long budgetNanos;
+	
+	private final Map<Operation, LatencyHistogram> corrected = new EnumMap<>(Operation.class);
+	private final Map<Operation, LatencyHistogram> uncorrected = new EnumMap<>(Operation.class);
+	private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+	private final AtomicLong tickets = new AtomicLong();
+	
+	private String url;
+	private long start;
+	
+	LoadGenerator(Map<String, String> options) {
+		this.options = options;
+		this.open = "open".equals(option("mode", "open"));
+		this.rate = Long.parseLong(option("rate", "2000"));
+		this.connections = Integer.parseInt(option("connections", "64"));
+		this.pairs = pairs(Integer.parseInt(option("pairs", "100")));
+		this.mix = mix(option("mix", "set:10,latest:60,history:15,date:15"));
+		this.warmupNanos = DurationStyle.detectAndParse(option("warmup", "10s")).toNanos();
+		this.durationNanos = DurationStyle.detectAndParse(option("duration", "30s")).toNanos();
+		this.budgetNanos = DurationStyle.detectAndParse(option("budget", "10ms")).toNanos();
+		this.url = option("url", null);
+		if (open && rate <= 0) {
+			throw new IllegalArgumentException("Open loop needs a --rate");
+		}
+		for (Operation operation : Operation.values()) {
+			corrected.put(operation, new LatencyHistogram());
+			uncorrected.put(operation, new LatencyHistogram());
+			errors.put(operation, new LongAdder());
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new LinkedHashMap<>();
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (!arg.startsWith("--") || separator < 0) {
+				throw new IllegalArgumentException("Expected --name=value: " + arg);
+			}
+			options.put(arg.substring(2, separator), arg.substring(separator + 1));
+		}
+		System.exit(new LoadGenerator(options).run() ? 0 : 1);
+	}
+	
+	/**
+	 * @return true if every endpoint met the budget
+	 */
+	boolean run() throws Exception {
+		// keep a connection per worker alive between requests
+		System.setProperty("http.maxConnections", String.valueOf(connections));
+		
+		ConfigurableApplicationContext context = null;
+		if (url == null) {
+			context = new SpringApplicationBuilder(ExchangeRateApplication.class).run(applicationArgs());
+			url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+		}
+		try {
+			seed();
+			
+			start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+			List<Thread> workers = new ArrayList<>(connections);
+			for (int i = 0; i < connections; i++) {
+				int connection = i;
+				Thread worker = new Thread(() -> work(connection), "load-" + i);
+				worker.setDaemon(true);
+				worker.start();
+				workers.add(worker);
+			}
+			for (Thread worker : workers) {
+				worker.join();
+			}
+			return report();
+		} finally {
+			if (context != null) {
+				context.close();
+			}
+		}
+	}
+	
+	/**
+	 * Sends requests until the end of the run.  Each request has a due time on the schedule: the next
+	 * ticket of the shared schedule for open loop, or the next of this connection's own for closed loop.
+	 */
+	private void work(int connection) {
+		long end = start + warmupNanos + durationNanos;
+		long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+		long ownTickets = 0;
+		while (true) {
+			long due;
+			if (open) {
+				due = start + tickets.getAndIncrement() * interval;
+			} else if (interval > 0) {
+				due = start + (ownTickets++ * connections + connection) * interval;
+			} else {
+				due = Math.max(start, System.nanoTime());
+			}
+			if (due >= end) {
+				return;
+			}
+			for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+				LockSupport.parkNanos(wait);
+			}
+			
+			Operation operation = mix[ThreadLocalRandom.current().nextInt(mix.length)];
+			String[] pair = pairs[ThreadLocalRandom.current().nextInt(pairs.length)];
+			long sent = System.nanoTime();
+			boolean ok;
+			try {
+				ok = send(operation, pair);
+			} catch (IOException e) {
+				ok = false;
+			}
+			long done = System.nanoTime();
+			if (due >= start + warmupNanos) {
+				corrected.get(operation).record(done - due);
+				uncorrected.get(operation).record(done - sent);
+				if (!ok) {
+					errors.get(operation).increment();
+				}
+			}
+		}
+	}
+	
+	private boolean send(Operation operation, String[] pair) throws IOException {
+		String codes = "fromCurrencyCode=" + pair[0] + "&toCurrencyCode=" + pair[1];
+		switch (operation) {
+			case SET:
+				float value = 0.5f + ThreadLocalRandom.current().nextInt(1000) / 1000f;
+				return request("POST", "/currency", exchangeRate(pair, value, LocalDate.now())) == 200;
+			case HISTORY:
+				return request("GET", "/currency?" + codes, null) == 200;
+			case LATEST:
+				return request("GET", "/currency/latest?" + codes, null) == 200;
+			default:
+				LocalDate date = LocalDate.now().minusDays(ThreadLocalRandom.current().nextInt(3));
+				return request("GET", "/currency/" + date + "?" + codes, null) == 200;
+		}
+	}
+	
+	/**
+	 * Saves 3 days of rates for every pair, so reads find them.
+	 */
+	private void seed() throws IOException {
+		StringBuilder batch = new StringBuilder("[");
+		for (String[] pair : pairs) {
+			for (int day = 0; day < 3; day++) {
+				batch.append(batch.length() > 1 ? "," : "").append(exchangeRate(pair, 1f, LocalDate.now().minusDays(day)));
+			}
+			if (batch.length() > 32768) {
+				seed(batch.append(']'));
+				batch.setLength(1);
+			}
+		}
+		if (batch.length() > 1) {
+			seed(batch.append(']'));
+		}
+	}
+	
+	private void seed(StringBuilder batch) throws IOException {
+		// the first requests can miss the batch constraint while the instance warms up
+		for (int attempt = 0; request("POST", "/currency/batch", batch.toString()) != 200; attempt++) {
+			if (attempt == 10) {
+				throw new IOException("Unable to seed exchange rates");
+			}
+		}
+	}
+	
+	private int request(String method, String path, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(10_000);
+		connection.setReadTimeout(10_000);
+		if (body != null) {
+			byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/json");
+			connection.setFixedLengthStreamingMode(bytes.length);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(bytes);
+			}
+		}
+		int status = connection.getResponseCode();
+		
+		// read the whole response so the connection can be reused
+		InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		if (in != null) {
+			try (InputStream response = in) {
+				byte[] buffer = new byte[4096];
+				while (response.read(buffer) >= 0) {
+					// discard
+				}
+			}
+		}
+		return status;
+	}
+	
+	private boolean report() {
+		double seconds = durationNanos / (double) TimeUnit.SECONDS.toNanos(1);
+		double budget = budgetNanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+		System.out.printf(Locale.ROOT, "%n%s loop, %s req/s, %d connections, %d pairs, %.0fs (latency in us)%n",
+				open ? "Open" : "Closed", rate > 0 ? rate : "max", connections, pairs.length, seconds);
+		System.out.printf(Locale.ROOT, "%-8s %9s %8s %8s | %9s %9s | %9s %9s %9s %9s %9s | %s%n", "endpoint", "req/s",
+				"count", "errors", "sent p50", "sent p99", "p50", "p90", "p99", "p99.9", "max", "budget");
+		boolean met = true;
+		for (Operation operation : Operation.values()) {
+			LatencyHistogram.Snapshot latency = corrected.get(operation).snapshot();
+			LatencyHistogram.Snapshot sent = uncorrected.get(operation).snapshot();
+			if (latency.getCount() == 0) {
+				continue;
+			}
+			boolean ok = latency.getP99() <= budget;
+			met &= ok;
+			System.out.printf(Locale.ROOT, "%-8s %9.0f %8d %8d | %9.0f %9.0f | %9.0f %9.0f %9.0f %9.0f %9.0f | %s%n",
+					operation.name().toLowerCase(Locale.ROOT), latency.getCount() / seconds, latency.getCount(),
+					errors.get(operation).sum(), sent.getP50(), sent.getP99(), latency.getP50(), latency.getP90(),
+					latency.getP99(), latency.getP999(), latency.getMax(), ok ? "met" : "MISSED");
+		}
+		System.out.printf(Locale.ROOT, "p99 budget of %s %s%n", Duration.ofNanos(budgetNanos), met ? "met" : "MISSED");
+		return met;
+	}
+	
+	private String option(String name, String defaultValue) {
+		return options.getOrDefault(name, defaultValue);
+	}
+	
+	private String[] applicationArgs() {
+		List<String> args = new ArrayList<>();
+		args.add("--server.port=0");
+		for (Map.Entry<String, String> option : options.entrySet()) {
+			if (!OPTIONS.contains(option.getKey())) {
+				args.add("--" + option.getKey() + "=" + option.getValue());
+			}
+		}
+		return args.toArray(new String[0]);
+	}
+	
+	/**
+	 * @return the first pairs of distinct ISO 4217 codes
+	 */
+	private static String[][] pairs(int count) {
+		int codes = CurrencyCodes.count();
+		if (count < 1 || count > codes * (codes - 1)) {
+			throw new IllegalArgumentException("--pairs must be 1 to " + codes * (codes - 1));
+		}
+		String[][] pairs = new String[count][];
+		for (int i = 0, from = 0, to = 1; i < count; i++) {
+			pairs[i] = new String[] { CurrencyCodes.code(from), CurrencyCodes.code(to) };
+			if (++to == from) {
+				to++;
+			}
+			if (to >= codes) {
+				from++;
+				to = from == 0 ? 1 : 0;
+			}
+		}
+		return pairs;
+	}
+	
+	/**
+	 * @return the operations repeated by weight, so a uniform pick follows the mix
+	 */
+	private static Operation[] mix(String mix) {
+		List<Operation> operations = new ArrayList<>();
+		for (String weight : mix.split(",")) {
+			String[] parts = weight.split(":");
+			Operation operation = Operation.valueOf(parts[0].trim().toUpperCase(Locale.ROOT));
+			for (int i = Integer.parseInt(parts[1].trim()); i > 0; i--) {
+				operations.add(operation);
+			}
+		}
+		if (operations.isEmpty()) {
+			throw new IllegalArgumentException("Empty --mix");
+		}
+		return operations.toArray(new Operation[0]);
+	}
+	
+	private static String exchangeRate(String[] pair, float rate, LocalDate date) {
+		return String.format(Locale.ROOT, "{\"from\":\"%s\",\"to\":\"%s\",\"rate\":%s,\"reportedOn\":\"%s\"}",
+				pair[0], pair[1], rate, date);
+	}
+}
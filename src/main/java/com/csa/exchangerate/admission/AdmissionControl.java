@@ -0,0 +1,129 @@
+package com.csa.exchangerate.admission;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.csa.exchangerate.util.SelfExpiringHashMap;
+
+/**
+ * Per client admission control, checked before a request does any work so a client sending more than its
+ * budget can't take the executor or the repository's locks away from everyone else.
+ * 
+ * Clients are told apart by their API key, or by their remote address when they don't send one.  Each has
+ * a {@link TokenBucket} for reads and one for writes, with the same {@link AdmissionLimit} for every
+ * client.  Limits can be changed at runtime and apply to the next request.
+ * 
+ * Clients idle for the idle timeout are forgotten (expired by the shared timing wheel).  When there are
+ * already the maximum number of clients, new ones share a single bucket until some are forgotten, so
+ * clients can't run the budgets out of memory by making up keys.  Two requests from a new client at the
+ * same moment may each start a bucket, one of which is kept.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@Component
+public class AdmissionControl {
+	
+	private final String clientHeader;
+	private final int maxClients;
+	private final SelfExpiringHashMap<String, TokenBucket[]> clients;
+	private final TokenBucket[] overflow = newBuckets();
+	
+	private final AtomicReferenceArray<AdmissionLimit> limits = new AtomicReferenceArray<>(Traffic.values().length);
+	private final LongAdder[] admitted = newCounters();
+	private final LongAdder[] throttled = newCounters();
+	
+	public AdmissionControl(
+			@Value("${exchangerate.admission.client-header:X-API-Key}") String clientHeader, 
+			@Value("${exchangerate.admission.read.rate:10000}") double readRate, 
+			@Value("${exchangerate.admission.read.burst:20000}") int readBurst, 
+			@Value("${exchangerate.admission.write.rate:1000}") double writeRate, 
+			@Value("${exchangerate.admission.write.burst:2000}") int writeBurst, 
+			@Value("${exchangerate.admission.max-clients:10000}") int maxClients, 
+			@Value("${exchangerate.admission.idle-timeout:10m}") Duration idleTimeout) {
+		this.clientHeader = clientHeader;
+		this.maxClients = maxClients;
+		this.clients = new SelfExpiringHashMap<>(idleTimeout.toMillis());
+		setLimit(Traffic.READ, new AdmissionLimit(readRate, readBurst));
+		setLimit(Traffic.WRITE, new AdmissionLimit(writeRate, writeBurst));
+	}
+	
+	/**
+	 * Takes a token from the client's budget for the traffic.
+	 * 
+	 * @param client API key or remote address
+	 * @param traffic
+	 * @return 0 if the request is admitted, otherwise nanoseconds until the client may try again
+	 */
+	public long admit(String client, Traffic traffic) {
+		AdmissionLimit limit = limits.get(traffic.ordinal());
+		long wait = limit.isUnlimited() ? 0 : buckets(client)[traffic.ordinal()].tryAcquire(limit, System.nanoTime());
+		(wait == 0 ? admitted : throttled)[traffic.ordinal()].increment();
+		return wait;
+	}
+	
+	private TokenBucket[] buckets(String client) {
+		TokenBucket[] buckets = clients.get(client);
+		if (buckets == null) {
+			if (clients.size() >= maxClients) {
+				return overflow;
+			}
+			buckets = newBuckets();
+			clients.put(client, buckets);
+		}
+		return buckets;
+	}
+	
+	/**
+	 * @return name of the header holding a client's API key
+	 */
+	public String getClientHeader() {
+		return clientHeader;
+	}
+	
+	public AdmissionLimit getLimit(Traffic traffic) {
+		return limits.get(traffic.ordinal());
+	}
+	
+	public void setLimit(Traffic traffic, AdmissionLimit limit) {
+		limits.set(traffic.ordinal(), limit);
+	}
+	
+	/**
+	 * @return number of clients with a budget
+	 */
+	public int getClientCount() {
+		return clients.size();
+	}
+	
+	public long getAdmittedCount(Traffic traffic) {
+		return admitted[traffic.ordinal()].sum();
+	}
+	
+	/**
+	 * @return number of requests refused because the client was over its budget
+	 */
+	public long getThrottledCount(Traffic traffic) {
+		return throttled[traffic.ordinal()].sum();
+	}
+	
+	private static TokenBucket[] newBuckets() {
+		TokenBucket[] buckets = new TokenBucket[Traffic.values().length];
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new TokenBucket();
+		}
+		return buckets;
+	}
+	
+	private static LongAdder[] newCounters() {
+		LongAdder[] counters = new LongAdder[Traffic.values().length];
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = new LongAdder();
+		}
+		return counters;
+	}
+}
@@ -0,0 +1,53 @@
+package com.csa.exchangerate.admission;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client's budget for a kind of traffic: the requests per second it's allowed on average, and the burst
+ * it may send at once after being idle.  A rate of 0 means no limit.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public class AdmissionLimit {
+	
+	final private double rate;
+	final private int burst;
+	final private long intervalNanos;   // time one request uses up
+	final private long toleranceNanos;  // how far ahead of now a client may run
+	
+	/**
+	 * @param rate requests per second, 0 for no limit
+	 * @param burst requests at once
+	 * @throws IllegalArgumentException if the rate is negative or the burst isn't positive
+	 */
+	public AdmissionLimit(double rate, int burst) {
+		if (rate < 0 || burst < 1) {
+			throw new IllegalArgumentException("Rate must not be negative and burst must be positive");
+		}
+		this.rate = rate;
+		this.burst = burst;
+		this.intervalNanos = rate > 0 ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate)) : 0;
+		this.toleranceNanos = intervalNanos * burst;
+	}
+	
+	public double getRate() {
+		return rate;
+	}
+	
+	public int getBurst() {
+		return burst;
+	}
+	
+	public boolean isUnlimited() {
+		return intervalNanos == 0;
+	}
+	
+	long getIntervalNanos() {
+		return intervalNanos;
+	}
+	
+	long getToleranceNanos() {
+		return toleranceNanos;
+	}
+}
@@ -0,0 +1,39 @@
+package com.csa.exchangerate.admission;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Lock free token bucket, kept as the single time at which the bucket would be full again (the generic
+ * cell rate algorithm).  Taking a token moves that time on by one request's interval, and is refused if it
+ * would move further ahead of now than the burst allows.  Refilling is implied by time passing, so a token
+ * is one compare-and-set with no timer or lock, and a change of limit applies to the next request.
+ * 
+ * @author Brian A Zied
+ *
+ */
+class TokenBucket {
+	
+	private static final AtomicLongFieldUpdater<TokenBucket> FULL_AT = 
+			AtomicLongFieldUpdater.newUpdater(TokenBucket.class, "fullAt");
+	
+	private volatile long fullAt = Long.MIN_VALUE / 2;  // System.nanoTime(), far in the past when new
+	
+	/**
+	 * @param limit
+	 * @param now System.nanoTime()
+	 * @return 0 if a token was taken, otherwise nanoseconds until one will be there
+	 */
+	long tryAcquire(AdmissionLimit limit, long now) {
+		long interval = limit.getIntervalNanos();
+		while (true) {
+			long fullAt = this.fullAt;
+			long next = Math.max(fullAt - now, 0) + interval;
+			if (next > limit.getToleranceNanos()) {
+				return next - limit.getToleranceNanos();
+			}
+			if (FULL_AT.compareAndSet(this, fullAt, now + next)) {
+				return 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package com.csa.exchangerate.admission;
+
+/**
+ * The kinds of traffic with their own admission budgets.  Each client has a budget per kind, so a client
+ * flooding writes doesn't use up its reads (or anyone else's).
+ * 
+ * @author Brian A Zied
+ *
+ */
+public enum Traffic {
+	READ,
+	WRITE;
+	
+	/**
+	 * @param method HTTP method
+	 * @return WRITE for methods that change rates, READ otherwise
+	 */
+	public static Traffic of(String method) {
+		return "GET".equals(method) || "HEAD".equals(method) ? READ : WRITE;
+	}
+}
@@ -0,0 +1,26 @@
+package com.csa.exchangerate.cache;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Enables Spring's caching annotations, backed by {@link TinyLfuCache}s.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+	@Bean
+	public TinyLfuCacheManager cacheManager(
+			@Value("${exchangerate.cache.maximum-size:10000}") long maximumSize,
+			@Value("${exchangerate.cache.expire-after-write:60s}") Duration expireAfterWrite) {
+		return new TinyLfuCacheManager(maximumSize, expireAfterWrite.toMillis());
+	}
+}
@@ -0,0 +1,43 @@
+package com.csa.exchangerate.cache;
+
+/**
+ * Snapshot of a cache's counters.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public class CacheStats {
+
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+	private final long size;
+	
+	public CacheStats(long hitCount, long missCount, long evictionCount, long size) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.size = size;
+	}
+
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	public long getMissCount() {
+		return missCount;
+	}
+
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public long getSize() {
+		return size;
+	}
+	
+	public double getHitRate() {
+		long requests = hitCount + missCount;
+		return requests == 0 ? 0 : hitCount / (double) requests;
+	}
+}
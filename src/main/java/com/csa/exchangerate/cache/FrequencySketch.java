@@ -0,0 +1,85 @@
+package com.csa.exchangerate.cache;
+
+/**
+ * Count-min sketch of how often keys were used, with 4 bit counters.  Each key has a counter in 4 rows 
+ * and its frequency is the smallest of them, so collisions can only overestimate it.  Once the number of 
+ * increments reaches 10x the cache size every counter is halved, so keys that were popular a long time ago
+ * age out.
+ * 
+ * Not thread safe, the cache only uses it under its eviction lock.
+ * 
+ * @author Brian A Zied
+ *
+ */
+class FrequencySketch {
+
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final int MAX_FREQUENCY = 15;
+	
+	private final long[] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int additions;
+	
+	FrequencySketch(long maximumSize) {
+		int length = Integer.highestOneBit((int) Math.min(Math.max(maximumSize, 1), 1 << 30) - 1) << 1;
+		this.table = new long[Math.max(length, 1)];
+		this.tableMask = table.length - 1;
+		this.sampleSize = (int) Math.min(10 * Math.max(maximumSize, 1), Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * @return estimated number of times the key was used (0 to 15)
+	 */
+	int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		int frequency = MAX_FREQUENCY;
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xF);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+	
+	/**
+	 * Counts a use of the key.
+	 */
+	void increment(Object key) {
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			int offset = (start + i) << 2;
+			if (((table[index] >>> offset) & 0xF) != MAX_FREQUENCY) {
+				table[index] += 1L << offset;
+				added = true;
+			}
+		}
+		if (added && ++additions == sampleSize) {
+			reset();
+		}
+	}
+	
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		additions /= 2;
+	}
+	
+	private int indexOf(int hash, int row) {
+		long index = (hash + SEEDS[row]) * SEEDS[row];
+		index += index >>> 32;
+		return (int) index & tableMask;
+	}
+	
+	private static int spread(int hash) {
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		return (hash >>> 16) ^ hash;
+	}
+}
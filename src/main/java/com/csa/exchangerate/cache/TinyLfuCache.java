@@ -0,0 +1,357 @@
+package com.csa.exchangerate.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+
+/**
+ * Size bounded cache with W-TinyLFU eviction.
+ * 
+ * New entries go into a small LRU window (1% of the cache).  An entry leaving the window is only admitted
+ * to the main space if it has been used more often than the entry main would evict for it, judged by a
+ * {@link FrequencySketch}.  Main is a segmented LRU: entries start on probation and move to the protected
+ * segment (80% of main) when used again.  So a burst of one-off keys (a scan) passes through the window
+ * without pushing out the keys that are used all the time.
+ * 
+ * Entries live in a {@link ConcurrentHashMap}, so reads don't block.  The eviction order and sketch are 
+ * updated under a lock, which reads only try to take: when it's busy the read isn't counted, which costs a
+ * little accuracy rather than making readers wait.  Entries can also expire a fixed time after they're 
+ * written.
+ * 
+ * A value loaded through {@link #get(Object, Callable)} isn't cached if the key was evicted while it was
+ * loading, as it may have been loaded before the write the eviction was for.  Evictions bump a stamp for
+ * the key's stripe, and a load whose stripe's stamp changed removes what it put.  So callers should evict
+ * after they write, and cache their reads with {@code @Cacheable(sync = true)}.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public class TinyLfuCache extends AbstractValueAdaptingCache {
+
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+	private static final int STRIPES = 64;
+	
+	private final String name;
+	private final long expireAfterWriteNanos;
+	private final ConcurrentHashMap<Object, Node> data = new ConcurrentHashMap<>();
+	private final AtomicLongArray evictionStamps = new AtomicLongArray(STRIPES);
+	
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private final FrequencySketch sketch;
+	private final AccessOrder window = new AccessOrder();
+	private final AccessOrder probation = new AccessOrder();
+	private final AccessOrder protectedOrder = new AccessOrder();
+	private final long maximumSize;
+	private final long maximumWindowSize;
+	private final long maximumProtectedSize;
+	
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	
+	/**
+	 * @param name
+	 * @param maximumSize maximum number of entries
+	 * @param expireAfterWriteMillis time an entry lives after it's written, 0 to never expire
+	 */
+	public TinyLfuCache(String name, long maximumSize, long expireAfterWriteMillis) {
+		super(true);
+		this.name = name;
+		this.maximumSize = Math.max(maximumSize, 1);
+		this.maximumWindowSize = Math.max(this.maximumSize / 100, 1);
+		this.maximumProtectedSize = (this.maximumSize - maximumWindowSize) * 80 / 100;
+		this.expireAfterWriteNanos = expireAfterWriteMillis > 0 ? expireAfterWriteMillis * 1_000_000L : Long.MAX_VALUE;
+		this.sketch = new FrequencySketch(this.maximumSize);
+	}
+	
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Object getNativeCache() {
+		return data;
+	}
+	
+	@Override
+	protected Object lookup(Object key) {
+		Node node = data.get(key);
+		if (node == null) {
+			misses.increment();
+			return null;
+		}
+		if (System.nanoTime() - node.writtenAt >= expireAfterWriteNanos) {
+			remove(key, node);
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		if (evictionLock.tryLock()) {
+			try {
+				sketch.increment(key);
+				onAccess(node);
+			} finally {
+				evictionLock.unlock();
+			}
+		}
+		return node.value;
+	}
+
+	/**
+	 * Loads the value if it isn't cached.  Concurrent callers for the same key may both load it.  The value
+	 * is only cached if the key wasn't evicted while it was loading.
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T get(Object key, Callable<T> valueLoader) {
+		int stripe = stripe(key);
+		long stamp = evictionStamps.get(stripe);
+		Object value = lookup(key);
+		if (value != null) {
+			return (T) fromStoreValue(value);
+		}
+		T loaded;
+		try {
+			loaded = valueLoader.call();
+		} catch (Exception e) {
+			throw new ValueRetrievalException(key, valueLoader, e);
+		}
+		Node node = new Node(key, toStoreValue(loaded), System.nanoTime());
+		Node replaced = data.put(key, node);
+		// an eviction after the load started may be for a write the load didn't see
+		if (evictionStamps.get(stripe) != stamp) {
+			data.remove(key, node);
+		}
+		link(key, node, replaced);
+		return loaded;
+	}
+
+	@Override
+	public void put(Object key, Object value) {
+		Node node = new Node(key, toStoreValue(value), System.nanoTime());
+		link(key, node, data.put(key, node));
+	}
+	
+	private void link(Object key, Node node, Node replaced) {
+		evictionLock.lock();
+		try {
+			if (replaced != null) {
+				unlink(replaced);
+			}
+			sketch.increment(key);
+			// a concurrent put may already have replaced this one
+			if (data.get(key) == node) {
+				node.queue = WINDOW;
+				window.addLast(node);
+				evict();
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	@Override
+	public void evict(Object key) {
+		evictionStamps.incrementAndGet(stripe(key));
+		Node node = data.remove(key);
+		if (node != null) {
+			evictionLock.lock();
+			try {
+				unlink(node);
+			} finally {
+				evictionLock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < STRIPES; i++) {
+			evictionStamps.incrementAndGet(i);
+		}
+		evictionLock.lock();
+		try {
+			data.clear();
+			window.clear();
+			probation.clear();
+			protectedOrder.clear();
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+	
+	/**
+	 * @return hit, miss and eviction counts so far
+	 */
+	public CacheStats getStats() {
+		return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), data.size());
+	}
+	
+	private static int stripe(Object key) {
+		int hash = key.hashCode();
+		return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+	}
+	
+	private void remove(Object key, Node node) {
+		if (data.remove(key, node)) {
+			evictionLock.lock();
+			try {
+				unlink(node);
+			} finally {
+				evictionLock.unlock();
+			}
+		}
+	}
+	
+	private void onAccess(Node node) {
+		if (!node.isLinked()) {
+			return;
+		}
+		switch (node.queue) {
+		case WINDOW:
+			window.moveToLast(node);
+			break;
+		case PROBATION:
+			probation.remove(node);
+			node.queue = PROTECTED;
+			protectedOrder.addLast(node);
+			if (protectedOrder.size > maximumProtectedSize) {
+				Node demoted = protectedOrder.removeFirst();
+				demoted.queue = PROBATION;
+				probation.addLast(demoted);
+			}
+			break;
+		default:
+			protectedOrder.moveToLast(node);
+		}
+	}
+	
+	/**
+	 * Moves entries past the window's size into main, evicting whichever of the candidate and main's LRU 
+	 * entry is used less when main is full.
+	 */
+	private void evict() {
+		while (window.size > maximumWindowSize) {
+			Node candidate = window.removeFirst();
+			if (window.size + probation.size + protectedOrder.size < maximumSize) {
+				candidate.queue = PROBATION;
+				probation.addLast(candidate);
+				continue;
+			}
+			Node victim = probation.size > 0 ? probation.first : protectedOrder.first;
+			if (victim != null && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+				unlink(victim);
+				data.remove(victim.key, victim);
+				candidate.queue = PROBATION;
+				probation.addLast(candidate);
+			} else {
+				data.remove(candidate.key, candidate);
+			}
+			evictions.increment();
+		}
+	}
+	
+	private void unlink(Node node) {
+		if (!node.isLinked()) {
+			return;
+		}
+		switch (node.queue) {
+		case WINDOW:
+			window.remove(node);
+			break;
+		case PROBATION:
+			probation.remove(node);
+			break;
+		default:
+			protectedOrder.remove(node);
+		}
+	}
+	
+	private static class Node {
+		final Object key;
+		final Object value;
+		final long writtenAt;
+		int queue;
+		Node prev;
+		Node next;
+		AccessOrder owner;
+		
+		Node(Object key, Object value, long writtenAt) {
+			this.key = key;
+			this.value = value;
+			this.writtenAt = writtenAt;
+		}
+		
+		boolean isLinked() {
+			return owner != null;
+		}
+	}
+	
+	/**
+	 * Intrusive doubly linked list, least recently used first.
+	 */
+	private static class AccessOrder {
+		Node first;
+		Node last;
+		long size;
+		
+		void addLast(Node node) {
+			node.owner = this;
+			node.prev = last;
+			node.next = null;
+			if (last == null) {
+				first = node;
+			} else {
+				last.next = node;
+			}
+			last = node;
+			size++;
+		}
+		
+		Node removeFirst() {
+			Node node = first;
+			remove(node);
+			return node;
+		}
+		
+		void remove(Node node) {
+			if (node.prev == null) {
+				first = node.next;
+			} else {
+				node.prev.next = node.next;
+			}
+			if (node.next == null) {
+				last = node.prev;
+			} else {
+				node.next.prev = node.prev;
+			}
+			node.prev = null;
+			node.next = null;
+			node.owner = null;
+			size--;
+		}
+		
+		void moveToLast(Node node) {
+			if (node != last) {
+				remove(node);
+				addLast(node);
+			}
+		}
+		
+		void clear() {
+			for (Node node = first; node != null; node = node.next) {
+				node.owner = null;
+			}
+			first = null;
+			last = null;
+			size = 0;
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.csa.exchangerate.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.cache.CacheManager;
+
+/**
+ * Creates a {@link TinyLfuCache} for each cache name the first time it's asked for, all with the same 
+ * size bound and expiry.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public class TinyLfuCacheManager implements CacheManager {
+
+	private final ConcurrentMap<String, TinyLfuCache> caches = new ConcurrentHashMap<>();
+	private final long maximumSize;
+	private final long expireAfterWriteMillis;
+	
+	/**
+	 * @param maximumSize maximum number of entries in each cache
+	 * @param expireAfterWriteMillis time an entry lives after it's written, 0 to never expire
+	 */
+	public TinyLfuCacheManager(long maximumSize, long expireAfterWriteMillis) {
+		this.maximumSize = maximumSize;
+		this.expireAfterWriteMillis = expireAfterWriteMillis;
+	}
+	
+	@Override
+	public TinyLfuCache getCache(String name) {
+		return caches.computeIfAbsent(name, n -> new TinyLfuCache(n, maximumSize, expireAfterWriteMillis));
+	}
+
+	@Override
+	public Collection<String> getCacheNames() {
+		return Collections.unmodifiableSet(caches.keySet());
+	}
+}
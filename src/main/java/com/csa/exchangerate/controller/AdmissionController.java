@@ -0,0 +1,75 @@
+package com.csa.exchangerate.controller;
+
+import static com.csa.exchangerate.model.ApiErrorBuilder.newError;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.csa.exchangerate.admission.AdmissionControl;
+import com.csa.exchangerate.admission.AdmissionLimit;
+import com.csa.exchangerate.admission.Traffic;
+import com.csa.exchangerate.model.ApiError;
+
+/**
+ * Reads and changes the per client admission limits at runtime, see {@link AdmissionControl}.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@RestController
+@RequestMapping("/admission")
+public class AdmissionController {
+	
+	@Autowired
+	private AdmissionControl admissionControl;
+	
+	/**
+	 * This method will get the read and write limits of each client.
+	 * 
+	 * @return limits
+	 */
+	@GetMapping
+	public ResponseEntity<Map<Traffic, AdmissionLimit>> getLimits() {
+		Map<Traffic, AdmissionLimit> limits = new LinkedHashMap<>();
+		for (Traffic traffic : Traffic.values()) {
+			limits.put(traffic, admissionControl.getLimit(traffic));
+		}
+		return ResponseEntity.ok(limits);
+	}
+	
+	/**
+	 * This method will set the limit of each client for a kind of traffic (READ or WRITE), which applies
+	 * from the next request.
+	 * 
+	 * @param traffic
+	 * @param rate requests per second, 0 for no limit
+	 * @param burst requests at once
+	 * @return the new limit
+	 */
+	@PutMapping("/{traffic}")
+	public ResponseEntity<AdmissionLimit> setLimit(
+			@PathVariable Traffic traffic, 
+			@RequestParam double rate, 
+			@RequestParam int burst) {
+		
+		AdmissionLimit limit = new AdmissionLimit(rate, burst);
+		admissionControl.setLimit(traffic, limit);
+		return ResponseEntity.ok(limit);
+	}
+	
+	@ExceptionHandler(IllegalArgumentException.class)
+	public ResponseEntity<ApiError> handleIllegalArgumentException(IllegalArgumentException ex) {
+		return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(newError(ex.getMessage()).build());
+	}
+}
@@ -0,0 +1,80 @@
+package com.csa.exchangerate.controller;
+
+import static com.csa.exchangerate.model.ApiErrorBuilder.newError;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.csa.exchangerate.admission.AdmissionControl;
+import com.csa.exchangerate.admission.Traffic;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Applies {@link AdmissionControl} to /currency requests on the servlet stack.  It runs before the request
+ * body is read or the handler called, so a client over its budget gets a 429 (with Retry-After) without
+ * taking an executor thread or touching the repository.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class AdmissionInterceptor implements HandlerInterceptor, WebMvcConfigurer {
+	
+	static final String TOO_MANY_REQUESTS = "Too many requests, please slow down.";
+	
+	@Autowired
+	private AdmissionControl admissionControl;
+	
+	private final byte[] tooManyRequests;
+	
+	public AdmissionInterceptor(ObjectMapper objectMapper) throws JsonProcessingException {
+		this.tooManyRequests = objectMapper.writeValueAsBytes(newError(TOO_MANY_REQUESTS).build());
+	}
+	
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(this).addPathPatterns("/currency", "/currency/**");
+	}
+	
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+		// an asynchronous response is dispatched again once it's ready, it was admitted the first time
+		if (request.getDispatcherType() == DispatcherType.ASYNC) {
+			return true;
+		}
+		String client = request.getHeader(admissionControl.getClientHeader());
+		long wait = admissionControl.admit(client != null ? client : request.getRemoteAddr(), Traffic.of(request.getMethod()));
+		if (wait == 0) {
+			return true;
+		}
+		response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+		response.setHeader(HttpHeaders.RETRY_AFTER, retryAfter(wait));
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		response.setContentLength(tooManyRequests.length);
+		response.getOutputStream().write(tooManyRequests);
+		return false;
+	}
+	
+	/**
+	 * @param wait nanoseconds
+	 * @return Retry-After seconds, rounded up
+	 */
+	static String retryAfter(long wait) {
+		return Long.toString((wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+	}
+}
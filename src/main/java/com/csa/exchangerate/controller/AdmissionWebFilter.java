@@ -0,0 +1,70 @@
+package com.csa.exchangerate.controller;
+
+import static com.csa.exchangerate.controller.AdmissionInterceptor.TOO_MANY_REQUESTS;
+import static com.csa.exchangerate.controller.AdmissionInterceptor.retryAfter;
+import static com.csa.exchangerate.model.ApiErrorBuilder.newError;
+
+import java.net.InetSocketAddress;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import com.csa.exchangerate.admission.AdmissionControl;
+import com.csa.exchangerate.admission.Traffic;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive version of {@link AdmissionInterceptor}, answering a client over its budget with a 429 on the
+ * event loop before the request body is read.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class AdmissionWebFilter implements WebFilter {
+	
+	@Autowired
+	private AdmissionControl admissionControl;
+	
+	private final byte[] tooManyRequests;
+	
+	public AdmissionWebFilter(ObjectMapper objectMapper) throws JsonProcessingException {
+		this.tooManyRequests = objectMapper.writeValueAsBytes(newError(TOO_MANY_REQUESTS).build());
+	}
+	
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		ServerHttpRequest request = exchange.getRequest();
+		String path = request.getPath().value();
+		if (!path.equals("/currency") && !path.startsWith("/currency/")) {
+			return chain.filter(exchange);
+		}
+		String client = request.getHeaders().getFirst(admissionControl.getClientHeader());
+		if (client == null) {
+			InetSocketAddress address = request.getRemoteAddress();
+			client = address != null ? address.getHostString() : "";
+		}
+		long wait = admissionControl.admit(client, Traffic.of(request.getMethodValue()));
+		if (wait == 0) {
+			return chain.filter(exchange);
+		}
+		ServerHttpResponse response = exchange.getResponse();
+		response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+		response.getHeaders().set(HttpHeaders.RETRY_AFTER, retryAfter(wait));
+		response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+		return response.writeWith(Mono.just(response.bufferFactory().wrap(tooManyRequests)));
+	}
+}
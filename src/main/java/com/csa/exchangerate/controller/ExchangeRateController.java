@@ -1,23 +1,37 @@
 package com.csa.exchangerate.controller;
 
+import static com.csa.exchangerate.controller.ExchangeRateRequests.checkPair;
+import static com.csa.exchangerate.controller.ExchangeRateRequests.checkPairCount;
+import static com.csa.exchangerate.controller.ExchangeRateRequests.checkRange;
+import static com.csa.exchangerate.controller.ExchangeRateRequests.saveValid;
+import static com.csa.exchangerate.controller.ExchangeRateRequests.toPair;
+import static com.csa.exchangerate.controller.ExchangeRateRequests.toPairs;
 import static com.csa.exchangerate.model.ApiErrorBuilder.newError;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
-import java.util.Currency;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import javax.validation.ConstraintViolationException;
 import javax.validation.Valid;
+import javax.validation.Validator;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
 import org.springframework.validation.annotation.Validated;
@@ -26,15 +40,30 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.csa.exchangerate.executor.Endpoint;
+import com.csa.exchangerate.executor.RequestExecutor;
 import com.csa.exchangerate.model.ApiError;
 import com.csa.exchangerate.model.ApiErrorBuilder;
+import com.csa.exchangerate.model.BatchResult;
 import com.csa.exchangerate.model.CurrencyCode;
 import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.model.RateAggregate;
+import com.csa.exchangerate.model.RateInterval;
+import com.csa.exchangerate.replication.ReadOnlyReplicaException;
 import com.csa.exchangerate.service.ExchangeRateService;
+import com.csa.exchangerate.service.RateSubscriptions;
+import com.csa.exchangerate.service.RateSubscriptions.Subscription;
+import com.csa.exchangerate.service.WriteCoalescer;
+import com.csa.exchangerate.util.CurrencyPair;
 
 /**
  * @author Brian A Zied
@@ -46,38 +75,104 @@ import com.csa.exchangerate.service.ExchangeRateService;
 @RestController
 @RequestMapping("/currency")
 @Validated
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class ExchangeRateController {
 	
-	private static final int TIMEOUT = 10;
+	private static final long SUBSCRIPTION_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+	
+	private static final String NDJSON_VALUE = "application/x-ndjson";
 	
 	@Autowired
 	private ExchangeRateService exchageRateService;
 	
+	@Autowired
+	private WriteCoalescer writeCoalescer;
+	
+	@Autowired
+	private RequestExecutor requestExecutor;
+	
+	@Autowired
+	private RateSubscriptions rateSubscriptions;
+	
+	@Autowired
+	private Validator validator;
+	
+	@Autowired
+	private ObjectMapper objectMapper;
+	
 	/**
 	 * This method will set the exchange rate for 2 currency codes for specified date.
 	 * It will attempt to lookup the currency codes (or throw an @IllegalArgumentException
 	 * if not found), then set the exchange rate.
-	 * We have a constraint of 10ms so will run the exchange rate service asynchronously
-	 * and throw @TimeoutException if service fails to complete within 10ms constraint
+	 * We have a constraint of the endpoint's SLO (10ms by default) so the response fails with a
+	 * @TimeoutException if the write isn't saved within the SLO
 	 * 
 	 * @param exchangeRate
 	 * @return exchange rate
 	 */
 	@PostMapping
-	public ResponseEntity<ExchangeRate> setExchangeRate(@RequestParam @Valid ExchangeRate exchangeRate)  throws InterruptedException, ExecutionException, TimeoutException {
+	public CompletableFuture<ResponseEntity<ExchangeRate>> setExchangeRate(@RequestBody @Valid ExchangeRate exchangeRate) {
 		
-		// Check if from/to equal
-		if (exchangeRate.getFrom().equalsIgnoreCase(exchangeRate.getTo())) {
-			throw new IllegalArgumentException("From/To must be different currency codes");
-		}
+		// Check if from/to equal, using the pair id the service and repository use too
+		checkPair(exchangeRate.getPair());
+		exchageRateService.checkWritable();
 			
-		// Since it's a single task just use a single thread executor 
-		Callable<ExchangeRate> setExchangeRate = () -> { return exchageRateService.setExchangeRate(exchangeRate); };		
-		Future<ExchangeRate> future = Executors.newSingleThreadExecutor().submit(setExchangeRate);
-		future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		// The write is saved with the others arriving within the coalescing window, the response is sent
+		// once its batch is saved without a thread waiting for it
+		return requestExecutor.executeAsync(Endpoint.SET_EXCHANGE_RATE, () -> writeCoalescer.setExchangeRate(exchangeRate))
+				.thenApply(ResponseEntity::ok);
+	}
+	
+	/**
+	 * This method will set a batch of exchange rates, posted as a JSON array.
+	 * Every record is validated on its own, the valid ones are saved and the invalid ones are reported
+	 * back by their index in the batch.
+	 * Batches have a constraint of their SLO (100ms by default), so will throw @TimeoutException if service
+	 * fails to complete within that constraint
+	 * 
+	 * @param exchangeRates
+	 * @return accepted count and rejected records
+	 */
+	@PostMapping(path = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<BatchResult> setExchangeRates(@RequestBody List<ExchangeRate> exchangeRates) 
+			throws InterruptedException, ExecutionException, TimeoutException {
 		
-		// Return saved exchange rate
-		return ResponseEntity.ok(exchangeRate);
+		exchageRateService.checkWritable();
+		
+		// Run on the shared request executor, the task is cancelled if it doesn't complete in time
+		Callable<BatchResult> setExchangeRates = () -> { return saveValid(exchangeRates, validator, exchageRateService); };
+		BatchResult result = requestExecutor.execute(Endpoint.SET_EXCHANGE_RATES, setExchangeRates);
+		
+		return ResponseEntity.ok(result);
+	}
+	
+	/**
+	 * This method will set a batch of exchange rates, streamed as newline delimited JSON (one exchange rate
+	 * per line).  It behaves the same as the JSON array batch, except that a malformed line only rejects
+	 * that record.
+	 * 
+	 * @param body
+	 * @return accepted count and rejected records
+	 */
+	@PostMapping(path = "/batch", consumes = NDJSON_VALUE)
+	public ResponseEntity<BatchResult> streamExchangeRates(InputStream body) 
+			throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		
+		// Parse line by line, a malformed line is kept as null so it's rejected with its index
+		ObjectReader reader = objectMapper.readerFor(ExchangeRate.class);
+		List<ExchangeRate> exchangeRates = new ArrayList<>();
+		BufferedReader lines = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+		for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+			if (!line.trim().isEmpty()) {
+				try {
+					exchangeRates.add(reader.readValue(line));
+				} catch (JsonProcessingException e) {
+					exchangeRates.add(null);
+				}
+			}
+		}
+		
+		return setExchangeRates(exchangeRates);
 	}
 	
 	/**
@@ -85,8 +180,8 @@ public class ExchangeRateController {
 	 * This method will get the latest exchange rate for 2 currency codes.
 	 * It will attempt to lookup the currency codes (or throw an @IllegalArgumentException
 	 * if not found), then lookup the exchange rate history.
-	 * We have a constraint of 10ms so will run the exchange rate service asynchronously
-	 * and throw @TimeoutException if service fails to complete within 10ms constraint
+	 * We have a constraint of the endpoint's SLO (10ms by default) so will run the exchange rate service on
+	 * the shared request executor and throw @TimeoutException if service fails to complete within the SLO
 	 * 
 	 * @param fromCurrencyCode
 	 * @param toCurrencyCode
@@ -98,65 +193,200 @@ public class ExchangeRateController {
 			@RequestParam @CurrencyCode String toCurrencyCode
 		) throws InterruptedException, ExecutionException, TimeoutException {
 		
-		// Check if from/to equal
-		if (fromCurrencyCode.equalsIgnoreCase(toCurrencyCode)) {
-			throw new IllegalArgumentException("From/To must be different currency codes");
-		}
-			
-		// Convert currency
-		Currency from = Currency.getInstance(fromCurrencyCode.toUpperCase());
-		Currency to = Currency.getInstance(toCurrencyCode.toUpperCase());
+		// Convert currency codes to a currency pair (checks if from/to equal)
+		int pair = toPair(fromCurrencyCode, toCurrencyCode);
 		
-		// Since it's a single task just use a single thread executor 
-		Callable<List<ExchangeRate>> getExchangeRateHistory = () -> { return exchageRateService.getExchangeRateHistory(from, to); };		
-		Future<List<ExchangeRate>> future = Executors.newSingleThreadExecutor().submit(getExchangeRateHistory);
-		List<ExchangeRate> exchangeRates = future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		// Run on the shared request executor, the task is cancelled if it doesn't complete in time
+		Callable<List<ExchangeRate>> getExchangeRateHistory = () -> { return exchageRateService.getExchangeRateHistory(pair); };		
+		List<ExchangeRate> exchangeRates = requestExecutor.execute(Endpoint.GET_EXCHANGE_RATE_HISTORY, getExchangeRateHistory);
 		
 		// Return exchange rates (if any)
 		return ResponseEntity.ok(exchangeRates);
 	}
+	
+	/**
+	 * This method will get the exchange rates for 2 currency codes from a start ISO date to an end ISO date,
+	 * one per day that has a rate, from the long term history (400 days by default).
+	 * We have a constraint of the endpoint's SLO (10ms by default) so will run the exchange rate service on
+	 * the shared request executor and throw @TimeoutException if service fails to complete within the SLO
+	 * 
+	 * @param fromCurrencyCode
+	 * @param toCurrencyCode
+	 * @param start
+	 * @param end
+	 * @return Exchange rates (oldest first)
+	 */
+	@GetMapping(params = { "start", "end" })
+	public ResponseEntity<List<ExchangeRate>> getExchangeRateRange(
+			@RequestParam @CurrencyCode String fromCurrencyCode, 
+			@RequestParam @CurrencyCode String toCurrencyCode,
+			@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+			@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end
+		) throws InterruptedException, ExecutionException, TimeoutException {
+		
+		// Convert currency codes to a currency pair (checks if from/to equal)
+		int pair = toPair(fromCurrencyCode, toCurrencyCode);
+		checkRange(start, end);
+		
+		// Run on the shared request executor, the task is cancelled if it doesn't complete in time
+		Callable<List<ExchangeRate>> getExchangeRateRange = () -> { return exchageRateService.getExchangeRateRange(pair, start, end); };
+		List<ExchangeRate> exchangeRates = requestExecutor.execute(Endpoint.GET_EXCHANGE_RATE_RANGE, getExchangeRateRange);
+		
+		return ResponseEntity.ok(exchangeRates);
+	}
+	
+	/**
+	 * This method will get the open, high, low, close and average exchange rate for 2 currency codes for 
+	 * each day (interval=DAY) or week (interval=WEEK, Monday to Sunday) from a start ISO date to an end 
+	 * ISO date.
+	 * 
+	 * @param fromCurrencyCode
+	 * @param toCurrencyCode
+	 * @param start
+	 * @param end
+	 * @param interval
+	 * @return Aggregates (oldest first)
+	 */
+	@GetMapping("/aggregates")
+	public ResponseEntity<List<RateAggregate>> getExchangeRateAggregates(
+			@RequestParam @CurrencyCode String fromCurrencyCode, 
+			@RequestParam @CurrencyCode String toCurrencyCode,
+			@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+			@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end,
+			@RequestParam(defaultValue = "DAY") RateInterval interval
+		) throws InterruptedException, ExecutionException, TimeoutException {
+		
+		int pair = toPair(fromCurrencyCode, toCurrencyCode);
+		checkRange(start, end);
+		
+		// Run on the shared request executor, the task is cancelled if it doesn't complete in time
+		Callable<List<RateAggregate>> getExchangeRateAggregates = () -> { return exchageRateService.getExchangeRateAggregates(pair, start, end, interval); };
+		List<RateAggregate> aggregates = requestExecutor.execute(Endpoint.GET_EXCHANGE_RATE_AGGREGATES, getExchangeRateAggregates);
+		
+		return ResponseEntity.ok(aggregates);
+	}
 
 	/**
 	 * This method will get the latest exchange rate for 2 currency codes.
 	 * It will attempt to lookup the currency codes (or throw an @IllegalArgumentException
 	 * if not found), then lookup the exchange rate history.
-	 * We have a constraint of 10ms so will run the exchange rate service asynchronously
-	 * and throw @TimeoutException if service fails to complete within 10ms constraint
+	 * We have a constraint of the endpoint's SLO (10ms by default) so will run the exchange rate service on
+	 * the shared request executor and throw @TimeoutException if service fails to complete within the SLO
+	 * 
+	 * The response is written from the JSON bytes the service keeps for the rate.
 	 * 
 	 * @param fromCurrencyCode
 	 * @param toCurrencyCode
 	 * @return Exchange rate, or HTTP 404
 	 */
 	@GetMapping("/latest")
-	public ResponseEntity<ExchangeRate> getLatestExchangeRate(
+	public ResponseEntity<byte[]> getLatestExchangeRate(
 			@RequestParam @CurrencyCode String fromCurrencyCode, 
 			@RequestParam @CurrencyCode String toCurrencyCode
 		) throws InterruptedException, ExecutionException, TimeoutException {
 		
-		// Check if from/to equal
-		if (fromCurrencyCode.equalsIgnoreCase(toCurrencyCode)) {
-			throw new IllegalArgumentException("From/To must be different currency codes");
-		}
-			
-		// Convert currency
-		Currency from = Currency.getInstance(fromCurrencyCode.toUpperCase());
-		Currency to = Currency.getInstance(toCurrencyCode.toUpperCase());
+		// Convert currency codes to a currency pair (checks if from/to equal)
+		int pair = toPair(fromCurrencyCode, toCurrencyCode);
 		
-		// Since it's a single task just use a single thread executor 
-		Callable<Optional<ExchangeRate>> getLatestExchangeRate = () -> { return exchageRateService.getLatestExchangeRate(from, to); };		
-		Future<Optional<ExchangeRate>> future = Executors.newSingleThreadExecutor().submit(getLatestExchangeRate);
-		Optional<ExchangeRate> exchangeRate = future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		// Run on the shared request executor, the task is cancelled if it doesn't complete in time
+		Callable<byte[]> getLatestExchangeRate = () -> { 
+			byte[] json = exchageRateService.getLatestExchangeRateJson(pair);
+			return json != null ? json : exchageRateService.getLatestCrossRateJson(pair); 
+		};		
+		byte[] exchangeRate = requestExecutor.execute(Endpoint.GET_LATEST_EXCHANGE_RATE, getLatestExchangeRate);
 		
 		// If an exchange rate is found, return it, otherwise return HTTP 404 Not Found
-		return exchangeRate.isPresent() ? ResponseEntity.ok(exchangeRate.get()) : ResponseEntity.notFound().build();
+		return toJsonResponse(exchangeRate);
 	}
 
+	/**
+	 * This method will get the latest exchange rates for several currency pairs in one request,
+	 * for example pairs=USD-EUR,GBP/JPY,CHFJPY.
+	 * Pairs without an exchange rate are left out of the response.
+	 * 
+	 * @param pairs
+	 * @return Exchange rates
+	 */
+	@GetMapping(path = "/latest", params = "pairs")
+	public ResponseEntity<List<ExchangeRate>> getLatestExchangeRates(@RequestParam List<String> pairs) 
+			throws InterruptedException, ExecutionException, TimeoutException {
+		
+		checkPairCount(pairs.size());
+		int[] pairIds = new int[pairs.size()];
+		for (int i = 0; i < pairIds.length; i++) {
+			pairIds[i] = checkPair(CurrencyPair.parse(pairs.get(i)));
+		}
+		return getLatestExchangeRates(pairIds);
+	}
+	
+	/**
+	 * This method will get the latest exchange rates from one currency code to several others in one
+	 * request, for example fromCurrencyCode=USD&toCurrencyCodes=EUR,JPY,GBP.
+	 * Pairs without an exchange rate are left out of the response.
+	 * 
+	 * @param fromCurrencyCode
+	 * @param toCurrencyCodes
+	 * @return Exchange rates
+	 */
+	@GetMapping(path = "/latest", params = { "fromCurrencyCode", "toCurrencyCodes" })
+	public ResponseEntity<List<ExchangeRate>> getLatestExchangeRates(
+			@RequestParam @CurrencyCode String fromCurrencyCode, 
+			@RequestParam List<String> toCurrencyCodes
+		) throws InterruptedException, ExecutionException, TimeoutException {
+		
+		checkPairCount(toCurrencyCodes.size());
+		int[] pairIds = new int[toCurrencyCodes.size()];
+		for (int i = 0; i < pairIds.length; i++) {
+			pairIds[i] = toPair(fromCurrencyCode, toCurrencyCodes.get(i));
+		}
+		return getLatestExchangeRates(pairIds);
+	}
+	
+	private ResponseEntity<List<ExchangeRate>> getLatestExchangeRates(int[] pairs) 
+			throws InterruptedException, ExecutionException, TimeoutException {
+		
+		// Run on the shared request executor, the task is cancelled if it doesn't complete in time
+		Callable<List<ExchangeRate>> getLatestExchangeRates = () -> { return exchageRateService.getLatestExchangeRates(pairs); };
+		List<ExchangeRate> exchangeRates = requestExecutor.execute(Endpoint.GET_LATEST_EXCHANGE_RATES, getLatestExchangeRates);
+		
+		return ResponseEntity.ok(exchangeRates);
+	}
+	
+	/**
+	 * This method will subscribe to the latest exchange rates of several currency pairs, for example
+	 * pairs=USD-EUR,GBP/JPY,CHFJPY, as Server-Sent Events.  Each pair's current rate is sent first, then
+	 * every time a saved rate changes it.  A subscriber that reads slower than the rates change is sent 
+	 * the latest rate of each pair rather than every change.
+	 * The stream ends after 30 minutes, Server-Sent Events clients reconnect by themselves.
+	 * 
+	 * @param pairs
+	 * @return "rate" events with an exchange rate
+	 */
+	@GetMapping(path = "/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter subscribe(@RequestParam List<String> pairs) {
+		int[] pairIds = toPairs(pairs);
+		
+		// Writing to the response blocks, so rates are sent on a writer thread per subscriber while it's
+		// writing, the emitter holds them until the response starts
+		SseEmitter emitter = new SseEmitter(SUBSCRIPTION_TIMEOUT);
+		Subscription subscription = rateSubscriptions.subscribeBlocking(pairIds, exchangeRate -> {
+			emitter.send(SseEmitter.event().name("rate").data(exchangeRate, MediaType.APPLICATION_JSON));
+			return true;
+		});
+		emitter.onCompletion(subscription::cancel);
+		emitter.onTimeout(subscription::cancel);
+		emitter.onError(error -> subscription.cancel());
+		return emitter;
+	}
+	
 	/**
 	 * This method will get the exchange rate for 2 currency codes on a specific ISO date (i.e. yyyy-MM-dd ).
 	 * It will attempt to lookup the currency codes (or throw an @IllegalArgumentException
 	 * if not found), then lookup the exchange rate history.
-	 * We have a constraint of 10ms so will run the exchange rate service asynchronously
-	 * and throw @TimeoutException if service fails to complete within 10ms constraint
+	 * We have a constraint of the endpoint's SLO (10ms by default) so will run the exchange rate service on
+	 * the shared request executor and throw @TimeoutException if service fails to complete within the SLO
+	 * 
+	 * The response is written from the JSON bytes the service keeps for the rate.
 	 * 
 	 * @param isoDate
 	 * @param fromCurrencyCode
@@ -164,28 +394,25 @@ public class ExchangeRateController {
 	 * @return Exchange rate, or HTTP 404
 	 */
 	@GetMapping("/{isoDate}")
-	public ResponseEntity<ExchangeRate> getExchangeRateForDate(
+	public ResponseEntity<byte[]> getExchangeRateForDate(
 			@PathVariable @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate isoDate, 
 			@RequestParam @CurrencyCode String fromCurrencyCode, 
 			@RequestParam @CurrencyCode String toCurrencyCode
 		)  throws InterruptedException, ExecutionException, TimeoutException {
 		
-		// Check if from/to equal
-		if (fromCurrencyCode.equalsIgnoreCase(toCurrencyCode)) {
-			throw new IllegalArgumentException("From/To must be different currency codes");
-		}
-			
-		// Convert currency
-		Currency from = Currency.getInstance(fromCurrencyCode.toUpperCase());
-		Currency to = Currency.getInstance(toCurrencyCode.toUpperCase());
+		// Convert currency codes to a currency pair (checks if from/to equal)
+		int pair = toPair(fromCurrencyCode, toCurrencyCode);
 		
-		// Since it's a single task just use a single thread executor 
-		Callable<Optional<ExchangeRate>> getExchangeRateForDate = () -> { return exchageRateService.getExchangeRateForDate(from, to, isoDate); };		
-		Future<Optional<ExchangeRate>> future = Executors.newSingleThreadExecutor().submit(getExchangeRateForDate);
-		Optional<ExchangeRate> exchangeRate = future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		// Run on the shared request executor, the task is cancelled if it doesn't complete in time
+		Callable<byte[]> getExchangeRateForDate = () -> { return exchageRateService.getExchangeRateForDateJson(pair, isoDate); };		
+		byte[] exchangeRate = requestExecutor.execute(Endpoint.GET_EXCHANGE_RATE_FOR_DATE, getExchangeRateForDate);
 		
 		// If an exchange rate is found, return it, otherwise return HTTP 404 Not Found
-		return exchangeRate.isPresent() ? ResponseEntity.ok(exchangeRate.get()) : ResponseEntity.notFound().build();
+		return toJsonResponse(exchangeRate);
+	}
+	
+	private ResponseEntity<byte[]> toJsonResponse(byte[] json) {
+		return json != null ? ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(json) : ResponseEntity.notFound().build();
 	}
 	
 	/**
@@ -198,6 +425,16 @@ public class ExchangeRateController {
 		return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(builder.build());
     }
 
+	@ExceptionHandler(ConstraintViolationException.class)
+    public ResponseEntity<ApiError> handleConstraintViolationException(ConstraintViolationException ex) {
+		ApiErrorBuilder builder = newError("Invalid arguments");
+		ex.getConstraintViolations().forEach((violation) -> {
+			String path = violation.getPropertyPath().toString();
+	        builder.andFieldError(path.substring(path.lastIndexOf('.') + 1), violation.getMessage());
+	    });
+		return ResponseEntity.badRequest().body(builder.build());
+    }
+
 	@ExceptionHandler(MethodArgumentNotValidException.class)
     public ResponseEntity<ApiError> handleValidationExceptions(MethodArgumentNotValidException ex) {
 		ApiErrorBuilder builder = newError("Invalid arguments");
@@ -215,6 +452,18 @@ public class ExchangeRateController {
     	return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(apiError);
     }
 
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<ApiError> handleRejectedExecutionException() {
+    	ApiError apiError = newError("Service is overloaded, please try again later.").build();
+    	return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(apiError);
+    }
+
+    @ExceptionHandler(ReadOnlyReplicaException.class)
+    public ResponseEntity<ApiError> handleReadOnlyReplicaException(ReadOnlyReplicaException ex) {
+    	ApiError apiError = newError(ex.getMessage()).build();
+    	return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(apiError);
+    }
+
     @ExceptionHandler({ InterruptedException.class, ExecutionException.class })
     public ResponseEntity<ApiError> handleInterruptedAndExecutionException() {
     	ApiError apiError = newError("Unexpected error, please try again later.").build();
@@ -0,0 +1,122 @@
+package com.csa.exchangerate.controller;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+
+import com.csa.exchangerate.executor.Deadline;
+import com.csa.exchangerate.model.BatchResult;
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.service.ExchangeRateService;
+import com.csa.exchangerate.util.CurrencyPair;
+
+/**
+ * Request checks shared by the servlet and reactive controllers.
+ * 
+ * @author Brian A Zied
+ *
+ */
+final class ExchangeRateRequests {
+
+	static final int MAX_PAIRS = 500;
+	
+	private ExchangeRateRequests() {
+	}
+	
+	/**
+	 * Validates every exchange rate in the batch and saves the valid ones.  Validation stops if the
+	 * request's deadline passes.
+	 * 
+	 * @param exchangeRates
+	 * @param validator
+	 * @param exchangeRateService
+	 * @return accepted count and rejected records
+	 */
+	static BatchResult saveValid(List<ExchangeRate> exchangeRates, Validator validator, ExchangeRateService exchangeRateService) {
+		BatchResult result = new BatchResult();
+		List<ExchangeRate> valid = new ArrayList<>(exchangeRates.size());
+		for (int i = 0; i < exchangeRates.size(); i++) {
+			if ((i & 63) == 0) {
+				Deadline.checkCurrent();
+			}
+			ExchangeRate exchangeRate = exchangeRates.get(i);
+			if (exchangeRate == null) {
+				result.reject(i, "exchangeRate", "Malformed exchange rate");
+				continue;
+			}
+			Set<ConstraintViolation<ExchangeRate>> violations = validator.validate(exchangeRate);
+			if (!violations.isEmpty()) {
+				for (ConstraintViolation<ExchangeRate> violation : violations) {
+					result.reject(i, violation.getPropertyPath().toString(), violation.getMessage());
+				}
+			} else if (CurrencyPair.from(exchangeRate.getPair()) == CurrencyPair.to(exchangeRate.getPair())) {
+				result.reject(i, "to", "From/To must be different currency codes");
+			} else {
+				valid.add(exchangeRate);
+			}
+		}
+		
+		exchangeRateService.setExchangeRates(valid);
+		result.setAccepted(valid.size());
+		return result;
+	}
+	
+	/**
+	 * Converts currency pairs such as USD-EUR, GBP/JPY or CHFJPY to currency pair ids.
+	 * 
+	 * @param pairs
+	 * @return currency pair ids
+	 */
+	static int[] toPairs(List<String> pairs) {
+		checkPairCount(pairs.size());
+		int[] pairIds = new int[pairs.size()];
+		for (int i = 0; i < pairIds.length; i++) {
+			pairIds[i] = checkPair(CurrencyPair.parse(pairs.get(i)));
+		}
+		return pairIds;
+	}
+	
+	static void checkPairCount(int count) {
+		if (count > MAX_PAIRS) {
+			throw new IllegalArgumentException("At most " + MAX_PAIRS + " currency pairs per request");
+		}
+	}
+	
+	/**
+	 * Converts the from/to currency codes to a currency pair id.  Throws an @IllegalArgumentException
+	 * if either code isn't an ISO 4217 code or both codes are the same.
+	 * 
+	 * @param fromCurrencyCode
+	 * @param toCurrencyCode
+	 * @return currency pair id
+	 */
+	static int toPair(String fromCurrencyCode, String toCurrencyCode) {
+		return checkPair(CurrencyPair.of(fromCurrencyCode, toCurrencyCode));
+	}
+	
+	/**
+	 * Throws an @IllegalArgumentException if the start date is after the end date.
+	 * 
+	 * @param start
+	 * @param end
+	 */
+	static void checkRange(LocalDate start, LocalDate end) {
+		if (start.isAfter(end)) {
+			throw new IllegalArgumentException("Start date must not be after end date");
+		}
+	}
+	
+	static int checkPair(int pair) {
+		if (!CurrencyPair.isIso(pair)) {
+			throw new IllegalArgumentException("Invalid currency code");
+		}
+		if (CurrencyPair.from(pair) == CurrencyPair.to(pair)) {
+			throw new IllegalArgumentException("From/To must be different currency codes");
+		}
+		return pair;
+	}
+}
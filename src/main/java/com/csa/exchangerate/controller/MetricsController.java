@@ -0,0 +1,179 @@
+package com.csa.exchangerate.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.csa.exchangerate.admission.AdmissionControl;
+import com.csa.exchangerate.admission.Traffic;
+import com.csa.exchangerate.cache.TinyLfuCacheManager;
+import com.csa.exchangerate.executor.Endpoint;
+import com.csa.exchangerate.executor.RequestExecutor;
+import com.csa.exchangerate.replication.ReplicationClient;
+import com.csa.exchangerate.replication.ReplicationServer;
+import com.csa.exchangerate.repository.InMemoryExchangeRateRepository;
+import com.csa.exchangerate.service.RateSubscriptions;
+import com.csa.exchangerate.service.WriteCoalescer;
+import com.csa.exchangerate.util.ExpirationEngine;
+import com.csa.exchangerate.util.TimingWheel;
+
+/**
+ * Exposes the hot path instrumentation: per endpoint latency (split into queue wait and service time), 
+ * queue depth, timeouts and rejections, the requests admitted and throttled per client budget, the 
+ * executor's pool, the single writes coalesced into batches, the repository's lock wait, pairs held and
+ * their estimated memory against the budget, the expiration engine's backlog, the service caches' hits,
+ * misses and evictions, the rate subscriptions, and replication (the log and each replica's offset on a
+ * primary, the lag behind the primary on a replica).  Latencies are in microseconds.
+ * 
+ * Everything is recorded on the request path without allocating, the snapshots are only built here.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@RestController
+@RequestMapping("/metrics")
+public class MetricsController {
+
+	@Autowired
+	private RequestExecutor requestExecutor;
+	
+	@Autowired
+	private InMemoryExchangeRateRepository exchangeRateRepository;
+	
+	@Autowired
+	private TinyLfuCacheManager cacheManager;
+	
+	@Autowired
+	private RateSubscriptions rateSubscriptions;
+	
+	@Autowired
+	private AdmissionControl admissionControl;
+	
+	@Autowired
+	private WriteCoalescer writeCoalescer;
+	
+	@Autowired(required = false)
+	private ReplicationServer replicationServer;
+	
+	@Autowired(required = false)
+	private ReplicationClient replicationClient;
+	
+	private final ExpirationEngine expirationEngine = TimingWheel.getDefault();
+	
+	// expirations per second are measured between consecutive requests for metrics
+	private long lastExpiredCount;
+	private long lastExpiredAt = System.nanoTime();
+	
+	/**
+	 * This method will get the current metrics.
+	 * 
+	 * @return metrics
+	 */
+	@GetMapping
+	public ResponseEntity<Map<String, Object>> getMetrics() {
+		Map<String, Object> metrics = new LinkedHashMap<>();
+		
+		Map<String, Object> endpoints = new LinkedHashMap<>();
+		for (Endpoint endpoint : Endpoint.values()) {
+			Map<String, Object> endpointMetrics = new LinkedHashMap<>();
+			endpointMetrics.put("latency", requestExecutor.getLatency(endpoint).snapshot());
+			endpointMetrics.put("queueWait", requestExecutor.getQueueWait(endpoint).snapshot());
+			endpointMetrics.put("serviceTime", requestExecutor.getServiceTime(endpoint).snapshot());
+			endpointMetrics.put("queueDepth", requestExecutor.getQueueDepth(endpoint));
+			endpointMetrics.put("timeouts", requestExecutor.getTimeoutCount(endpoint));
+			endpointMetrics.put("rejections", requestExecutor.getRejectedCount(endpoint));
+			endpointMetrics.put("shed", requestExecutor.getShedCount(endpoint));
+			endpointMetrics.put("sloMillis", requestExecutor.getSlo(endpoint).toMillis());
+			endpointMetrics.put("averageServiceMicros", requestExecutor.getAverageServiceNanos(endpoint) / 1000);
+			endpoints.put(endpoint.name(), endpointMetrics);
+		}
+		metrics.put("endpoints", endpoints);
+		
+		Map<String, Object> admission = new LinkedHashMap<>();
+		admission.put("clients", admissionControl.getClientCount());
+		for (Traffic traffic : Traffic.values()) {
+			Map<String, Object> trafficMetrics = new LinkedHashMap<>();
+			trafficMetrics.put("admitted", admissionControl.getAdmittedCount(traffic));
+			trafficMetrics.put("throttled", admissionControl.getThrottledCount(traffic));
+			admission.put(traffic.name(), trafficMetrics);
+		}
+		metrics.put("admission", admission);
+		
+		Map<String, Object> executor = new LinkedHashMap<>();
+		executor.put("poolSize", requestExecutor.getPoolSize());
+		executor.put("activeCount", requestExecutor.getActiveCount());
+		metrics.put("executor", executor);
+		
+		Map<String, Object> writes = new LinkedHashMap<>();
+		writes.put("written", writeCoalescer.getWrittenCount());
+		writes.put("coalesced", writeCoalescer.getCoalescedCount());
+		writes.put("batches", writeCoalescer.getBatchCount());
+		metrics.put("writes", writes);
+		
+		Map<String, Object> repository = new LinkedHashMap<>();
+		repository.put("lockWait", exchangeRateRepository.getLockWait().snapshot());
+		repository.put("pairs", exchangeRateRepository.getPairCount());
+		repository.put("memoryUsed", exchangeRateRepository.getMemoryUsed());
+		repository.put("memoryBudget", exchangeRateRepository.getMemoryBudget());
+		repository.put("evicted", exchangeRateRepository.getEvictedCount());
+		repository.put("reclaimed", exchangeRateRepository.getReclaimedCount());
+		metrics.put("repository", repository);
+		
+		Map<String, Object> expiration = new LinkedHashMap<>();
+		long expiredCount = expirationEngine.getExpiredCount();
+		expiration.put("pending", expirationEngine.getPendingCount());
+		expiration.put("expired", expiredCount);
+		expiration.put("expiredPerSecond", expiredPerSecond(expiredCount));
+		metrics.put("expiration", expiration);
+		
+		Map<String, Object> caches = new LinkedHashMap<>();
+		for (String name : cacheManager.getCacheNames()) {
+			caches.put(name, cacheManager.getCache(name).getStats());
+		}
+		metrics.put("caches", caches);
+		
+		Map<String, Object> subscriptions = new LinkedHashMap<>();
+		subscriptions.put("count", rateSubscriptions.getSubscriptionCount());
+		subscriptions.put("sent", rateSubscriptions.getSentCount());
+		metrics.put("subscriptions", subscriptions);
+		
+		Map<String, Object> replication = new LinkedHashMap<>();
+		if (replicationServer != null) {
+			replication.put("role", "primary");
+			replication.put("generation", replicationServer.getLog().getGeneration());
+			replication.put("head", replicationServer.getLog().getHead());
+			replication.put("tail", replicationServer.getLog().getTail());
+			replication.put("replicas", replicationServer.getReplicaOffsets());
+		} else if (replicationClient != null) {
+			replication.put("role", "replica");
+			replication.put("connected", replicationClient.isConnected());
+			replication.put("generation", replicationClient.getGeneration());
+			replication.put("nextOffset", replicationClient.getNextOffset());
+			replication.put("lagOffsets", replicationClient.getLagOffsets());
+			replication.put("lagMillis", replicationClient.getLagMillis());
+			replication.put("reconnects", replicationClient.getReconnectCount());
+			replication.put("snapshotRates", replicationClient.getSnapshotRateCount());
+			replication.put("applyDelay", replicationClient.getApplyDelay().snapshot());
+		} else {
+			replication.put("role", "none");
+		}
+		metrics.put("replication", replication);
+		
+		return ResponseEntity.ok(metrics);
+	}
+	
+	private synchronized double expiredPerSecond(long expiredCount) {
+		long now = System.nanoTime();
+		double seconds = (now - lastExpiredAt) / (double) TimeUnit.SECONDS.toNanos(1);
+		double rate = seconds > 0 ? (expiredCount - lastExpiredCount) / seconds : 0;
+		lastExpiredCount = expiredCount;
+		lastExpiredAt = now;
+		return rate;
+	}
+}
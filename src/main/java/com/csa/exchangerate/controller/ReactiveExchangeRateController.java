@@ -0,0 +1,392 @@
+package com.csa.exchangerate.controller;
+
+import static com.csa.exchangerate.controller.ExchangeRateRequests.checkPair;
+import static com.csa.exchangerate.controller.ExchangeRateRequests.checkPairCount;
+import static com.csa.exchangerate.controller.ExchangeRateRequests.checkRange;
+import static com.csa.exchangerate.controller.ExchangeRateRequests.saveValid;
+import static com.csa.exchangerate.controller.ExchangeRateRequests.toPair;
+import static com.csa.exchangerate.controller.ExchangeRateRequests.toPairs;
+import static com.csa.exchangerate.model.ApiErrorBuilder.newError;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.validation.ConstraintViolationException;
+import javax.validation.Valid;
+import javax.validation.Validator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.validation.FieldError;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.support.WebExchangeBindException;
+
+import com.csa.exchangerate.executor.Deadline;
+import com.csa.exchangerate.executor.DeadlineExceededException;
+import com.csa.exchangerate.executor.Endpoint;
+import com.csa.exchangerate.executor.RequestExecutor;
+import com.csa.exchangerate.model.ApiError;
+import com.csa.exchangerate.model.ApiErrorBuilder;
+import com.csa.exchangerate.model.BatchResult;
+import com.csa.exchangerate.model.CurrencyCode;
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.model.RateAggregate;
+import com.csa.exchangerate.model.RateInterval;
+import com.csa.exchangerate.replication.ReadOnlyReplicaException;
+import com.csa.exchangerate.service.ExchangeRateService;
+import com.csa.exchangerate.service.RateSubscriptions;
+import com.csa.exchangerate.service.RateSubscriptions.Subscription;
+import com.csa.exchangerate.service.WriteCoalescer;
+import com.csa.exchangerate.util.CurrencyPair;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+/**
+ * Reactive version of {@link ExchangeRateController}, used instead of it when the application runs on
+ * WebFlux (spring.main.web-application-type=reactive).
+ * 
+ * Nothing waits on a second thread here.  Reads are lock free so they run directly on the event loop, 
+ * writes take a currency pair's lock (and may append to the journal) so they run on the bounded elastic
+ * scheduler.  Each request has the same per endpoint SLO as on the servlet stack, applied with the timeout
+ * operator, and its latency is recorded in the same per endpoint histograms.  The request's {@link Deadline}
+ * is carried in the subscriber context and is current while the service runs, so it can stop early too.
+ * Requests aren't shed up front, there's no queue to predict their wait from.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@RestController
+@RequestMapping("/currency")
+@Validated
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveExchangeRateController {
+
+	private static final String NDJSON_VALUE = "application/x-ndjson";
+	
+	@Autowired
+	private ExchangeRateService exchangeRateService;
+	
+	@Autowired
+	private WriteCoalescer writeCoalescer;
+	
+	@Autowired
+	private RequestExecutor requestExecutor;
+	
+	@Autowired
+	private RateSubscriptions rateSubscriptions;
+	
+	@Autowired
+	private Validator validator;
+	
+	/**
+	 * This method will set the exchange rate for 2 currency codes for specified date.
+	 * 
+	 * @param exchangeRate
+	 * @return exchange rate
+	 */
+	@PostMapping
+	public Mono<ExchangeRate> setExchangeRate(@RequestBody @Valid ExchangeRate exchangeRate) {
+		
+		// Check if from/to equal, using the pair id the service and repository use too
+		checkPair(exchangeRate.getPair());
+		exchangeRateService.checkWritable();
+		
+		// the response is sent once the write's batch is saved, nothing waits for it.  Without coalescing
+		// the write is saved straight away, taking the pair's lock, so it's started off the event loop
+		Mono<ExchangeRate> setExchangeRate = withDeadline(() -> writeCoalescer.setExchangeRate(exchangeRate))
+				.subscribeOn(Schedulers.boundedElastic())
+				.flatMap(Mono::fromFuture);
+		return timed(Endpoint.SET_EXCHANGE_RATE, setExchangeRate);
+	}
+	
+	/**
+	 * This method will set a batch of exchange rates, posted as a JSON array or as newline delimited JSON.
+	 * Every record is validated on its own, the valid ones are saved and the invalid ones are reported
+	 * back by their index in the batch.  Unlike the servlet stack a malformed line fails the whole batch.
+	 * 
+	 * @param exchangeRates
+	 * @return accepted count and rejected records
+	 */
+	@PostMapping(path = "/batch", consumes = { MediaType.APPLICATION_JSON_VALUE, NDJSON_VALUE })
+	public Mono<BatchResult> setExchangeRates(@RequestBody Flux<ExchangeRate> exchangeRates) {
+		exchangeRateService.checkWritable();
+		Mono<BatchResult> setExchangeRates = exchangeRates.collectList()
+				.publishOn(Schedulers.boundedElastic())
+				.flatMap(batch -> withDeadline(() -> saveValid(batch, validator, exchangeRateService)));
+		return timed(Endpoint.SET_EXCHANGE_RATES, setExchangeRates);
+	}
+	
+	/**
+	 * This method will get the exchange rate history for 2 currency codes.
+	 * 
+	 * @param fromCurrencyCode
+	 * @param toCurrencyCode
+	 * @return Exchange rate history
+	 */
+	@GetMapping
+	public Flux<ExchangeRate> getExchangeRateHistory(
+			@RequestParam @CurrencyCode String fromCurrencyCode, 
+			@RequestParam @CurrencyCode String toCurrencyCode) {
+		
+		int pair = toPair(fromCurrencyCode, toCurrencyCode);
+		Mono<List<ExchangeRate>> getExchangeRateHistory = withDeadline(() -> exchangeRateService.getExchangeRateHistory(pair));
+		return timed(Endpoint.GET_EXCHANGE_RATE_HISTORY, getExchangeRateHistory).flatMapMany(Flux::fromIterable);
+	}
+	
+	/**
+	 * This method will get the exchange rates for 2 currency codes from a start ISO date to an end ISO date,
+	 * see {@link ExchangeRateController#getExchangeRateRange(String, String, LocalDate, LocalDate)}.
+	 * 
+	 * @param fromCurrencyCode
+	 * @param toCurrencyCode
+	 * @param start
+	 * @param end
+	 * @return Exchange rates (oldest first)
+	 */
+	@GetMapping(params = { "start", "end" })
+	public Flux<ExchangeRate> getExchangeRateRange(
+			@RequestParam @CurrencyCode String fromCurrencyCode, 
+			@RequestParam @CurrencyCode String toCurrencyCode,
+			@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+			@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end) {
+		
+		int pair = toPair(fromCurrencyCode, toCurrencyCode);
+		checkRange(start, end);
+		Mono<List<ExchangeRate>> getExchangeRateRange = withDeadline(() -> exchangeRateService.getExchangeRateRange(pair, start, end));
+		return timed(Endpoint.GET_EXCHANGE_RATE_RANGE, getExchangeRateRange).flatMapMany(Flux::fromIterable);
+	}
+	
+	/**
+	 * This method will get the daily or weekly aggregates for 2 currency codes from a start ISO date to an
+	 * end ISO date, see {@link ExchangeRateController#getExchangeRateAggregates(String, String, LocalDate, LocalDate, RateInterval)}.
+	 * 
+	 * @param fromCurrencyCode
+	 * @param toCurrencyCode
+	 * @param start
+	 * @param end
+	 * @param interval
+	 * @return Aggregates (oldest first)
+	 */
+	@GetMapping("/aggregates")
+	public Flux<RateAggregate> getExchangeRateAggregates(
+			@RequestParam @CurrencyCode String fromCurrencyCode, 
+			@RequestParam @CurrencyCode String toCurrencyCode,
+			@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+			@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end,
+			@RequestParam(defaultValue = "DAY") RateInterval interval) {
+		
+		int pair = toPair(fromCurrencyCode, toCurrencyCode);
+		checkRange(start, end);
+		Mono<List<RateAggregate>> getExchangeRateAggregates = withDeadline(() -> exchangeRateService.getExchangeRateAggregates(pair, start, end, interval));
+		return timed(Endpoint.GET_EXCHANGE_RATE_AGGREGATES, getExchangeRateAggregates).flatMapMany(Flux::fromIterable);
+	}
+	
+	/**
+	 * This method will get the latest exchange rate for 2 currency codes, written from the JSON bytes the 
+	 * service keeps for the rate.
+	 * 
+	 * @param fromCurrencyCode
+	 * @param toCurrencyCode
+	 * @return Exchange rate, or HTTP 404
+	 */
+	@GetMapping("/latest")
+	public Mono<ResponseEntity<byte[]>> getLatestExchangeRate(
+			@RequestParam @CurrencyCode String fromCurrencyCode, 
+			@RequestParam @CurrencyCode String toCurrencyCode) {
+		
+		int pair = toPair(fromCurrencyCode, toCurrencyCode);
+		Mono<byte[]> getLatestExchangeRate = withDeadline(() -> {
+			byte[] json = exchangeRateService.getLatestExchangeRateJson(pair);
+			return json != null ? json : exchangeRateService.getLatestCrossRateJson(pair);
+		});
+		return toJsonResponse(timed(Endpoint.GET_LATEST_EXCHANGE_RATE, getLatestExchangeRate));
+	}
+	
+	/**
+	 * This method will get the latest exchange rates for several currency pairs in one request,
+	 * for example pairs=USD-EUR,GBP/JPY,CHFJPY.
+	 * 
+	 * @param pairs
+	 * @return Exchange rates
+	 */
+	@GetMapping(path = "/latest", params = "pairs")
+	public Flux<ExchangeRate> getLatestExchangeRates(@RequestParam List<String> pairs) {
+		checkPairCount(pairs.size());
+		int[] pairIds = new int[pairs.size()];
+		for (int i = 0; i < pairIds.length; i++) {
+			pairIds[i] = checkPair(CurrencyPair.parse(pairs.get(i)));
+		}
+		return getLatestExchangeRates(pairIds);
+	}
+	
+	/**
+	 * This method will get the latest exchange rates from one currency code to several others in one
+	 * request, for example fromCurrencyCode=USD&toCurrencyCodes=EUR,JPY,GBP.
+	 * 
+	 * @param fromCurrencyCode
+	 * @param toCurrencyCodes
+	 * @return Exchange rates
+	 */
+	@GetMapping(path = "/latest", params = { "fromCurrencyCode", "toCurrencyCodes" })
+	public Flux<ExchangeRate> getLatestExchangeRates(
+			@RequestParam @CurrencyCode String fromCurrencyCode, 
+			@RequestParam List<String> toCurrencyCodes) {
+		
+		checkPairCount(toCurrencyCodes.size());
+		int[] pairIds = new int[toCurrencyCodes.size()];
+		for (int i = 0; i < pairIds.length; i++) {
+			pairIds[i] = toPair(fromCurrencyCode, toCurrencyCodes.get(i));
+		}
+		return getLatestExchangeRates(pairIds);
+	}
+	
+	private Flux<ExchangeRate> getLatestExchangeRates(int[] pairs) {
+		Mono<List<ExchangeRate>> getLatestExchangeRates = withDeadline(() -> exchangeRateService.getLatestExchangeRates(pairs));
+		return timed(Endpoint.GET_LATEST_EXCHANGE_RATES, getLatestExchangeRates).flatMapMany(Flux::fromIterable);
+	}
+	
+	/**
+	 * This method will subscribe to the latest exchange rates of several currency pairs as Server-Sent 
+	 * Events, see {@link ExchangeRateController#subscribe(List)}.  Rates are only sent as the client asks for
+	 * them, while it doesn't they are left to the subscription to coalesce.
+	 * 
+	 * @param pairs
+	 * @return "rate" events with an exchange rate
+	 */
+	@GetMapping(path = "/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public Flux<ServerSentEvent<ExchangeRate>> subscribe(@RequestParam List<String> pairs) {
+		int[] pairIds = toPairs(pairs);
+		return Flux.create(sink -> {
+			Subscription subscription = rateSubscriptions.subscribe(pairIds, exchangeRate -> {
+				if (sink.requestedFromDownstream() == 0) {
+					return false;
+				}
+				sink.next(ServerSentEvent.builder(exchangeRate).event("rate").build());
+				return true;
+			});
+			sink.onRequest(n -> subscription.resume());
+			sink.onDispose(subscription::cancel);
+		}, FluxSink.OverflowStrategy.ERROR);
+	}
+	
+	/**
+	 * This method will get the exchange rate for 2 currency codes on a specific ISO date (i.e. yyyy-MM-dd ).
+	 * 
+	 * @param isoDate
+	 * @param fromCurrencyCode
+	 * @param toCurrencyCode
+	 * @return Exchange rate, or HTTP 404
+	 */
+	@GetMapping("/{isoDate}")
+	public Mono<ResponseEntity<byte[]>> getExchangeRateForDate(
+			@PathVariable @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate isoDate, 
+			@RequestParam @CurrencyCode String fromCurrencyCode, 
+			@RequestParam @CurrencyCode String toCurrencyCode) {
+		
+		int pair = toPair(fromCurrencyCode, toCurrencyCode);
+		Mono<byte[]> getExchangeRateForDate = withDeadline(() -> exchangeRateService.getExchangeRateForDateJson(pair, isoDate));
+		return toJsonResponse(timed(Endpoint.GET_EXCHANGE_RATE_FOR_DATE, getExchangeRateForDate));
+	}
+	
+	/**
+	 * Applies the endpoint's SLO, both as a timeout and as the deadline of the work, and records its latency.
+	 */
+	private <T> Mono<T> timed(Endpoint endpoint, Mono<T> mono) {
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			Duration slo = requestExecutor.getSlo(endpoint);
+			AtomicBoolean cancelled = new AtomicBoolean();
+			return mono
+					// work that sees its deadline after the timeout cancelled it has no one left to tell
+					.onErrorResume(e -> e instanceof DeadlineExceededException && cancelled.get(), e -> Mono.empty())
+					.doOnCancel(() -> cancelled.set(true))
+					.timeout(slo)
+					.onErrorMap(DeadlineExceededException.class, e -> new TimeoutException(e.getMessage()))
+					.contextWrite(Context.of(Deadline.class, Deadline.after(slo.toNanos(), TimeUnit.NANOSECONDS)))
+					.doFinally(signal -> requestExecutor.getLatency(endpoint).record(System.nanoTime() - start));
+		});
+	}
+	
+	/**
+	 * @return the task's result, with the request's deadline current while it runs
+	 */
+	private static <T> Mono<T> withDeadline(Callable<T> task) {
+		return Mono.deferContextual(context -> 
+				Mono.fromCallable(context.<Deadline>getOrEmpty(Deadline.class).map(deadline -> deadline.wrap(task)).orElse(task)));
+	}
+	
+	private static Mono<ResponseEntity<byte[]>> toJsonResponse(Mono<byte[]> json) {
+		return json.map(bytes -> ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(bytes))
+				.defaultIfEmpty(ResponseEntity.notFound().build());
+	}
+	
+	/**
+	 * Exception Handlers.  The methods will package the exceptions into an ApiError
+	 */
+	
+	@ExceptionHandler(IllegalArgumentException.class)
+	public ResponseEntity<ApiError> handleIllegalArgumentException(IllegalArgumentException ex) {
+		ApiErrorBuilder builder = newError(ex.getMessage());
+		return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(builder.build());
+	}
+	
+	@ExceptionHandler(ConstraintViolationException.class)
+	public ResponseEntity<ApiError> handleConstraintViolationException(ConstraintViolationException ex) {
+		ApiErrorBuilder builder = newError("Invalid arguments");
+		ex.getConstraintViolations().forEach((violation) -> {
+			String path = violation.getPropertyPath().toString();
+			builder.andFieldError(path.substring(path.lastIndexOf('.') + 1), violation.getMessage());
+		});
+		return ResponseEntity.badRequest().body(builder.build());
+	}
+	
+	@ExceptionHandler(WebExchangeBindException.class)
+	public ResponseEntity<ApiError> handleValidationExceptions(WebExchangeBindException ex) {
+		ApiErrorBuilder builder = newError("Invalid arguments");
+		ex.getBindingResult().getAllErrors().forEach((error) -> {
+			builder.andFieldError(((FieldError) error).getField(), error.getDefaultMessage());
+		});
+		return ResponseEntity.badRequest().body(builder.build());
+	}
+	
+	@ExceptionHandler(TimeoutException.class)
+	public ResponseEntity<ApiError> handleTimeoutException() {
+		ApiError apiError = newError("Service hasn't responded in time, please try again later.").build();
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(apiError);
+	}
+	
+	@ExceptionHandler(RejectedExecutionException.class)
+	public ResponseEntity<ApiError> handleRejectedExecutionException() {
+		ApiError apiError = newError("Service is overloaded, please try again later.").build();
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(apiError);
+	}
+	
+	@ExceptionHandler(ReadOnlyReplicaException.class)
+	public ResponseEntity<ApiError> handleReadOnlyReplicaException(ReadOnlyReplicaException ex) {
+		ApiError apiError = newError(ex.getMessage()).build();
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(apiError);
+	}
+}
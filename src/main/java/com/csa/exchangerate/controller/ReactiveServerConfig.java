@@ -0,0 +1,23 @@
+package com.csa.exchangerate.controller;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Serves the reactive web stack from Reactor Netty.  Tomcat is on the classpath for the servlet stack, and
+ * Spring Boot would otherwise prefer it for WebFlux too, running the event loop handlers on Tomcat threads.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveServerConfig {
+	
+	@Bean
+	public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+		return new NettyReactiveWebServerFactory();
+	}
+}
@@ -0,0 +1,93 @@
+package com.csa.exchangerate.executor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time by which a request has to be answered.
+ * 
+ * The deadline of the request a thread is working on is held for the thread (see {@link #current()}), so
+ * it reaches the service and repository without being passed to every method.  Work that can be cut short
+ * calls {@link #checkCurrent()} before each step and stops once the caller has given up.  Writes only
+ * check before they start changing anything, so a write is never left half done.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public final class Deadline {
+	
+	private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+	
+	private final long expiresAt;  // System.nanoTime()
+	
+	private Deadline(long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+	
+	/**
+	 * @param timeout
+	 * @param unit
+	 * @return a deadline the timeout from now
+	 */
+	public static Deadline after(long timeout, TimeUnit unit) {
+		return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+	}
+	
+	/**
+	 * @return the deadline of the request the current thread is working on, or null if there is none
+	 */
+	public static Deadline current() {
+		return CURRENT.get();
+	}
+	
+	/**
+	 * Throws a {@link DeadlineExceededException} if the current thread's request has passed its deadline
+	 * (or its thread was interrupted because the caller gave up).
+	 */
+	public static void checkCurrent() {
+		Deadline deadline = CURRENT.get();
+		if (deadline != null && (deadline.isExpired() || Thread.currentThread().isInterrupted())) {
+			throw new DeadlineExceededException();
+		}
+	}
+	
+	/**
+	 * @return nanoseconds left, negative once expired
+	 */
+	public long remainingNanos() {
+		return expiresAt - System.nanoTime();
+	}
+	
+	public boolean isExpired() {
+		return remainingNanos() <= 0;
+	}
+	
+	/**
+	 * @param task
+	 * @return the task, run with this as the current deadline
+	 */
+	public <T> Callable<T> wrap(Callable<T> task) {
+		return () -> {
+			Deadline previous = enter(this);
+			try {
+				return task.call();
+			} finally {
+				exit(previous);
+			}
+		};
+	}
+	
+	static Deadline enter(Deadline deadline) {
+		Deadline previous = CURRENT.get();
+		CURRENT.set(deadline);
+		return previous;
+	}
+	
+	static void exit(Deadline previous) {
+		if (previous != null) {
+			CURRENT.set(previous);
+		} else {
+			CURRENT.remove();
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.csa.exchangerate.executor;
+
+/**
+ * Thrown by work that stops because its request passed its {@link Deadline}.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public class DeadlineExceededException extends RuntimeException {
+	
+	private static final long serialVersionUID = 1L;
+	
+	public DeadlineExceededException() {
+		super("Deadline exceeded", null, false, false);
+	}
+}
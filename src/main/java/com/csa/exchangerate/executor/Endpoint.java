@@ -0,0 +1,44 @@
+package com.csa.exchangerate.executor;
+
+/**
+ * The request endpoints served through the {@link RequestExecutor}.  Each endpoint keeps its own
+ * queue-depth, rejection and timeout counters, indexed by ordinal.
+ * 
+ * Each endpoint has an SLO, the time its requests have to be answered in, which defaults to the value
+ * here and is set with exchangerate.slo.{@link #getKey() key} (for example exchangerate.slo.set-exchange-rates).
+ * 
+ * @author Brian A Zied
+ *
+ */
+public enum Endpoint {
+	SET_EXCHANGE_RATE(10),
+	SET_EXCHANGE_RATES(100),
+	GET_EXCHANGE_RATE_HISTORY(10),
+	GET_LATEST_EXCHANGE_RATE(10),
+	GET_LATEST_EXCHANGE_RATES(10),
+	GET_EXCHANGE_RATE_FOR_DATE(10),
+	GET_EXCHANGE_RATE_RANGE(10),
+	GET_EXCHANGE_RATE_AGGREGATES(10);
+	
+	private final long defaultSloMillis;
+	private final String key;
+	
+	Endpoint(long defaultSloMillis) {
+		this.defaultSloMillis = defaultSloMillis;
+		this.key = name().toLowerCase().replace('_', '-');
+	}
+	
+	/**
+	 * @return SLO in milliseconds when it isn't configured
+	 */
+	public long getDefaultSloMillis() {
+		return defaultSloMillis;
+	}
+	
+	/**
+	 * @return name of the endpoint in property keys, e.g. get-latest-exchange-rate
+	 */
+	public String getKey() {
+		return key;
+	}
+}
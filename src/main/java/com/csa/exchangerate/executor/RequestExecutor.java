@@ -0,0 +1,442 @@
+package com.csa.exchangerate.executor;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import com.csa.exchangerate.metrics.LatencyHistogram;
+
+/**
+ * Shared execution engine for all controller requests.
+ * 
+ * Requests run on a single fixed-size pool fed by a bounded queue, so the number of threads stays
+ * constant regardless of the request rate.  When the queue is full the request is rejected with a
+ * {@link RejectedExecutionException} rather than queued behind work that can't finish in time.  When the
+ * caller gives up waiting, the task is removed from the queue (or interrupted if it already started) so
+ * abandoned work doesn't keep the pool busy.
+ * 
+ * Queue depth, rejections, timeouts and latency histograms are tracked per {@link Endpoint}.  Each request's
+ * latency is also split into the time it waited in the queue and the time it took to run, so a timeout can
+ * be put down to a busy pool or a slow service.
+ * 
+ * Every request has a {@link Deadline}, its endpoint's SLO from submission by default, which is current
+ * while the task runs so the service and repository can stop work the caller no longer waits for.  A task
+ * still queued when its deadline passes doesn't run at all.  Before queueing, the wait is predicted from
+ * the tasks already queued and a moving average of how long tasks take to run; if the request couldn't be
+ * answered by its deadline it's shed straight away with a {@link RejectedExecutionException} instead of
+ * adding doomed work to the queue.
+ * 
+ * When there is a {@value #TASK_EXECUTOR} bean (the jdk21 build's virtual threads, see pom.xml) tasks
+ * run on it instead, a thread per task with no queue, so blocking tasks don't hold up each other.  The
+ * timeouts and cancellation work the same way, an abandoned task is interrupted or never starts.  There's
+ * no queue to predict the wait from, so requests aren't shed.
+ * 
+ * Work that completes on its own (a write waiting for its batch) is started with 
+ * {@link #executeAsync(Endpoint, Supplier)} instead, so no thread waits for it.  It's timed out by a timer
+ * thread at its deadline and accounted to its endpoint the same way.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@Component
+public class RequestExecutor {
+	
+	/**
+	 * Name of the optional bean that runs each task on its own thread
+	 */
+	public static final String TASK_EXECUTOR = "requestTaskExecutor";
+	
+	// weight of the newest service time in the moving averages, 1/2^EWMA_SHIFT
+	private static final int EWMA_SHIFT = 3;
+	
+	private final ExecutorService executor;
+	private final ThreadPoolExecutor pool;  // null when tasks run on the task executor
+	private final ScheduledExecutorService timer;
+	private final int threads;
+	private final AtomicInteger running = new AtomicInteger();
+	
+	private final Duration[] slo = new Duration[Endpoint.values().length];
+	private final AtomicLongArray averageServiceNanos = new AtomicLongArray(Endpoint.values().length);
+	
+	private final AtomicIntegerArray queueDepth = new AtomicIntegerArray(Endpoint.values().length);
+	private final LongAdder[] rejected = newCounters();
+	private final LongAdder[] timedOut = newCounters();
+	private final LongAdder[] shed = newCounters();
+	private final LatencyHistogram[] latency = newHistograms();
+	private final LatencyHistogram[] queueWait = newHistograms();
+	private final LatencyHistogram[] serviceTime = newHistograms();
+	
+	public RequestExecutor(
+			@Value("${exchangerate.executor.threads:8}") int threads, 
+			@Value("${exchangerate.executor.queue-capacity:1024}") int queueCapacity, 
+			@Qualifier(TASK_EXECUTOR) ObjectProvider<ExecutorService> taskExecutor, 
+			Environment environment) {
+		for (Endpoint endpoint : Endpoint.values()) {
+			slo[endpoint.ordinal()] = environment.getProperty("exchangerate.slo." + endpoint.getKey(), Duration.class, 
+					Duration.ofMillis(endpoint.getDefaultSloMillis()));
+		}
+		this.threads = threads;
+		ExecutorService executor = taskExecutor.getIfAvailable();
+		if (executor != null) {
+			this.executor = executor;
+			this.pool = null;
+		} else {
+			this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, 
+					new ArrayBlockingQueue<>(queueCapacity), new WorkerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+			this.pool.prestartAllCoreThreads();
+			this.executor = pool;
+		}
+		this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "request-timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/**
+	 * Runs the task on the shared pool and waits for its result until the endpoint's SLO has elapsed.
+	 * 
+	 * @param endpoint endpoint the task is accounted to
+	 * @param task
+	 * @return the task result
+	 * @throws RejectedExecutionException if the queue is full or the SLO can't be met
+	 * @throws TimeoutException if the SLO elapsed first
+	 */
+	public <T> T execute(Endpoint endpoint, Callable<T> task) 
+			throws InterruptedException, ExecutionException, TimeoutException {
+		return execute(endpoint, task, Deadline.after(slo[endpoint.ordinal()].toNanos(), TimeUnit.NANOSECONDS));
+	}
+	
+	/**
+	 * Runs the task on the shared pool and waits until the deadline for its result.  If the deadline passes
+	 * (or the caller is interrupted) the task is cancelled before the exception is rethrown.
+	 * 
+	 * @param endpoint endpoint the task is accounted to
+	 * @param task
+	 * @param deadline
+	 * @return the task result
+	 * @throws RejectedExecutionException if the queue is full or the deadline can't be met
+	 * @throws TimeoutException if the deadline passed first
+	 */
+	public <T> T execute(Endpoint endpoint, Callable<T> task, Deadline deadline) 
+			throws InterruptedException, ExecutionException, TimeoutException {
+		RequestTask<T> future = submit(endpoint, task, deadline);
+		try {
+			return future.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			timedOut[endpoint.ordinal()].increment();
+			cancel(future);
+			throw e;
+		} catch (InterruptedException e) {
+			cancel(future);
+			throw e;
+		} catch (ExecutionException e) {
+			// the task gave up on its own because the deadline passed
+			if (e.getCause() instanceof DeadlineExceededException) {
+				timedOut[endpoint.ordinal()].increment();
+				throw new TimeoutException(e.getCause().getMessage());
+			}
+			throw e;
+		} finally {
+			latency[endpoint.ordinal()].record(System.nanoTime() - future.submittedAt);
+		}
+	}
+	
+	/**
+	 * Starts work that completes on its own, on the calling thread with the endpoint's deadline current.
+	 * The task should only start the work, no thread waits for it to complete.  If it hasn't by the deadline
+	 * the result fails with a {@link TimeoutException}, the work carries on but no one is told about it.
+	 * 
+	 * @param endpoint endpoint the task is accounted to
+	 * @param task starts the work, returning its result
+	 * @return the task result, or the exception it or the work failed with
+	 */
+	public <T> CompletableFuture<T> executeAsync(Endpoint endpoint, Supplier<CompletableFuture<T>> task) {
+		int index = endpoint.ordinal();
+		long start = System.nanoTime();
+		Deadline deadline = Deadline.after(slo[index].toNanos(), TimeUnit.NANOSECONDS);
+		CompletableFuture<T> result = new CompletableFuture<>();
+		result.whenComplete((value, error) -> latency[index].record(System.nanoTime() - start));
+		
+		CompletableFuture<T> started;
+		Deadline previous = Deadline.enter(deadline);
+		try {
+			started = task.get();
+		} catch (DeadlineExceededException e) {
+			timedOut[index].increment();
+			result.completeExceptionally(new TimeoutException(e.getMessage()));
+			return result;
+		} catch (RuntimeException e) {
+			result.completeExceptionally(e);
+			return result;
+		} finally {
+			Deadline.exit(previous);
+		}
+		
+		ScheduledFuture<?> timeout = started.isDone() ? null : timer.schedule(() -> {
+			if (result.completeExceptionally(new TimeoutException("Deadline exceeded"))) {
+				timedOut[index].increment();
+			}
+		}, deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+		started.whenComplete((value, error) -> {
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+			if (error == null) {
+				result.complete(value);
+			} else {
+				result.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+			}
+		});
+		return result;
+	}
+	
+	private <T> RequestTask<T> submit(Endpoint endpoint, Callable<T> task, Deadline deadline) {
+		if (predictNanos(endpoint) > deadline.remainingNanos()) {
+			shed[endpoint.ordinal()].increment();
+			throw new RejectedExecutionException("Deadline can't be met, " + endpoint.getKey() + " shed");
+		}
+		RequestTask<T> future = new RequestTask<>(endpoint, task, deadline, this);
+		queueDepth.incrementAndGet(endpoint.ordinal());
+		try {
+			executor.execute(future);
+		} catch (RejectedExecutionException e) {
+			future.dequeue();
+			rejected[endpoint.ordinal()].increment();
+			throw e;
+		}
+		return future;
+	}
+	
+	/**
+	 * @return predicted time to answer a request for the endpoint submitted now, the wait for the queued
+	 *         tasks to be spread over the threads plus its own average service time, or 0 when nothing is
+	 *         queued (so an endpoint is never shed for being slow on its own, which would stop its average
+	 *         ever coming down again)
+	 */
+	private long predictNanos(Endpoint endpoint) {
+		if (pool == null) {
+			return 0;
+		}
+		long waitNanos = 0;
+		for (int i = 0; i < queueDepth.length(); i++) {
+			waitNanos += queueDepth.get(i) * averageServiceNanos.get(i);
+		}
+		return waitNanos == 0 ? 0 : waitNanos / threads + averageServiceNanos.get(endpoint.ordinal());
+	}
+	
+	private void recordServiceTime(int endpoint, long nanos) {
+		serviceTime[endpoint].record(nanos);
+		// racy read-modify-write, a lost sample doesn't matter to a moving average
+		long average = averageServiceNanos.get(endpoint);
+		averageServiceNanos.lazySet(endpoint, average + ((nanos - average) >> EWMA_SHIFT));
+	}
+	
+	private void cancel(RequestTask<?> future) {
+		// drop it from the queue if it hasn't started, otherwise interrupt it
+		if (pool != null && pool.remove(future)) {
+			future.dequeue();
+		}
+		future.cancel(true);
+	}
+	
+	/**
+	 * @return number of tasks for the endpoint waiting in the queue
+	 */
+	public int getQueueDepth(Endpoint endpoint) {
+		return queueDepth.get(endpoint.ordinal());
+	}
+	
+	/**
+	 * @return number of tasks for the endpoint rejected because the queue was full
+	 */
+	public long getRejectedCount(Endpoint endpoint) {
+		return rejected[endpoint.ordinal()].sum();
+	}
+	
+	/**
+	 * @return number of tasks for the endpoint rejected up front because they couldn't meet their deadline
+	 */
+	public long getShedCount(Endpoint endpoint) {
+		return shed[endpoint.ordinal()].sum();
+	}
+	
+	/**
+	 * @return number of tasks for the endpoint cancelled because the caller timed out
+	 */
+	public long getTimeoutCount(Endpoint endpoint) {
+		return timedOut[endpoint.ordinal()].sum();
+	}
+	
+	/**
+	 * @return time the endpoint's requests have to be answered in
+	 */
+	public Duration getSlo(Endpoint endpoint) {
+		return slo[endpoint.ordinal()];
+	}
+	
+	/**
+	 * @return moving average of the time the endpoint's tasks take to run, in nanoseconds
+	 */
+	public long getAverageServiceNanos(Endpoint endpoint) {
+		return averageServiceNanos.get(endpoint.ordinal());
+	}
+	
+	/**
+	 * @return time from submitting the endpoint's tasks to their caller getting the result (or giving up)
+	 */
+	public LatencyHistogram getLatency(Endpoint endpoint) {
+		return latency[endpoint.ordinal()];
+	}
+	
+	/**
+	 * @return time the endpoint's tasks waited in the queue
+	 */
+	public LatencyHistogram getQueueWait(Endpoint endpoint) {
+		return queueWait[endpoint.ordinal()];
+	}
+	
+	/**
+	 * @return time the endpoint's tasks took to run
+	 */
+	public LatencyHistogram getServiceTime(Endpoint endpoint) {
+		return serviceTime[endpoint.ordinal()];
+	}
+	
+	/**
+	 * @return number of pool threads, or the number of running tasks when each has its own thread
+	 */
+	public int getPoolSize() {
+		return pool != null ? pool.getPoolSize() : running.get();
+	}
+	
+	public int getActiveCount() {
+		return pool != null ? pool.getActiveCount() : running.get();
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+		timer.shutdownNow();
+	}
+	
+	private static LongAdder[] newCounters() {
+		LongAdder[] counters = new LongAdder[Endpoint.values().length];
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = new LongAdder();
+		}
+		return counters;
+	}
+	
+	private static LatencyHistogram[] newHistograms() {
+		LatencyHistogram[] histograms = new LatencyHistogram[Endpoint.values().length];
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+		return histograms;
+	}
+	
+	/**
+	 * Future which leaves its endpoint's queue depth exactly once, either when a worker picks it up or
+	 * when it's removed from the queue.  It records its queue wait and service time when it runs, and runs
+	 * with its deadline as the current one, unless the deadline has already passed.
+	 */
+	private static class RequestTask<T> extends FutureTask<T> {
+		
+		@SuppressWarnings("rawtypes")
+		private static final AtomicIntegerFieldUpdater<RequestTask> DEQUEUED = 
+				AtomicIntegerFieldUpdater.newUpdater(RequestTask.class, "dequeued");
+		
+		private final int endpoint;
+		private final Deadline deadline;
+		private final RequestExecutor executor;
+		private final long submittedAt = System.nanoTime();
+		private long startedAt;
+		private volatile int dequeued;
+		
+		RequestTask(Endpoint endpoint, Callable<T> task, Deadline deadline, RequestExecutor executor) {
+			super(task);
+			this.endpoint = endpoint.ordinal();
+			this.deadline = deadline;
+			this.executor = executor;
+		}
+		
+		void dequeue() {
+			if (DEQUEUED.compareAndSet(this, 0, 1)) {
+				executor.queueDepth.decrementAndGet(endpoint);
+			}
+		}
+		
+		@Override
+		public void run() {
+			dequeue();
+			startedAt = System.nanoTime();
+			executor.queueWait[endpoint].record(startedAt - submittedAt);
+			if (deadline.isExpired()) {
+				super.setException(new DeadlineExceededException());
+				return;
+			}
+			executor.running.incrementAndGet();
+			Deadline previous = Deadline.enter(deadline);
+			try {
+				super.run();
+			} finally {
+				Deadline.exit(previous);
+				executor.running.decrementAndGet();
+			}
+		}
+		
+		// service time is recorded before the result is published to the caller
+		
+		@Override
+		protected void set(T result) {
+			executor.recordServiceTime(endpoint, System.nanoTime() - startedAt);
+			super.set(result);
+		}
+		
+		@Override
+		protected void setException(Throwable t) {
+			executor.recordServiceTime(endpoint, System.nanoTime() - startedAt);
+			super.setException(t);
+		}
+	}
+	
+	private static class WorkerThreadFactory implements ThreadFactory {
+		
+		private final AtomicInteger count = new AtomicInteger();
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "exchange-rate-worker-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
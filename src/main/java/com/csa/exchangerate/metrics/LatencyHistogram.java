@@ -0,0 +1,147 @@
+package com.csa.exchangerate.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with a fixed set of log-linear buckets: values below 8ns have a bucket each, after that
+ * every power of 2 is split into 8 buckets, so a recorded value is off by at most 12.5%.
+ * 
+ * All buckets are allocated up front and recording is a couple of atomic increments, so it can be used on
+ * the request path without allocating.  The buckets are striped by thread so threads recording the same
+ * latency don't all hit the same counter.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+	private static final int STRIPES = 4;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS * STRIPES);
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * Records a latency.
+	 * 
+	 * @param nanos latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		counts.incrementAndGet(stripe * BUCKETS + bucket(nanos));
+		total.add(nanos);
+		long current;
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+			// retry
+		}
+	}
+	
+	/**
+	 * @return counts and percentiles recorded so far, in microseconds
+	 */
+	public Snapshot snapshot() {
+		long[] buckets = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			buckets[i % BUCKETS] += counts.get(i);
+			count += counts.get(i);
+		}
+		return new Snapshot(buckets, count, total.sum(), max.get());
+	}
+	
+	static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + (int) ((nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+	}
+	
+	/**
+	 * @return the highest value that falls in the bucket
+	 */
+	static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		return ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS + 1) << shift) - 1;
+	}
+	
+	public static class Snapshot {
+		
+		private final long count;
+		private final double mean;
+		private final double p50;
+		private final double p90;
+		private final double p99;
+		private final double p999;
+		private final double max;
+		
+		Snapshot(long[] buckets, long count, long total, long max) {
+			this.count = count;
+			this.mean = count == 0 ? 0 : toMicros(total / count);
+			this.p50 = percentile(buckets, count, 0.5, max);
+			this.p90 = percentile(buckets, count, 0.9, max);
+			this.p99 = percentile(buckets, count, 0.99, max);
+			this.p999 = percentile(buckets, count, 0.999, max);
+			this.max = toMicros(max);
+		}
+		
+		private static double percentile(long[] buckets, long count, double percentile, long max) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(count * percentile);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank) {
+					return toMicros(Math.min(highestValue(i), max));
+				}
+			}
+			return toMicros(max);
+		}
+		
+		private static double toMicros(long nanos) {
+			return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		public double getP50() {
+			return p50;
+		}
+
+		public double getP90() {
+			return p90;
+		}
+
+		public double getP99() {
+			return p99;
+		}
+
+		public double getP999() {
+			return p999;
+		}
+
+		public double getMax() {
+			return max;
+		}
+	}
+}
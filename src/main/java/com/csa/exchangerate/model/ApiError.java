@@ -28,6 +28,10 @@ public class ApiError {
 		void addFieldError(String fieldName, String fieldError) {
 			fields.add(new ApiFieldError(fieldName, fieldError));
 		}
+		
+		public List<ApiFieldError> getFields() {
+			return fields;
+		}
 	}
 	
 	public static class ApiFieldError {
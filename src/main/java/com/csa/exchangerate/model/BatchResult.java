@@ -0,0 +1,64 @@
+package com.csa.exchangerate.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.csa.exchangerate.model.ApiError.ApiFieldError;
+
+/**
+ * Result of a batch of exchange rates: how many were saved, and the field errors of every record that
+ * wasn't (by its index in the batch).
+ * 
+ * @author Brian A Zied
+ *
+ */
+public class BatchResult {
+
+	private int accepted;
+	final private List<RejectedRecord> rejected = new ArrayList<>();
+	
+	public int getAccepted() {
+		return accepted;
+	}
+	
+	public void setAccepted(int accepted) {
+		this.accepted = accepted;
+	}
+	
+	public List<RejectedRecord> getRejected() {
+		return rejected;
+	}
+	
+	/**
+	 * Adds a field error to the record at the index, rejecting the record if it hasn't been rejected yet.
+	 * 
+	 * @param index
+	 * @param fieldName
+	 * @param fieldError
+	 */
+	public void reject(int index, String fieldName, String fieldError) {
+		RejectedRecord record = rejected.isEmpty() ? null : rejected.get(rejected.size() - 1);
+		if (record == null || record.index != index) {
+			record = new RejectedRecord(index);
+			rejected.add(record);
+		}
+		record.fields.add(new ApiFieldError(fieldName, fieldError));
+	}
+	
+	public static class RejectedRecord {
+		final private int index;
+		final private List<ApiFieldError> fields = new ArrayList<>();
+		
+		RejectedRecord(int index) {
+			this.index = index;
+		}
+		
+		public int getIndex() {
+			return index;
+		}
+		
+		public List<ApiFieldError> getFields() {
+			return fields;
+		}
+	}
+}
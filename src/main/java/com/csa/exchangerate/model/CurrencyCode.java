@@ -6,10 +6,13 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 import javax.validation.Constraint;
+import javax.validation.Payload;
 
 @Constraint(validatedBy = CurrencyCodeValidator.class)
 @Target({ ElementType.METHOD, ElementType.FIELD, ElementType.PARAMETER })
 @Retention(RetentionPolicy.RUNTIME)
 public @interface CurrencyCode {
 	public String message() default "Invalid currency code";
+	public Class<?>[] groups() default {};
+	public Class<? extends Payload>[] payload() default {};
 }
\ No newline at end of file
@@ -2,6 +2,10 @@ package com.csa.exchangerate.model;
 
 import javax.validation.constraints.Min;
 
+import com.csa.exchangerate.util.CurrencyPair;
+import com.csa.exchangerate.util.IsoDates;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class ExchangeRate {
 
 	@CurrencyCode
@@ -13,6 +17,13 @@ public class ExchangeRate {
 	@ISODate
 	private String reportedOn;
 	
+	// worked out from the codes and date once, then shared by the controller, service and repository
+	private int pair = CurrencyPair.INVALID;
+	private long epochDay = IsoDates.INVALID;
+	
+	// set when read from the repository, 0 otherwise
+	private long savedAt;
+	
 	public ExchangeRate(String from, String to, float rate, String reportedOn) {
 		this.from = from;
 		this.to = to;
@@ -25,12 +36,14 @@ public class ExchangeRate {
 	}
 	public void setFrom(String from) {
 		this.from = from;
+		this.pair = CurrencyPair.INVALID;
 	}
 	public String getTo() {
 		return to;
 	}
 	public void setTo(String to) {
 		this.to = to;
+		this.pair = CurrencyPair.INVALID;
 	}
 	public float getRate() {
 		return rate;
@@ -43,6 +56,40 @@ public class ExchangeRate {
 	}
 	public void setReportedOn(String reportedOn) {
 		this.reportedOn = reportedOn;
+		this.epochDay = IsoDates.INVALID;
+	}
+	
+	/**
+	 * @return the from->to pair id, or {@link CurrencyPair#INVALID} if either code isn't three letters
+	 */
+	@JsonIgnore
+	public int getPair() {
+		if (pair == CurrencyPair.INVALID) {
+			pair = CurrencyPair.of(from, to);
+		}
+		return pair;
+	}
+	
+	/**
+	 * @return the epoch day reported on, or {@link IsoDates#INVALID} if it isn't an ISO date
+	 */
+	@JsonIgnore
+	public long getEpochDay() {
+		if (epochDay == IsoDates.INVALID) {
+			epochDay = IsoDates.parse(reportedOn);
+		}
+		return epochDay;
+	}
+	
+	/**
+	 * @return time in milliseconds the repository saved the rate, or 0 if it wasn't read from the repository
+	 */
+	@JsonIgnore
+	public long getSavedAt() {
+		return savedAt;
+	}
+	public void setSavedAt(long savedAt) {
+		this.savedAt = savedAt;
 	}
 	
 	
@@ -6,10 +6,13 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 import javax.validation.Constraint;
+import javax.validation.Payload;
 
 @Constraint(validatedBy = ISODateValidator.class)
 @Target({ ElementType.METHOD, ElementType.FIELD })
 @Retention(RetentionPolicy.RUNTIME)
 public @interface ISODate {
 	public String message() default "Invalid ISO date";
+	public Class<?>[] groups() default {};
+	public Class<? extends Payload>[] payload() default {};
 }
\ No newline at end of file
@@ -1,10 +1,10 @@
 package com.csa.exchangerate.model;
 
-import java.util.Currency;
-
 import javax.validation.ConstraintValidator;
 import javax.validation.ConstraintValidatorContext;
 
+import com.csa.exchangerate.util.IsoDates;
+
 public class ISODateValidator implements ConstraintValidator<ISODate, String> {
 
 	@Override
@@ -13,12 +13,7 @@ public class ISODateValidator implements ConstraintValidator<ISODate, String> {
 
 	@Override
 	public boolean isValid(String value, ConstraintValidatorContext context) {		
-		try {
-			Currency.getInstance(value);
-			return true;
-		} catch (IllegalArgumentException ae) {
-			return false;
-		}
+		return IsoDates.parse(value) != IsoDates.INVALID;
 	}
 
 }
@@ -0,0 +1,76 @@
+package com.csa.exchangerate.model;
+
+/**
+ * Open, high, low, close and average of the exchange rates saved for a pair from the start date to the end
+ * date (a day or a week), and how many rates that was.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public class RateAggregate {
+	
+	final private String from;
+	final private String to;
+	final private String start;
+	final private String end;
+	final private float open;
+	final private float high;
+	final private float low;
+	final private float close;
+	final private float average;
+	final private int count;
+	
+	public RateAggregate(String from, String to, String start, String end, float open, float high, float low,
+			float close, float average, int count) {
+		this.from = from;
+		this.to = to;
+		this.start = start;
+		this.end = end;
+		this.open = open;
+		this.high = high;
+		this.low = low;
+		this.close = close;
+		this.average = average;
+		this.count = count;
+	}
+	
+	public String getFrom() {
+		return from;
+	}
+	
+	public String getTo() {
+		return to;
+	}
+	
+	public String getStart() {
+		return start;
+	}
+	
+	public String getEnd() {
+		return end;
+	}
+	
+	public float getOpen() {
+		return open;
+	}
+	
+	public float getHigh() {
+		return high;
+	}
+	
+	public float getLow() {
+		return low;
+	}
+	
+	public float getClose() {
+		return close;
+	}
+	
+	public float getAverage() {
+		return average;
+	}
+	
+	public int getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,12 @@
+package com.csa.exchangerate.model;
+
+/**
+ * The length of time a {@link RateAggregate} covers.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public enum RateInterval {
+	DAY,
+	WEEK
+}
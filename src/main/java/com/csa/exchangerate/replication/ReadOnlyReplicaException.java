@@ -0,0 +1,16 @@
+package com.csa.exchangerate.replication;
+
+/**
+ * Thrown when a rate is written to a read replica, writes only go to the primary.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public class ReadOnlyReplicaException extends RuntimeException {
+	
+	private static final long serialVersionUID = 1L;
+	
+	public ReadOnlyReplicaException() {
+		super("Read only replica, exchange rates are written to the primary");
+	}
+}
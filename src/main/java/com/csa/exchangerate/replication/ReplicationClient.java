@@ -0,0 +1,341 @@
+package com.csa.exchangerate.replication;
+
+import static com.csa.exchangerate.replication.ReplicationProtocol.FRAME_SIZE;
+import static com.csa.exchangerate.replication.ReplicationProtocol.HANDSHAKE_SIZE;
+import static com.csa.exchangerate.replication.ReplicationProtocol.HEARTBEAT;
+import static com.csa.exchangerate.replication.ReplicationProtocol.HELLO;
+import static com.csa.exchangerate.replication.ReplicationProtocol.MAGIC;
+import static com.csa.exchangerate.replication.ReplicationProtocol.RATE;
+import static com.csa.exchangerate.replication.ReplicationProtocol.SNAPSHOT;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.csa.exchangerate.metrics.LatencyHistogram;
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.service.ExchangeRateService;
+import com.csa.exchangerate.util.CurrencyPair;
+
+/**
+ * Follows a primary's update log (see {@link ReplicationServer}) and saves its rates on this read replica.
+ * 
+ * A single thread reads the primary's frames over a socket and saves the rates in each read as one batch,
+ * so the cross rates, caches and subscribers are brought up to date once per batch like any other batch.
+ * Rates are saved as of the time the primary saved them (see 
+ * {@link com.csa.exchangerate.repository.ExchangeRateRepository#saveReplicated(List)}), so they expire
+ * when they do on the primary and a rate sent again isn't counted twice.
+ * It remembers the generation and the next offset of the log it follows, and when the connection drops it
+ * reconnects and carries on from that offset (backing off up to the maximum delay while the primary is
+ * down).  A batch that fails to save drops the connection too, and after the maximum delay it's sent
+ * again from the last offset saved.  Rates written to a replica directly are refused, see
+ * {@link ReadOnlyReplicaException}.
+ * 
+ * Lag is measured in offsets, from the primary's log head in its heartbeats (sent every second), and in
+ * time, since the primary saved the last rate saved here while there are more to save.  The delay from
+ * the primary saving a rate to the replica saving it is recorded in {@link #getApplyDelay()} (clocks of
+ * different hosts may differ).
+ * 
+ * @author Brian A Zied
+ *
+ */
+@Component
+@ConditionalOnProperty(prefix = "exchangerate.replication", name = "role", havingValue = "replica")
+public class ReplicationClient implements AutoCloseable {
+	
+	private static final Logger LOG = LoggerFactory.getLogger(ReplicationClient.class);
+	
+	private static final long MAX_RECONNECT_DELAY_MILLIS = 1000;
+	private static final int BUFFER_SIZE = 2048 * FRAME_SIZE;
+	
+	private final String host;
+	private final int port;
+	private final Consumer<List<ExchangeRate>> saver;
+	private Thread thread;
+	private volatile SocketChannel channel;
+	private volatile boolean running;
+	
+	private volatile long generation;         // 0 until synced with a primary
+	private volatile long nextOffset = -1;    // next log offset to save, -1 until synced
+	private volatile long primaryHead = -1;
+	private volatile long savedAt;  // when the primary saved the last rate saved here
+	private volatile boolean connected;
+	private final AtomicLong reconnects = new AtomicLong();
+	private final LongAdder snapshotRates = new LongAdder();
+	private final LatencyHistogram applyDelay = new LatencyHistogram();
+	
+	// only used on the replication thread
+	private long pendingGeneration;
+	private long pendingStart;
+	private boolean synced;
+	
+	@Autowired
+	public ReplicationClient(@Value("${exchangerate.replication.primary:localhost:7070}") String primary, 
+			ObjectProvider<ExchangeRateService> exchangeRateService) {
+		this(host(primary), port(primary), exchangeRates -> exchangeRateService.getObject().saveReplicated(exchangeRates));
+	}
+	
+	/**
+	 * @param host host of the primary
+	 * @param port primary's replication port
+	 * @param saver saves each batch of replicated rates
+	 */
+	public ReplicationClient(String host, int port, Consumer<List<ExchangeRate>> saver) {
+		this.host = host;
+		this.port = port;
+		this.saver = saver;
+	}
+	
+	/**
+	 * Starts following the primary, once the application is ready to serve what it saves.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public synchronized void start() {
+		if (thread == null) {
+			running = true;
+			thread = new Thread(this::run, "replication-replica");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+	
+	@Override
+	@PreDestroy
+	public void close() {
+		running = false;
+		closeChannel();
+		Thread thread;
+		synchronized (this) {
+			thread = this.thread;
+			this.thread = null;
+		}
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join(TimeUnit.SECONDS.toMillis(1));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	private void run() {
+		long delay = 10;
+		while (running) {
+			// resolved on every attempt, the primary's address may change while it's down
+			try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+				this.channel = channel;
+				channel.socket().setTcpNoDelay(true);
+				ByteBuffer handshake = ByteBuffer.allocate(HANDSHAKE_SIZE);
+				handshake.putInt(MAGIC).putLong(generation).putLong(nextOffset).flip();
+				while (handshake.hasRemaining()) {
+					channel.write(handshake);
+				}
+				connected = true;
+				delay = 10;
+				follow(channel);
+			} catch (IOException | UnresolvedAddressException e) {
+				// primary down or connection dropped, reconnect below
+				if (connected && running) {
+					LOG.warn("Lost connection to replication primary {}:{}", host, port, e);
+				}
+			} catch (RuntimeException e) {
+				LOG.error("Unable to save rates replicated from {}:{}, reconnecting", host, port, e);
+				delay = MAX_RECONNECT_DELAY_MILLIS;
+			} finally {
+				connected = false;
+				this.channel = null;
+			}
+			if (running) {
+				reconnects.incrementAndGet();
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					return;
+				}
+				delay = Math.min(delay * 2, MAX_RECONNECT_DELAY_MILLIS);
+			}
+		}
+	}
+	
+	private void follow(SocketChannel channel) throws IOException {
+		synced = false;
+		ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		List<ExchangeRate> batch = new ArrayList<>();
+		while (running && channel.read(in) >= 0) {
+			in.flip();
+			long batchNext = nextOffset;
+			long batchSavedAt = 0;
+			while (in.remaining() >= FRAME_SIZE) {
+				int type = in.getInt();
+				int pair = in.getInt();
+				int epochDay = in.getInt();
+				float rate = in.getFloat();
+				long offset = in.getLong();
+				long time = in.getLong();
+				switch (type) {
+					case HELLO:
+						pendingGeneration = offset;
+						pendingStart = time;
+						synced = false;
+						primaryHead = Math.max(primaryHead, time);
+						break;
+					case SNAPSHOT:
+						batch.add(toExchangeRate(pair, epochDay, rate, time));
+						snapshotRates.increment();
+						break;
+					case RATE:
+						batchNext = sync(batchNext);
+						if (offset != batchNext) {
+							throw new IOException("Expected offset " + batchNext + " but was " + offset);
+						}
+						if (batchSavedAt == 0) {
+							batchSavedAt = time;
+						}
+						batch.add(toExchangeRate(pair, epochDay, rate, time));
+						batchNext = offset + 1;
+						primaryHead = Math.max(primaryHead, batchNext);
+						savedAt = time;
+						break;
+					case HEARTBEAT:
+						batchNext = sync(batchNext);
+						primaryHead = Math.max(primaryHead, offset);
+						break;
+					default:
+						throw new IOException("Unknown frame type " + type);
+				}
+			}
+			in.compact();
+			if (!batch.isEmpty()) {
+				saver.accept(batch);
+				if (batchSavedAt != 0) {
+					applyDelay.record(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - batchSavedAt));
+				}
+				batch = new ArrayList<>();
+			}
+			nextOffset = batchNext;
+		}
+	}
+	
+	/**
+	 * The first rate or heartbeat after a HELLO means any snapshot has all been sent, so from then on the
+	 * replica follows the primary's generation from the start offset it gave.
+	 * 
+	 * @return next offset expected
+	 */
+	private long sync(long next) {
+		if (synced) {
+			return next;
+		}
+		synced = true;
+		generation = pendingGeneration;
+		return pendingStart;
+	}
+	
+	private static ExchangeRate toExchangeRate(int pair, int epochDay, float rate, long savedAt) {
+		ExchangeRate exchangeRate = new ExchangeRate(CurrencyPair.fromCode(pair), CurrencyPair.toCode(pair), rate, 
+				LocalDate.ofEpochDay(epochDay).toString());
+		exchangeRate.setSavedAt(savedAt);
+		return exchangeRate;
+	}
+	
+	private void closeChannel() {
+		SocketChannel channel = this.channel;
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+	
+	private static String host(String hostAndPort) {
+		return hostAndPort.substring(0, separator(hostAndPort));
+	}
+	
+	private static int port(String hostAndPort) {
+		return Integer.parseInt(hostAndPort.substring(separator(hostAndPort) + 1));
+	}
+	
+	private static int separator(String hostAndPort) {
+		int separator = hostAndPort.lastIndexOf(':');
+		if (separator < 0) {
+			throw new IllegalArgumentException("Invalid replication primary, expected host:port: " + hostAndPort);
+		}
+		return separator;
+	}
+	
+	public boolean isConnected() {
+		return connected;
+	}
+	
+	/**
+	 * @return generation of the primary's log being followed, 0 if none yet
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * @return next offset of the primary's log to save, -1 until synced with it
+	 */
+	public long getNextOffset() {
+		return nextOffset;
+	}
+	
+	/**
+	 * @return offsets of the primary's log not yet saved here
+	 */
+	public long getLagOffsets() {
+		long nextOffset = this.nextOffset;
+		return nextOffset < 0 ? -1 : Math.max(0, primaryHead - nextOffset);
+	}
+	
+	/**
+	 * @return milliseconds since the primary saved the last rate saved here, 0 when caught up
+	 */
+	public long getLagMillis() {
+		return getLagOffsets() > 0 ? Math.max(0, System.currentTimeMillis() - savedAt) : 0;
+	}
+	
+	public long getReconnectCount() {
+		return reconnects.get();
+	}
+	
+	/**
+	 * @return number of rates received in snapshots
+	 */
+	public long getSnapshotRateCount() {
+		return snapshotRates.sum();
+	}
+	
+	/**
+	 * @return time from the primary saving a batch's first rate to the replica saving the batch
+	 */
+	public LatencyHistogram getApplyDelay() {
+		return applyDelay;
+	}
+}
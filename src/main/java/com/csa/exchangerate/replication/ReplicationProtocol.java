@@ -0,0 +1,40 @@
+package com.csa.exchangerate.replication;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The replication wire format.  A replica opens the connection with a handshake:
+ * 
+ *    magic (int) | generation it follows (long, 0 for none) | next offset it needs (long, -1 for none)
+ * 
+ * and the primary answers with a stream of fixed size frames:
+ * 
+ *    type (int) | pair id (int) | epoch day (int) | rate (float) | offset (long) | time (long)
+ * 
+ * HELLO carries the primary's generation in the offset and its log head in the time.  RATE is the log
+ * record at the offset, saved at the time.  SNAPSHOT is a rate the primary holds, saved at the time, sent
+ * when the replica can't catch up from the log, and the stream carries on from the offset.  HEARTBEAT
+ * carries the log head in the offset and the primary's clock in the time, sent when there's nothing else
+ * to send.
+ * 
+ * @author Brian A Zied
+ *
+ */
+final class ReplicationProtocol {
+	
+	static final int MAGIC = 0x45585252;  // EXRR
+	static final int HANDSHAKE_SIZE = 20;
+	static final int FRAME_SIZE = 32;
+	
+	static final int HELLO = 0;
+	static final int RATE = 1;
+	static final int SNAPSHOT = 2;
+	static final int HEARTBEAT = 3;
+	
+	private ReplicationProtocol() {
+	}
+	
+	static void putFrame(ByteBuffer buffer, int type, int pair, int epochDay, float rate, long offset, long time) {
+		buffer.putInt(type).putInt(pair).putInt(epochDay).putFloat(rate).putLong(offset).putLong(time);
+	}
+}
@@ -0,0 +1,370 @@
+package com.csa.exchangerate.replication;
+
+import static com.csa.exchangerate.replication.ReplicationProtocol.FRAME_SIZE;
+import static com.csa.exchangerate.replication.ReplicationProtocol.HANDSHAKE_SIZE;
+import static com.csa.exchangerate.replication.ReplicationProtocol.HEARTBEAT;
+import static com.csa.exchangerate.replication.ReplicationProtocol.HELLO;
+import static com.csa.exchangerate.replication.ReplicationProtocol.MAGIC;
+import static com.csa.exchangerate.replication.ReplicationProtocol.RATE;
+import static com.csa.exchangerate.replication.ReplicationProtocol.SNAPSHOT;
+import static com.csa.exchangerate.replication.ReplicationProtocol.putFrame;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.repository.ExchangeRateRepository;
+import com.csa.exchangerate.repository.RateJournal.RecordConsumer;
+import com.csa.exchangerate.repository.ReplicationLog;
+
+/**
+ * Streams the primary's {@link ReplicationLog} to read replicas (see {@link ReplicationClient}).
+ * 
+ * A single thread serves every replica with non-blocking sockets and a selector.  It's woken when a rate is
+ * appended to the log and copies the new records straight from the log into each replica's buffer, as many
+ * as the socket takes, so a slow replica only holds up itself.  A replica gets the log from the offset it
+ * asks for.  If that's not in the log (a new replica, one following a previous run of the primary, or
+ * one so far behind its offset was overwritten) it gets a snapshot of the rates the primary holds and then
+ * the log from where the snapshot was taken.  A replica that falls behind the log while streaming is
+ * disconnected and gets a snapshot when it reconnects.  A replica that fails any other way is disconnected
+ * on its own, the others carry on.  Snapshots are taken on a thread of their own, 
+ * walking every pair would hold up the other replicas, and the replica is sent the log once its snapshot
+ * has been sent.
+ * 
+ * Every rate is sent with the time it was saved here, and the replica saves it as of then, so it expires
+ * at the same time on both.  Rates saved while a snapshot is taken may be sent both in it and from the log,
+ * and a replica that reconnects is sent rates it already has: the replica skips a rate it holds for the
+ * day saved at the same time, so each is only counted once in its history.  The snapshot holds each
+ * pair's rates for its retention, not the longer history.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@Component
+@ConditionalOnProperty(prefix = "exchangerate.replication", name = "role", havingValue = "primary")
+public class ReplicationServer implements AutoCloseable {
+	
+	private static final Logger LOG = LoggerFactory.getLogger(ReplicationServer.class);
+	
+	private static final long HEARTBEAT_MILLIS = 1000;
+	private static final int BUFFER_SIZE = 2048 * FRAME_SIZE;
+	
+	private final ReplicationLog log;
+	private final ExchangeRateRepository repository;
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final Thread thread;
+	private final ExecutorService snapshots;
+	private final AtomicBoolean wakeupPending = new AtomicBoolean();
+	private final List<Replica> replicas = new CopyOnWriteArrayList<>();
+	private volatile boolean running = true;
+	
+	public ReplicationServer(ReplicationLog log, ExchangeRateRepository repository, 
+			@Value("${exchangerate.replication.port:7070}") int port) throws IOException {
+		this.log = log;
+		this.repository = repository;
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.bind(new InetSocketAddress(port));
+		this.serverChannel.configureBlocking(false);
+		this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		log.setListener(this::wakeup);
+		this.snapshots = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "replication-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		this.thread = new Thread(this::run, "replication-primary");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	/**
+	 * @return port replicas connect to
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+	
+	/**
+	 * @return next offset to be sent to each connected replica, by its address
+	 */
+	public Map<String, Long> getReplicaOffsets() {
+		Map<String, Long> offsets = new LinkedHashMap<>();
+		for (Replica replica : replicas) {
+			offsets.put(replica.address, replica.cursor);
+		}
+		return offsets;
+	}
+	
+	public ReplicationLog getLog() {
+		return log;
+	}
+	
+	@Override
+	@PreDestroy
+	public void close() throws IOException {
+		running = false;
+		log.setListener(null);
+		snapshots.shutdownNow();
+		selector.close();
+		serverChannel.close();
+		for (Replica replica : replicas) {
+			replica.close();
+		}
+	}
+	
+	private void wakeup() {
+		// one wakeup until the selector has woken, however many rates are appended in between
+		if (wakeupPending.compareAndSet(false, true)) {
+			selector.wakeup();
+		}
+	}
+	
+	private void run() {
+		try {
+			while (running) {
+				selector.select(HEARTBEAT_MILLIS);
+				wakeupPending.set(false);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else if (key.isReadable()) {
+						((Replica) key.attachment()).read();
+					}
+				}
+				long now = System.currentTimeMillis();
+				for (Replica replica : replicas) {
+					replica.send(now);
+				}
+			}
+		} catch (IOException e) {
+			if (running) {
+				LOG.error("Replication selector failed, replicas are no longer sent rates", e);
+			}
+		} catch (ClosedSelectorException e) {
+			// closed
+		}
+	}
+	
+	/**
+	 * Accepts a replica's connection, a connection that can't be set up is closed and left at that.
+	 */
+	private void accept() {
+		SocketChannel channel = null;
+		try {
+			channel = serverChannel.accept();
+			if (channel != null) {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				Replica replica = new Replica(channel);
+				replica.key = channel.register(selector, SelectionKey.OP_READ, replica);
+			}
+		} catch (IOException e) {
+			LOG.warn("Unable to accept replica connection", e);
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the rates the repository holds as SNAPSHOT frames, continuing from the offset
+	 */
+	private ByteBuffer snapshot(long offset) {
+		List<ExchangeRate> exchangeRates = new ArrayList<>();
+		for (int pair : repository.findPairs()) {
+			exchangeRates.addAll(repository.findAll(pair));
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(exchangeRates.size() * FRAME_SIZE);
+		for (ExchangeRate exchangeRate : exchangeRates) {
+			putFrame(buffer, SNAPSHOT, exchangeRate.getPair(), (int) exchangeRate.getEpochDay(), exchangeRate.getRate(), 
+					offset, exchangeRate.getSavedAt());
+		}
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * A connected replica, only used on the selector thread apart from reading its cursor for metrics and
+	 * its snapshot being handed over.
+	 */
+	private class Replica implements RecordConsumer {
+		
+		final SocketChannel channel;
+		final String address;
+		final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		ByteBuffer in = ByteBuffer.allocate(HANDSHAKE_SIZE);
+		volatile ByteBuffer snapshot;
+		volatile boolean snapshotting;  // until the snapshot has been taken
+		SelectionKey key;
+		volatile long cursor = -1;  // next offset to send, -1 until the handshake
+		long framing;               // offset of the next record read from the log
+		long lastHeartbeatAt;
+		
+		Replica(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			this.address = String.valueOf(channel.getRemoteAddress());
+			this.out.flip();
+		}
+		
+		void read() {
+			try {
+				if (cursor >= 0) {
+					// nothing is expected after the handshake, only read to see the replica close
+					in.clear();
+				}
+				if (channel.read(in) < 0) {
+					close();
+				} else if (cursor < 0 && !in.hasRemaining()) {
+					handshake();
+				}
+			} catch (IOException e) {
+				close();
+			} catch (RuntimeException e) {
+				LOG.error("Replication to {} failed, disconnecting it", address, e);
+				close();
+			}
+		}
+		
+		private void handshake() {
+			in.flip();
+			if (in.getInt() != MAGIC) {
+				close();
+				return;
+			}
+			long generation = in.getLong();
+			long offset = in.getLong();
+			long head = log.getHead();
+			boolean catchUp = generation == log.getGeneration() && offset >= log.getTail() && offset <= head;
+			long start = catchUp ? offset : head;
+			out.clear();
+			putFrame(out, HELLO, 0, 0, 0, log.getGeneration(), start);
+			out.flip();
+			in = ByteBuffer.allocate(FRAME_SIZE);
+			cursor = start;
+			if (!catchUp) {
+				snapshotting = true;
+				try {
+					snapshots.execute(() -> {
+						try {
+							snapshot = snapshot(start);
+						} catch (RuntimeException e) {
+							LOG.error("Unable to take a snapshot for {}, disconnecting it", address, e);
+							close();
+						}
+						snapshotting = false;
+						wakeup();
+					});
+				} catch (RejectedExecutionException e) {
+					// closing
+					close();
+					return;
+				}
+			}
+			replicas.add(this);
+		}
+		
+		void send(long now) {
+			try {
+				while (true) {
+					if (out.hasRemaining()) {
+						channel.write(out);
+						if (out.hasRemaining()) {
+							key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+							return;
+						}
+					}
+					if (snapshotting) {
+						key.interestOps(SelectionKey.OP_READ);
+						return;
+					}
+					out.clear();
+					if (snapshot != null) {
+						ByteBuffer chunk = snapshot.duplicate();
+						chunk.limit(Math.min(snapshot.limit(), snapshot.position() + out.remaining()));
+						out.put(chunk);
+						snapshot.position(chunk.position());
+						if (!snapshot.hasRemaining()) {
+							snapshot = null;
+						}
+					} else {
+						framing = cursor;
+						long next = log.read(cursor, out.remaining() / FRAME_SIZE, this);
+						if (next < 0) {
+							// fell behind the log, it gets a snapshot when it reconnects
+							close();
+							return;
+						}
+						cursor = next;
+						// every second, idle or not, so the replica sees how far behind it is
+						if (out.hasRemaining() && now - lastHeartbeatAt >= HEARTBEAT_MILLIS) {
+							putFrame(out, HEARTBEAT, 0, 0, 0, log.getHead(), now);
+							lastHeartbeatAt = now;
+						}
+					}
+					out.flip();
+					if (!out.hasRemaining()) {
+						key.interestOps(SelectionKey.OP_READ);
+						return;
+					}
+				}
+			} catch (IOException e) {
+				close();
+			} catch (RuntimeException e) {
+				LOG.error("Replication to {} failed, disconnecting it", address, e);
+				close();
+			}
+		}
+		
+		@Override
+		public void accept(int pair, int epochDay, float rate, long savedAt) {
+			putFrame(out, RATE, pair, epochDay, rate, framing++, savedAt);
+		}
+		
+		void close() {
+			replicas.remove(this);
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+}
@@ -1,20 +1,51 @@
 package com.csa.exchangerate.repository;
 
 import java.time.LocalDate;
-import java.util.Currency;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 
 import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.model.RateAggregate;
+import com.csa.exchangerate.model.RateInterval;
 
 public interface ExchangeRateRepository {
 
-	List<ExchangeRate> findAll(Currency from, Currency to);
+	List<ExchangeRate> findAll(int pair);
 	
-	Optional<ExchangeRate> findLatest(Currency from, Currency to);
+	Optional<ExchangeRate> findLatest(int pair);
 	
-	Optional<ExchangeRate> findForDate(Currency from, Currency to, LocalDate date);
+	ExchangeRate[] findLatest(int[] pairs);
+	
+	int[] findPairs();
+	
+	Optional<ExchangeRate> findForDate(int pair, LocalDate date);
+	
+	byte[] findLatestEncoded(int pair, Function<ExchangeRate, byte[]> encoder);
+	
+	byte[] findForDateEncoded(int pair, LocalDate date, Function<ExchangeRate, byte[]> encoder);
+	
+	List<ExchangeRate> findRange(int pair, LocalDate start, LocalDate end);
+	
+	List<RateAggregate> findAggregates(int pair, LocalDate start, LocalDate end, RateInterval interval);
 	
 	ExchangeRate save(ExchangeRate exchangeRate);
 	
+	List<ExchangeRate> saveAll(List<ExchangeRate> exchangeRates);
+	
+	/**
+	 * Saves rates replicated from another repository as of the time they were saved there, skipping a rate
+	 * its day already holds saved at the same time, so a rate replicated twice is only saved once.
+	 * 
+	 * @param exchangeRates rates with the time they were saved
+	 * @return Exchange rates
+	 */
+	List<ExchangeRate> saveReplicated(List<ExchangeRate> exchangeRates);
+	
+	/**
+	 * @param listener called with each pair the repository removes (rates and history) on its own
+	 */
+	void setRemovalListener(IntConsumer listener);
+	
 }
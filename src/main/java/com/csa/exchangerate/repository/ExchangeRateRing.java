@@ -0,0 +1,375 @@
+package com.csa.exchangerate.repository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.util.CurrencyPair;
+
+/**
+ * The exchange rates of a single from->to pair, held in a circular array with one slot per day of the
+ * retention window.  A rate for an epoch day lives in slot (epoch day mod capacity), so the slot for a date
+ * is found directly and a newer day naturally overwrites the day that fell out of the window.  A day left
+ * in a slot that no newer day has overwritten yet is outside the window all the same, every read only
+ * returns days within the window up to the newest live day.
+ * 
+ * Rates are stored in parallel primitive arrays (epoch day, rate and the time it was saved), so a stored
+ * rate costs 16 bytes rather than an {@link ExchangeRate} and its three Strings.  The {@link ExchangeRate}
+ * is only created when a rate is read.
+ * 
+ * Each slot can also hold its rate already encoded for a response (see {@link #latestEncoded}), which is
+ * cleared whenever the slot is written, so the encoded bytes can never be out of date.
+ * 
+ * Reads are optimistic and only fall back to the read lock if a write happened while reading.  Writers
+ * hold the write lock (see {@link #writeLock()}) for the whole of their writes.  The slot of the latest
+ * rate is tracked so {@link #latest(long)} doesn't have to look at every slot.
+ * 
+ * The ring also keeps the last time it was read or written (to a second), so the repository can evict the
+ * least recently used pairs, and is marked removed under the write lock when it's evicted so a writer that
+ * looked it up just before knows to look again.
+ * 
+ * @author Brian A Zied
+ *
+ */
+class ExchangeRateRing {
+	
+	private static final long ACCESS_RESOLUTION_MILLIS = 1000;
+	
+	private final int pair;
+	private final int capacity;
+	private final long ttlMillis;
+	private final StampedLock lock = new StampedLock();
+	
+	private final int[] epochDays;
+	private final float[] rates;
+	private final long[] savedAt;  // 0 when the slot is empty
+	private final AtomicReferenceArray<byte[]> encoded;
+	private int latest = -1;
+	private boolean removed;
+	private volatile long lastAccess;
+	
+	/**
+	 * @param pair from->to pair id
+	 * @param capacity days in the retention window
+	 * @param ttlMillis time a rate lives after it's saved
+	 */
+	ExchangeRateRing(int pair, int capacity, long ttlMillis) {
+		this.pair = pair;
+		this.capacity = capacity;
+		this.ttlMillis = ttlMillis;
+		this.epochDays = new int[capacity];
+		this.rates = new float[capacity];
+		this.savedAt = new long[capacity];
+		this.encoded = new AtomicReferenceArray<>(capacity);
+	}
+	
+	/**
+	 * @param now current time in milliseconds
+	 * @return the live rate with the latest epoch day, or null
+	 */
+	ExchangeRate latest(long now) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			ExchangeRate exchangeRate = readLatest(now);
+			if (lock.validate(stamp)) {
+				return exchangeRate;
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return readLatest(now);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * @param epochDay
+	 * @param now current time in milliseconds
+	 * @return the live rate for the epoch day, or null
+	 */
+	ExchangeRate forDay(long epochDay, long now) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			ExchangeRate exchangeRate = readDay(epochDay, now);
+			if (lock.validate(stamp)) {
+				return exchangeRate;
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return readDay(epochDay, now);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * @param now current time in milliseconds
+	 * @param encoder encodes a rate the first time it's asked for, always to the same format
+	 * @return the encoded live rate with the latest epoch day, or null
+	 */
+	byte[] latestEncoded(long now, Function<ExchangeRate, byte[]> encoder) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			int slot = latestSlot(now);
+			byte[] bytes = slot < 0 ? null : encoded.get(slot);
+			if (lock.validate(stamp) && (slot < 0 || bytes != null)) {
+				return bytes;
+			}
+		}
+		// encode under the read lock so a writer can't replace the rate between encoding and caching it
+		stamp = lock.readLock();
+		try {
+			int slot = latestSlot(now);
+			return slot < 0 ? null : encode(slot, encoder);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * @param epochDay
+	 * @param now current time in milliseconds
+	 * @param encoder encodes a rate the first time it's asked for, always to the same format
+	 * @return the encoded live rate for the epoch day, or null
+	 */
+	byte[] forDayEncoded(long epochDay, long now, Function<ExchangeRate, byte[]> encoder) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			int slot = daySlot(epochDay, now);
+			byte[] bytes = slot < 0 ? null : encoded.get(slot);
+			if (lock.validate(stamp) && (slot < 0 || bytes != null)) {
+				return bytes;
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			int slot = daySlot(epochDay, now);
+			return slot < 0 ? null : encode(slot, encoder);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * @param now current time in milliseconds
+	 * @return the live rates, oldest first
+	 */
+	List<ExchangeRate> toList(long now) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			List<ExchangeRate> exchangeRates = readAll(now);
+			if (lock.validate(stamp)) {
+				return exchangeRates;
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return readAll(now);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Locks the ring for writing, the stamp must be passed to {@link #unlockWrite(long)}.
+	 */
+	long writeLock() {
+		return lock.writeLock();
+	}
+	
+	void unlockWrite(long stamp) {
+		lock.unlockWrite(stamp);
+	}
+	
+	/**
+	 * Marks the ring removed from the repository.  The caller must hold the write lock.
+	 */
+	void markRemoved() {
+		removed = true;
+	}
+	
+	/**
+	 * @return true if removed from the repository, the caller must hold the write lock
+	 */
+	boolean isRemoved() {
+		return removed;
+	}
+	
+	/**
+	 * @param now current time in milliseconds
+	 * @return true if the ring has no live rates, the caller must hold the write lock
+	 */
+	boolean isEmpty(long now) {
+		return latestSlot(now) < 0;
+	}
+	
+	/**
+	 * Records an access to the ring.  The time is only written when it has moved on by a second, so reads
+	 * of a busy pair from many threads don't keep writing the same field.
+	 * 
+	 * @param now current time in milliseconds
+	 */
+	void touch(long now) {
+		if (now - lastAccess >= ACCESS_RESOLUTION_MILLIS) {
+			lastAccess = now;
+		}
+	}
+	
+	/**
+	 * @return the last time the ring was accessed in milliseconds
+	 */
+	long getLastAccess() {
+		return lastAccess;
+	}
+	
+	int getPair() {
+		return pair;
+	}
+	
+	long getTtlMillis() {
+		return ttlMillis;
+	}
+	
+	/**
+	 * @param capacity days in the retention window
+	 * @return approximate heap size of a ring in bytes
+	 */
+	static long estimateSize(int capacity) {
+		// ring, lock and 4 array headers, then an epoch day, rate, saved at and encoded reference per day
+		return 160 + 20L * capacity;
+	}
+	
+	/**
+	 * Saves the rate in its day's slot, replacing the rate for the same day or for the day that fell out
+	 * of the window.  A rate older than the window is ignored.  The caller must hold the write lock.
+	 * 
+	 * @param epochDay
+	 * @param rate
+	 * @param savedAt time in milliseconds the rate was saved
+	 * @param now current time in milliseconds
+	 * @return true if saved
+	 */
+	boolean put(long epochDay, float rate, long savedAt, long now) {
+		int newest = latestSlot(now);
+		if (newest >= 0 && epochDay <= epochDays[newest] - capacity) {
+			return false;
+		}
+		int slot = slot(epochDay);
+		if (isLive(slot, now) && epochDays[slot] > epochDay) {
+			return false;
+		}
+		epochDays[slot] = (int) epochDay;
+		rates[slot] = rate;
+		this.savedAt[slot] = savedAt;
+		encoded.set(slot, null);
+		
+		if (latest < 0 || (latest != slot && isLive(latest, now) && epochDays[latest] <= epochDay)) {
+			latest = slot;
+		} else if (latest == slot || !isLive(latest, now)) {
+			// the latest day was replaced or expired, so look for the newest again
+			latest = newest(now);
+		}
+		return true;
+	}
+	
+	/**
+	 * The caller must hold the write lock.
+	 * 
+	 * @param epochDay
+	 * @param rate
+	 * @param savedAt time in milliseconds the rate was saved
+	 * @return true if the day holds this rate, saved at this time
+	 */
+	boolean holds(long epochDay, float rate, long savedAt) {
+		int slot = slot(epochDay);
+		return epochDays[slot] == epochDay && this.savedAt[slot] == savedAt && rates[slot] == rate;
+	}
+	
+	private ExchangeRate readLatest(long now) {
+		int slot = latestSlot(now);
+		return slot < 0 ? null : toExchangeRate(slot);
+	}
+	
+	private ExchangeRate readDay(long epochDay, long now) {
+		int slot = daySlot(epochDay, now);
+		return slot < 0 ? null : toExchangeRate(slot);
+	}
+	
+	private int latestSlot(long now) {
+		int slot = latest;
+		if (slot < 0 || !isLive(slot, now)) {
+			// the latest rate expired before an older day saved after it, so look for that one
+			slot = newest(now);
+		}
+		return slot;
+	}
+	
+	private int daySlot(long epochDay, long now) {
+		int slot = slot(epochDay);
+		if (epochDays[slot] != epochDay || !isLive(slot, now)) {
+			return -1;
+		}
+		// the same window as readAll, a day older than the newest day's window may not be overwritten yet
+		int newest = latestSlot(now);
+		return epochDay > epochDays[newest] - capacity ? slot : -1;
+	}
+	
+	private byte[] encode(int slot, Function<ExchangeRate, byte[]> encoder) {
+		byte[] bytes = encoded.get(slot);
+		if (bytes == null) {
+			bytes = encoder.apply(toExchangeRate(slot));
+			encoded.set(slot, bytes);
+		}
+		return bytes;
+	}
+	
+	private List<ExchangeRate> readAll(long now) {
+		int newest = latest;
+		if (newest < 0 || !isLive(newest, now)) {
+			newest = newest(now);
+		}
+		if (newest < 0) {
+			return new ArrayList<>(0);
+		}
+		int newestDay = epochDays[newest];
+		List<ExchangeRate> exchangeRates = new ArrayList<>(capacity);
+		for (long epochDay = newestDay - capacity + 1; epochDay <= newestDay; epochDay++) {
+			ExchangeRate exchangeRate = readDay(epochDay, now);
+			if (exchangeRate != null) {
+				exchangeRates.add(exchangeRate);
+			}
+		}
+		return exchangeRates;
+	}
+	
+	private int newest(long now) {
+		int newest = -1;
+		for (int slot = 0; slot < capacity; slot++) {
+			if (isLive(slot, now) && (newest < 0 || epochDays[slot] > epochDays[newest])) {
+				newest = slot;
+			}
+		}
+		return newest;
+	}
+	
+	private boolean isLive(int slot, long now) {
+		return savedAt[slot] != 0 && savedAt[slot] + ttlMillis > now;
+	}
+	
+	private ExchangeRate toExchangeRate(int slot) {
+		ExchangeRate exchangeRate = new ExchangeRate(CurrencyPair.fromCode(pair), CurrencyPair.toCode(pair), rates[slot],
+				LocalDate.ofEpochDay(epochDays[slot]).toString());
+		exchangeRate.setSavedAt(savedAt[slot]);
+		return exchangeRate;
+	}
+	
+	private int slot(long epochDay) {
+		return (int) Math.floorMod(epochDay, (long) capacity);
+	}
+}
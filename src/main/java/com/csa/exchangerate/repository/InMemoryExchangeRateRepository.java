@@ -1,31 +1,69 @@
 package com.csa.exchangerate.repository;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Currency;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
+import org.springframework.util.unit.DataSize;
 
+import com.csa.exchangerate.executor.Deadline;
+import com.csa.exchangerate.metrics.LatencyHistogram;
 import com.csa.exchangerate.model.ExchangeRate;
-import com.csa.exchangerate.util.SelfExpiringHashMap;
-import com.csa.exchangerate.util.SelfExpiringMap;
+import com.csa.exchangerate.model.RateAggregate;
+import com.csa.exchangerate.model.RateInterval;
+import com.csa.exchangerate.util.IsoDates;
+import com.csa.exchangerate.util.PairTable;
 
 /**
- * NOTE:  This isn't the most efficient method for storing exchange rates, however, i
- * this was the best implementable solution given the time constraints.
- * 
- * This repository assumes only a single exchange rate per day.  As a result, given the 3 day TTL of all
- * exchange rates, each exchange rate can only have a maximum of 3 total values.
+ * This repository assumes only a single exchange rate per day.  As a result, given the retention of each
+ * from->to pair (3 days unless configured otherwise, see {@link RetentionPolicy}), each exchange rate can
+ * only have one value per day of its retention.
  * 
- * Each exchange rate is saved in a map using the from->to currency as a key.
+ * Each exchange rate is saved in a dense pair table using the from->to currency pair id as a key.
  *    (For example: USD->EUR, USD->CAD, EUR->USD and CAD->USD are all keys)
- * Each from->to key saves the exchange rate in another map using the epoch day as a key.  This allows easy
- * comparison for determining the latest exchange rate for a from->to key.
+ * Each from->to key holds its exchange rates in a ring indexed by epoch day and sized to its pair's
+ * retention window (see {@link ExchangeRateRing}), so the latest rate and the rate for a date are both
+ * found directly.  Rates are kept as primitives and only turned into {@link ExchangeRate}s when read.
+ * Reads are optimistic and don't lock.  Writes lock only the from->to key being written, so writes to 
+ * different currency pairs never contend.
+ * 
+ * Every saved rate is also added to the from->to key's long term history (see {@link RateHistory}), which
+ * keeps daily and weekly aggregates for the history retention (400 days by default) and answers date range
+ * queries.  The history takes rates for days the retention window no longer holds.
+ * 
+ * The repository keeps an estimate of the memory its pairs use.  When a new pair takes it over its memory
+ * budget, the least recently read or written pairs are evicted (rates and history) until it's back under
+ * 90% of the budget.  Pairs whose rates have all expired and whose history is empty are reclaimed by the
+ * same sweep, which also runs every sweep interval.
+ * 
+ * When the journal is enabled every saved rate is also appended to it (under the from->to key's lock so
+ * the journal has the same order per pair), and the journal is replayed on startup.  The same goes for the
+ * {@link ReplicationLog} on a replication primary, which isn't replayed, replicas get a snapshot instead.
+ * 
+ * The time writers wait for a from->to key's lock is recorded in {@link #getLockWait()}.
+ * 
+ * Multi pair and range reads stop with a DeadlineExceededException once the current request's
+ * {@link Deadline} has passed.  A batch is only checked before its first pair is written, once started it's
+ * saved whole.
  * 
  * @author Brian A Zied
  *
@@ -33,74 +71,263 @@ import com.csa.exchangerate.util.SelfExpiringMap;
 @Repository
 public class InMemoryExchangeRateRepository implements ExchangeRateRepository {
 
-	private Map<ExchangeRateKey, SelfExpiringMap<Long, ExchangeRate>> exchangeRates = new HashMap<>();
+	private static final Duration TTL = Duration.ofDays(3);  // TTL is 3 days unless configured
+	private static final int HISTORY_DAYS = 400;
+	
+	private final PairTable<ExchangeRateRing> exchangeRates = new PairTable<>();
+	private final PairTable<RateHistory> history = new PairTable<>();
+	private final RetentionPolicy retention;
+	private final int historyDays;
+	
+	private final long memoryBudget;
+	private final AtomicLong memoryUsed = new AtomicLong();
+	private final AtomicInteger pairCount = new AtomicInteger();
+	private final LongAdder evictedCount = new LongAdder();
+	private final LongAdder reclaimedCount = new LongAdder();
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+	private final ScheduledExecutorService sweeper;  // null to sweep on the writer that goes over budget
+	private volatile IntConsumer removalListener;
+	
+	private final LatencyHistogram lockWait = new LatencyHistogram();
+	
+	@Autowired(required = false)
+	private RateJournal journal;
+	
+	@Autowired(required = false)
+	private ReplicationLog replicationLog;
+	
+	public InMemoryExchangeRateRepository() {
+		this(new RetentionPolicy(TTL, ""), HISTORY_DAYS, Long.MAX_VALUE, null);
+	}
+	
+	@Autowired
+	public InMemoryExchangeRateRepository(
+			@Value("${exchangerate.retention.default:3d}") Duration retention,
+			@Value("${exchangerate.retention.overrides:}") String retentionOverrides,
+			@Value("${exchangerate.history.retention:400d}") Duration historyRetention,
+			@Value("${exchangerate.repository.memory-budget:128MB}") DataSize memoryBudget,
+			@Value("${exchangerate.repository.sweep-interval:10m}") Duration sweepInterval) {
+		this(new RetentionPolicy(retention, retentionOverrides), (int) historyRetention.toDays(), memoryBudget.toBytes(), sweepInterval);
+	}
+	
+	InMemoryExchangeRateRepository(RetentionPolicy retention, int historyDays, long memoryBudget, Duration sweepInterval) {
+		this.retention = retention;
+		this.historyDays = Math.max(1, historyDays);
+		this.memoryBudget = memoryBudget;
+		if (sweepInterval != null) {
+			this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "repository-sweeper");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long interval = Math.max(1, sweepInterval.toMillis());
+			this.sweeper.scheduleWithFixedDelay(this::trySweep, interval, interval, TimeUnit.MILLISECONDS);
+		} else {
+			this.sweeper = null;
+		}
+	}
+	
+	/**
+	 * This method restores the exchange rates saved in the journal, keeping the time each was saved so 
+	 * they still expire their pair's retention after it.  Every journaled rate goes back into the history,
+	 * so the journal TTL should be at least the history retention.
+	 */
+	@PostConstruct
+	public void replayJournal() {
+		if (journal != null) {
+			long now = System.currentTimeMillis();
+			journal.replay((pair, epochDay, rate, savedAt) -> write(pair, false, rates -> {
+				history(pair).add(epochDay, rate);
+				if (savedAt + rates.getTtlMillis() > now) {
+					rates.put(epochDay, rate, savedAt, now);
+				}
+			}));
+		}
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		if (sweeper != null) {
+			sweeper.shutdownNow();
+		}
+	}
+	
+	/**
+	 * This method gets the from->to currencies that have exchange rates.
+	 * 
+	 * @return Pair ids
+	 */
+	@Override
+	public int[] findPairs() {
+		long now = System.currentTimeMillis();
+		int[][] pairs = { new int[64] };
+		int[] count = new int[1];
+		exchangeRates.forEach((rates, pair) -> {
+			if (rates.latest(now) != null) {
+				if (count[0] == pairs[0].length) {
+					pairs[0] = Arrays.copyOf(pairs[0], count[0] * 2);
+				}
+				pairs[0][count[0]++] = pair;
+			}
+		});
+		return Arrays.copyOf(pairs[0], count[0]);
+	}
 	
 	/**
 	 * This method gets the latest exchange rate history for a given from->to currency.
 	 * 
-	 * @param from
-	 * @param to
+	 * @param pair
 	 * @return Exchange rate (if it exists)
 	 */
 	@Override
-	public Optional<ExchangeRate> findLatest(Currency from, Currency to) {
-		ExchangeRateKey key = ExchangeRateKey.from(from, to);		
-		synchronized (exchangeRates) {
-			if (exchangeRates.containsKey(key)) {
-				Map<Long, ExchangeRate> rates = exchangeRates.get(key);
-				ExchangeRate latestRate = null;
-				long latestExchangeRateTimestamp = 0L;
-				for (Long currentExchangeRateTimestamp : rates.keySet()) {
-					if (currentExchangeRateTimestamp > latestExchangeRateTimestamp) {
-						latestRate = rates.get(currentExchangeRateTimestamp);
-					}
-				}
-				return Optional.of(latestRate);			
-			}			
+	public Optional<ExchangeRate> findLatest(int pair) {
+		ExchangeRateRing rates = exchangeRates.get(pair);
+		if (rates != null) {
+			long now = System.currentTimeMillis();
+			rates.touch(now);
+			return Optional.ofNullable(rates.latest(now));
 		}
 		return Optional.empty();
 	}
 	
+	/**
+	 * This method gets the latest exchange rates for several from->to currencies in one pass.
+	 * 
+	 * @param pairs
+	 * @return Exchange rates in the same order as the pairs (null where there is none)
+	 */
+	@Override
+	public ExchangeRate[] findLatest(int[] pairs) {
+		ExchangeRate[] latest = new ExchangeRate[pairs.length];
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < pairs.length; i++) {
+			if ((i & 63) == 0) {
+				Deadline.checkCurrent();
+			}
+			ExchangeRateRing rates = exchangeRates.get(pairs[i]);
+			if (rates != null) {
+				rates.touch(now);
+				latest[i] = rates.latest(now);
+			}
+		}
+		return latest;
+	}
+	
 	/**
 	 * This method gets the exchange rate history for a given from->to currency and date.
 	 * 
-	 * @param from
-	 * @param to
+	 * @param pair
 	 * @param date
 	 * @return Exchange rate (if it exists)
 	 */
 	@Override
-	public Optional<ExchangeRate> findForDate(Currency from, Currency to, LocalDate date) {
-		ExchangeRateKey key = ExchangeRateKey.from(from, to);
-		
-		synchronized (exchangeRates) {
-			if (exchangeRates.containsKey(key)) {
-				Map<Long, ExchangeRate> rates = exchangeRates.get(key);
-				return Optional.ofNullable(rates.get(date.toEpochDay()));
-			}
+	public Optional<ExchangeRate> findForDate(int pair, LocalDate date) {
+		ExchangeRateRing rates = exchangeRates.get(pair);
+		if (rates != null) {
+			long now = System.currentTimeMillis();
+			rates.touch(now);
+			return Optional.ofNullable(rates.forDay(date.toEpochDay(), now));
 		}
 		return Optional.empty();
 	}
 
 	/**
-	 * This method gets the unsorted exchange rate history for a given from->to currency.
+	 * This method gets the latest exchange rate for a given from->to currency already encoded (for example
+	 * as a JSON response).  The encoding is kept with the rate until the rate is replaced, so the encoder 
+	 * must always produce the same format.
 	 * 
-	 * @param from
-	 * @param to
-	 * @return Exchange rate list (unsorted)
+	 * @param pair
+	 * @param encoder
+	 * @return Encoded exchange rate, or null
 	 */
 	@Override
-	public List<ExchangeRate> findAll(Currency from, Currency to) {
-		ExchangeRateKey key = ExchangeRateKey.from(from, to);
-		
-		List<ExchangeRate> rates = new ArrayList<>();
-		
-		synchronized (exchangeRates) {
-			if (exchangeRates.containsKey(key)) {
-				rates.addAll(exchangeRates.get(key).values());
-			}
+	public byte[] findLatestEncoded(int pair, Function<ExchangeRate, byte[]> encoder) {
+		ExchangeRateRing rates = exchangeRates.get(pair);
+		if (rates != null) {
+			long now = System.currentTimeMillis();
+			rates.touch(now);
+			return rates.latestEncoded(now, encoder);
 		}
-		return rates;
+		return null;
+	}
+	
+	/**
+	 * This method gets the exchange rate for a given from->to currency and date already encoded, see
+	 * {@link #findLatestEncoded(int, Function)}.
+	 * 
+	 * @param pair
+	 * @param date
+	 * @param encoder
+	 * @return Encoded exchange rate, or null
+	 */
+	@Override
+	public byte[] findForDateEncoded(int pair, LocalDate date, Function<ExchangeRate, byte[]> encoder) {
+		ExchangeRateRing rates = exchangeRates.get(pair);
+		if (rates != null) {
+			long now = System.currentTimeMillis();
+			rates.touch(now);
+			return rates.forDayEncoded(date.toEpochDay(), now, encoder);
+		}
+		return null;
+	}
+	
+	/**
+	 * This method gets the exchange rate history for a given from->to currency.
+	 * 
+	 * @param pair
+	 * @return Exchange rate list (oldest first)
+	 */
+	@Override
+	public List<ExchangeRate> findAll(int pair) {
+		ExchangeRateRing rates = exchangeRates.get(pair);
+		if (rates != null) {
+			long now = System.currentTimeMillis();
+			rates.touch(now);
+			return rates.toList(now);
+		}
+		return new ArrayList<>(0);
+	}
+
+	/**
+	 * This method gets the exchange rate of each day from the start date to the end date for a given from->to
+	 * currency, from its history.  The range is limited to the history retention.
+	 * 
+	 * @param pair
+	 * @param start
+	 * @param end
+	 * @return Exchange rate list (oldest first)
+	 */
+	@Override
+	public List<ExchangeRate> findRange(int pair, LocalDate start, LocalDate end) {
+		Deadline.checkCurrent();
+		touch(pair);
+		RateHistory rates = history.get(pair);
+		if (rates != null) {
+			return rates.closes(start, end);
+		}
+		return new ArrayList<>(0);
+	}
+	
+	/**
+	 * This method gets the daily or weekly open/high/low/close/average of the exchange rates from the start 
+	 * date to the end date for a given from->to currency.  Weekly aggregates are for whole weeks (Monday to 
+	 * Sunday) so the first and last may include days outside the range.
+	 * 
+	 * @param pair
+	 * @param start
+	 * @param end
+	 * @param interval
+	 * @return Aggregate list (oldest first)
+	 */
+	@Override
+	public List<RateAggregate> findAggregates(int pair, LocalDate start, LocalDate end, RateInterval interval) {
+		Deadline.checkCurrent();
+		touch(pair);
+		RateHistory rates = history.get(pair);
+		if (rates != null) {
+			return rates.aggregates(start, end, interval == RateInterval.WEEK);
+		}
+		return new ArrayList<>(0);
 	}
 
 	/**
@@ -112,74 +339,300 @@ public class InMemoryExchangeRateRepository implements ExchangeRateRepository {
 	@Override
 	public ExchangeRate save(ExchangeRate exchangeRate) {
 		
-		// lookup current exchange rates
-		Currency from = Currency.getInstance(exchangeRate.getFrom());
-		Currency to = Currency.getInstance(exchangeRate.getTo());
-		ExchangeRateKey key = ExchangeRateKey.from(from, to);
+		// save exchange rate for that day, creating the pair's rates if it hasn't been saved
+		int pair = exchangeRate.getPair();
+		long epochDay = epochDay(exchangeRate);
+		long now = System.currentTimeMillis();
+		write(pair, true, rates -> save(pair, rates, epochDay, exchangeRate.getRate(), now, now));
 		
-		synchronized (exchangeRates) {
-			// exchange rate hasn't been saved, so save it
-			if (!exchangeRates.containsKey(key)) {
-				exchangeRates.put(key, new SelfExpiringHashMap<>());
+		return exchangeRate;
+	}
+	
+	/**
+	 * This method saves a batch of exchange rates to the in memory data store.  The batch is grouped by 
+	 * from->to currency so each currency's lock is taken once per batch, rates for the same currency are
+	 * saved in batch order.
+	 * 
+	 * @param exchangeRates
+	 * @return Exchange rates
+	 */
+	@Override
+	public List<ExchangeRate> saveAll(List<ExchangeRate> exchangeRates) {
+		return saveAll(exchangeRates, false);
+	}
+	
+	/**
+	 * This method saves a batch of exchange rates replicated from the primary like {@link #saveAll(List)},
+	 * each as of the time the primary saved it.  A rate the day already holds, saved at the same time, is
+	 * skipped, so a replica that's sent a rate again (in a snapshot and the log, or a snapshot after
+	 * reconnecting) doesn't count it twice in the history.  Anything else is saved in order like on the 
+	 * primary, even if it was saved at the same time or earlier (a batch saves all its rates at once, and
+	 * the primary's clock may step back).
+	 * 
+	 * @param exchangeRates
+	 * @return Exchange rates
+	 */
+	@Override
+	public List<ExchangeRate> saveReplicated(List<ExchangeRate> exchangeRates) {
+		return saveAll(exchangeRates, true);
+	}
+	
+	private List<ExchangeRate> saveAll(List<ExchangeRate> exchangeRates, boolean replicated) {
+		
+		// sort by pair id then batch index, packed into a long
+		long[] order = new long[exchangeRates.size()];
+		for (int i = 0; i < order.length; i++) {
+			ExchangeRate exchangeRate = exchangeRates.get(i);
+			order[i] = ((long) exchangeRate.getPair() << 32) | i;
+		}
+		Arrays.sort(order);
+		
+		// last chance to give up, nothing has been written yet
+		Deadline.checkCurrent();
+		long now = System.currentTimeMillis();
+		int start = 0;
+		while (start < order.length) {
+			int pair = (int) (order[start] >> 32);
+			int end = start + 1;
+			while (end < order.length && (int) (order[end] >> 32) == pair) {
+				end++;
 			}
 			
-			// save exchange rate for that day
-			Map<Long, ExchangeRate> rateMap =  exchangeRates.get(key);		
-			long epochDay = LocalDate.parse(exchangeRate.getReportedOn()).toEpochDay();
-			rateMap.put(epochDay, exchangeRate);
+			int first = start;
+			int last = end;
+			write(pair, true, rates -> {
+				for (int i = first; i < last; i++) {
+					ExchangeRate exchangeRate = exchangeRates.get((int) order[i]);
+					long epochDay = epochDay(exchangeRate);
+					if (!replicated) {
+						save(pair, rates, epochDay, exchangeRate.getRate(), now, now);
+					} else if (!rates.holds(epochDay, exchangeRate.getRate(), exchangeRate.getSavedAt())) {
+						save(pair, rates, epochDay, exchangeRate.getRate(), exchangeRate.getSavedAt(), now);
+					}
+				}
+			});
+			start = end;
 		}
 		
-		return exchangeRate;
+		return exchangeRates;
 	}
-
+	
 	/**
-	 * This is the key for all exchange rates.  The key is composed of the from and to
-	 * currency code.
-	 * 
-	 * @author Brian A Zied
-	 *
-	 */	
-	protected static class ExchangeRateKey {
-		private String fromCurrencyCode;
-		private String toCurrencyCode;
+	 * Reclaims the pairs with no live rates and no history left, then if the repository is still over its
+	 * memory budget, evicts the least recently used pairs until it's back under 90% of the budget.
+	 */
+	void sweep() {
+		long now = System.currentTimeMillis();
+		long today = LocalDate.now().toEpochDay();
 		
-		ExchangeRateKey(String fromCurrencyCode, String toCurrencyCode) {
-			this.fromCurrencyCode = fromCurrencyCode;
-			this.toCurrencyCode = toCurrencyCode;
-		}		
+		// reclaim empty pairs, keeping the rest in order of last access (seconds) then index, packed into a long
+		List<ExchangeRateRing> pairs = new ArrayList<>();
+		exchangeRates.forEach((rates, pair) -> {
+			if (remove(pair, rates, now, today, true)) {
+				removed(pair);
+			} else {
+				pairs.add(rates);
+			}
+		});
+		if (memoryUsed.get() <= memoryBudget) {
+			return;
+		}
+		long[] order = new long[pairs.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = (pairs.get(i).getLastAccess() / 1000) << 20 | i;
+		}
+		Arrays.sort(order);
 		
-	    protected String getFromCurrencyCode() {
-	    	return this.fromCurrencyCode;
-	    }
-	 
-	    protected String getToCurrencyCode() {
-	    	return this.toCurrencyCode;
-	    }
-	 
-	    //Only depends on currency codes
-	    @Override
-	    public int hashCode() {
-	        return Objects.hash(fromCurrencyCode, toCurrencyCode);
-	    }
-	    
-	    //Compare currency codes
-	    @Override
-	    public boolean equals(Object obj) {
-	        if (this == obj)
-	            return true;
-	        if (obj == null)
-	            return false;
-	        if (getClass() != obj.getClass())
-	            return false;
-	        ExchangeRateKey key = (ExchangeRateKey) obj;
-	        return fromCurrencyCode.equals(key.getFromCurrencyCode()) 
-	        		&& toCurrencyCode.equals(key.getToCurrencyCode());
-	    }
-	    
-	    static ExchangeRateKey from(Currency from, Currency to) {
-			return new ExchangeRateKey(from.getCurrencyCode(), to.getCurrencyCode());
+		long target = memoryBudget - memoryBudget / 10;
+		for (int i = 0; i < order.length && memoryUsed.get() > target; i++) {
+			ExchangeRateRing rates = pairs.get((int) (order[i] & 0xFFFFF));
+			if (remove(rates.getPair(), rates, now, today, false)) {
+				evictedCount.increment();
+				removed(rates.getPair());
+			}
+		}
+	}
+	
+	/**
+	 * @param listener called on the sweeping thread with each pair evicted or reclaimed, so it must be quick
+	 */
+	@Override
+	public void setRemovalListener(IntConsumer listener) {
+		this.removalListener = listener;
+	}
+	
+	/**
+	 * @return time writers waited for a from->to currency's lock
+	 */
+	public LatencyHistogram getLockWait() {
+		return lockWait;
+	}
+	
+	/**
+	 * @return number of from->to currencies held
+	 */
+	public int getPairCount() {
+		return pairCount.get();
+	}
+	
+	/**
+	 * @return estimated bytes used by the from->to currencies held
+	 */
+	public long getMemoryUsed() {
+		return memoryUsed.get();
+	}
+	
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+	
+	/**
+	 * @return number of least recently used from->to currencies evicted to keep within the memory budget
+	 */
+	public long getEvictedCount() {
+		return evictedCount.sum();
+	}
+	
+	/**
+	 * @return number of from->to currencies reclaimed once all their rates expired
+	 */
+	public long getReclaimedCount() {
+		return reclaimedCount.sum();
+	}
+	
+	/**
+	 * Looks up the pair's rates (creating them if the pair hasn't been saved) and runs the writes under
+	 * their write lock.  If the rates were evicted before the lock was taken it looks them up again.
+	 */
+	private void write(int pair, boolean recordWait, Consumer<ExchangeRateRing> writes) {
+		boolean written = false;
+		while (!written) {
+			ExchangeRateRing rates = rates(pair);
+			long waitStart = System.nanoTime();
+			long stamp = rates.writeLock();
+			try {
+				if (recordWait) {
+					lockWait.record(System.nanoTime() - waitStart);
+				}
+				if (!rates.isRemoved()) {
+					rates.touch(System.currentTimeMillis());
+					writes.accept(rates);
+					written = true;
+				}
+			} finally {
+				rates.unlockWrite(stamp);
+			}
 		}
 		
+		// a new pair may have taken the repository over its budget, sweep once it has its rates
+		if (memoryUsed.get() > memoryBudget) {
+			trySweep();
+		}
+	}
+	
+	private ExchangeRateRing rates(int pair) {
+		ExchangeRateRing rates = exchangeRates.get(pair);
+		if (rates == null) {
+			ExchangeRateRing newRates = new ExchangeRateRing(pair, retention.days(pair), retention.millis(pair));
+			newRates.touch(System.currentTimeMillis());
+			rates = exchangeRates.putIfAbsent(pair, newRates);
+			if (rates == null) {
+				rates = newRates;
+				pairCount.incrementAndGet();
+				memoryUsed.addAndGet(estimateSize(pair));
+			}
+		}
+		return rates;
+	}
+	
+	private void touch(int pair) {
+		ExchangeRateRing rates = exchangeRates.get(pair);
+		if (rates != null) {
+			rates.touch(System.currentTimeMillis());
+		}
+	}
+	
+	/**
+	 * Sweeps on the sweeper (or this thread if there is none) unless a sweep is already running.
+	 */
+	private void trySweep() {
+		if (sweeping.compareAndSet(false, true)) {
+			Runnable sweep = () -> {
+				try {
+					sweep();
+				} finally {
+					sweeping.set(false);
+				}
+			};
+			if (sweeper != null) {
+				sweeper.execute(sweep);
+			} else {
+				sweep.run();
+			}
+		}
 	}
 	
+	/**
+	 * Removes the pair's rates and history, only if it's empty or regardless.  The rates are marked removed
+	 * under their write lock so a writer waiting for it looks them up again.
+	 */
+	private boolean remove(int pair, ExchangeRateRing rates, long now, long today, boolean onlyIfEmpty) {
+		long stamp = rates.writeLock();
+		try {
+			RateHistory pairHistory = history.get(pair);
+			if (onlyIfEmpty && (!rates.isEmpty(now) || (pairHistory != null && !pairHistory.isEmpty(today)))) {
+				return false;
+			}
+			if (!exchangeRates.remove(pair, rates)) {
+				return false;
+			}
+			rates.markRemoved();
+			if (pairHistory != null) {
+				history.remove(pair, pairHistory);
+			}
+			pairCount.decrementAndGet();
+			memoryUsed.addAndGet(-estimateSize(pair));
+			if (onlyIfEmpty) {
+				reclaimedCount.increment();
+			}
+			return true;
+		} finally {
+			rates.unlockWrite(stamp);
+		}
+	}
+	
+	private void removed(int pair) {
+		IntConsumer listener = removalListener;
+		if (listener != null) {
+			listener.accept(pair);
+		}
+	}
+	
+	private long estimateSize(int pair) {
+		return ExchangeRateRing.estimateSize(retention.days(pair)) + RateHistory.estimateSize(historyDays);
+	}
+	
+	private static long epochDay(ExchangeRate exchangeRate) {
+		long epochDay = exchangeRate.getEpochDay();
+		if (epochDay == IsoDates.INVALID) {
+			throw new IllegalArgumentException("Invalid ISO date");
+		}
+		return epochDay;
+	}
+	
+	private RateHistory history(int pair) {
+		return history.computeIfAbsent(pair, p -> new RateHistory(p, historyDays));
+	}
+	
+	private void save(int pair, ExchangeRateRing rates, long epochDay, float rate, long savedAt, long now) {
+		boolean saved = rates.put(epochDay, rate, savedAt, now);
+		saved |= history(pair).add((int) epochDay, rate);
+		if (saved && journal != null) {
+			journal.append(pair, (int) epochDay, rate, savedAt);
+		}
+		if (saved && replicationLog != null) {
+			replicationLog.append(pair, (int) epochDay, rate, savedAt);
+		}
+	}
+
 }
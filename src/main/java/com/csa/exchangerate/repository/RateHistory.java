@@ -0,0 +1,266 @@
+package com.csa.exchangerate.repository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.model.RateAggregate;
+import com.csa.exchangerate.util.CurrencyPair;
+
+/**
+ * The long term history of a single from->to pair: an open/high/low/close/average aggregate of every rate
+ * saved for each day, and the same aggregate for each week (Monday to Sunday), kept for the retention
+ * window up to the newest day saved.
+ * 
+ * Days and weeks are held in circular arrays of primitives, like {@link ExchangeRateRing}, so a day is found
+ * directly and a range is read in date order without sorting or copying anything outside it.  The open is
+ * the first rate saved for the day and the close the last, which is the day's rate everywhere else.  A
+ * week's aggregate is worked out again from its 7 days whenever one of them is saved.
+ * 
+ * Reads are optimistic and only fall back to the read lock if a save happened while reading.
+ * 
+ * @author Brian A Zied
+ *
+ */
+class RateHistory {
+	
+	private static final int EMPTY = Integer.MIN_VALUE;
+	
+	private final int pair;
+	private final int days;
+	private final StampedLock lock = new StampedLock();
+	private final Aggregates daily;
+	private final Aggregates weekly;
+	private int newestDay = EMPTY;
+	
+	/**
+	 * @param pair from->to pair id
+	 * @param days days in the retention window
+	 */
+	RateHistory(int pair, int days) {
+		this.pair = pair;
+		this.days = days;
+		this.daily = new Aggregates(days);
+		this.weekly = new Aggregates(days / 7 + 2);
+	}
+	
+	/**
+	 * Adds the rate to its day's and week's aggregates.  A day older than the retention window is ignored.
+	 * 
+	 * @param epochDay
+	 * @param rate
+	 * @return true if added
+	 */
+	boolean add(int epochDay, float rate) {
+		long stamp = lock.writeLock();
+		try {
+			if (newestDay != EMPTY && epochDay <= newestDay - days) {
+				return false;
+			}
+			newestDay = newestDay == EMPTY ? epochDay : Math.max(newestDay, epochDay);
+			daily.add(Math.floorMod(epochDay, days), epochDay, rate);
+			updateWeek(week(epochDay));
+			return true;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * @param today epoch day
+	 * @return true if the history has no day in the retention window up to today
+	 */
+	boolean isEmpty(long today) {
+		long stamp = lock.readLock();
+		try {
+			return newestDay == EMPTY || newestDay <= today - days;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * @param days days in the retention window
+	 * @return approximate heap size of a history in bytes
+	 */
+	static long estimateSize(int days) {
+		// history, lock and two sets of 7 column arrays, then 32 bytes per day and per week
+		return 400 + 32L * (days + days / 7 + 2);
+	}
+	
+	/**
+	 * @param start first day
+	 * @param end last day
+	 * @return the close of each day in the range with a rate, oldest first
+	 */
+	List<ExchangeRate> closes(LocalDate start, LocalDate end) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			List<ExchangeRate> exchangeRates = readCloses(start, end);
+			if (lock.validate(stamp)) {
+				return exchangeRates;
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return readCloses(start, end);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * @param start first day
+	 * @param end last day
+	 * @param weeks true for the aggregates of the weeks the range falls in, false for its days
+	 * @return the aggregates in the range, oldest first
+	 */
+	List<RateAggregate> aggregates(LocalDate start, LocalDate end, boolean weeks) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			List<RateAggregate> aggregates = readAggregates(start, end, weeks);
+			if (lock.validate(stamp)) {
+				return aggregates;
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return readAggregates(start, end, weeks);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	private List<ExchangeRate> readCloses(LocalDate start, LocalDate end) {
+		int newestDay = this.newestDay;
+		if (newestDay == EMPTY) {
+			return new ArrayList<>(0);
+		}
+		int first = (int) Math.max(start.toEpochDay(), newestDay - days + 1);
+		int last = (int) Math.min(end.toEpochDay(), newestDay);
+		List<ExchangeRate> exchangeRates = new ArrayList<>(Math.max(0, last - first + 1));
+		for (int epochDay = first; epochDay <= last; epochDay++) {
+			int slot = Math.floorMod(epochDay, days);
+			if (daily.key[slot] == epochDay) {
+				exchangeRates.add(new ExchangeRate(CurrencyPair.fromCode(pair), CurrencyPair.toCode(pair), daily.close[slot],
+						LocalDate.ofEpochDay(epochDay).toString()));
+			}
+		}
+		return exchangeRates;
+	}
+	
+	private List<RateAggregate> readAggregates(LocalDate start, LocalDate end, boolean weeks) {
+		int newestDay = this.newestDay;
+		if (newestDay == EMPTY) {
+			return new ArrayList<>(0);
+		}
+		int first = (int) Math.max(start.toEpochDay(), newestDay - days + 1);
+		int last = (int) Math.min(end.toEpochDay(), newestDay);
+		List<RateAggregate> aggregates = new ArrayList<>();
+		Aggregates columns = weeks ? weekly : daily;
+		int from = weeks ? week(first) : first;
+		int to = weeks ? week(last) : last;
+		int length = weeks ? 7 : 1;
+		for (int key = from; key <= to; key++) {
+			int slot = Math.floorMod(key, columns.key.length);
+			if (columns.key[slot] == key) {
+				int startDay = weeks ? key * 7 - 3 : key;
+				aggregates.add(columns.toAggregate(slot, CurrencyPair.fromCode(pair), CurrencyPair.toCode(pair),
+						LocalDate.ofEpochDay(startDay), LocalDate.ofEpochDay(startDay + length - 1)));
+			}
+		}
+		return aggregates;
+	}
+	
+	private void updateWeek(int week) {
+		int slot = Math.floorMod(week, weekly.key.length);
+		weekly.clear(slot, week);
+		int monday = week * 7 - 3;
+		for (int epochDay = monday; epochDay < monday + 7; epochDay++) {
+			int daySlot = Math.floorMod(epochDay, days);
+			if (daily.key[daySlot] == epochDay && epochDay > newestDay - days) {
+				weekly.merge(slot, daily, daySlot);
+			}
+		}
+	}
+	
+	/**
+	 * @return the week of the epoch day, counting weeks from the Monday before the epoch (epoch day -3)
+	 */
+	private static int week(int epochDay) {
+		return Math.floorDiv(epochDay + 3, 7);
+	}
+	
+	/**
+	 * Open/high/low/close columns, with the sum and count of the rates for the average.
+	 */
+	private static class Aggregates {
+		
+		final int[] key;
+		final float[] open;
+		final float[] high;
+		final float[] low;
+		final float[] close;
+		final double[] sum;
+		final int[] count;
+		
+		Aggregates(int capacity) {
+			key = new int[capacity];
+			open = new float[capacity];
+			high = new float[capacity];
+			low = new float[capacity];
+			close = new float[capacity];
+			sum = new double[capacity];
+			count = new int[capacity];
+			Arrays.fill(key, EMPTY);
+		}
+		
+		void add(int slot, int key, float rate) {
+			if (this.key[slot] != key) {
+				clear(slot, key);
+			}
+			if (count[slot] == 0) {
+				open[slot] = rate;
+				high[slot] = rate;
+				low[slot] = rate;
+			} else {
+				high[slot] = Math.max(high[slot], rate);
+				low[slot] = Math.min(low[slot], rate);
+			}
+			close[slot] = rate;
+			sum[slot] += rate;
+			count[slot]++;
+		}
+		
+		/**
+		 * Adds another aggregate that follows this one.
+		 */
+		void merge(int slot, Aggregates other, int otherSlot) {
+			if (count[slot] == 0) {
+				open[slot] = other.open[otherSlot];
+				high[slot] = other.high[otherSlot];
+				low[slot] = other.low[otherSlot];
+			} else {
+				high[slot] = Math.max(high[slot], other.high[otherSlot]);
+				low[slot] = Math.min(low[slot], other.low[otherSlot]);
+			}
+			close[slot] = other.close[otherSlot];
+			sum[slot] += other.sum[otherSlot];
+			count[slot] += other.count[otherSlot];
+		}
+		
+		void clear(int slot, int key) {
+			this.key[slot] = key;
+			sum[slot] = 0;
+			count[slot] = 0;
+		}
+		
+		RateAggregate toAggregate(int slot, String from, String to, LocalDate start, LocalDate end) {
+			return new RateAggregate(from, to, start.toString(), end.toString(), open[slot], high[slot], low[slot],
+					close[slot], (float) (sum[slot] / count[slot]), count[slot]);
+		}
+	}
+}
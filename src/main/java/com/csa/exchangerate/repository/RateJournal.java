@@ -0,0 +1,443 @@
+package com.csa.exchangerate.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Append-only journal of saved exchange rates, used to rebuild the in memory repository on restart.
+ * 
+ * The journal is a memory-mapped file of fixed size records:
+ * 
+ *    pair id (int) | epoch day (int) | rate (float) | saved at millis (long) | checksum (int)
+ * 
+ * Appending is a 24 byte write into the mapped file, which survives a process crash as soon as it's made.
+ * A background flusher forces the file to disk every flush interval when anything was appended (group
+ * commit), so a power failure loses at most one interval.  The checksum lets replay skip a record that
+ * was only partly written.
+ * 
+ * When the file is three quarters full a background compactor rewrites the records appended so far into a
+ * new file, dropping the expired ones, while appends carry on into the current file.  The journal is what 
+ * the history's daily and weekly aggregates are rebuilt from, so every record for a day still in the 
+ * history retention is kept; for an older day only its last record is kept, which is all the rates need.  Once it's done the records appended in the meantime are copied after the compacted
+ * ones and the new file replaces the current one, sized to at least twice the records it holds.  If the
+ * file fills up before compaction is done it's mapped again twice as large, so an append never waits for
+ * compaction unless the file is already at the largest size that can be mapped ({@link #MAX_CAPACITY}).
+ * 
+ * @author Brian A Zied
+ *
+ */
+@Component
+@ConditionalOnProperty(prefix = "exchangerate.journal", name = "enabled", havingValue = "true")
+public class RateJournal implements AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RateJournal.class);
+	
+	private static final int MAGIC = 0x45585231;  // EXR1
+	private static final int HEADER_SIZE = 16;    // magic | record count at last flush | reserved
+	private static final int RECORD_SIZE = 24;
+	
+	/**
+	 * Most records a journal holds, a mapping can't be larger than 2GB.
+	 */
+	public static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+	
+	private final Path path;
+	private final int minCapacity;
+	private final long ttlMillis;
+	private final int historyDays;
+	private final ScheduledExecutorService flusher;
+	private final ExecutorService compactor;
+	
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int capacity;
+	private int count;
+	private int flushedCount;
+	private boolean compacting;
+	
+	public RateJournal(
+			@Value("${exchangerate.journal.path:exchange-rates.journal}") String path,
+			@Value("${exchangerate.journal.capacity:1048576}") int capacity,
+			@Value("${exchangerate.journal.flush-interval:10ms}") Duration flushInterval,
+			@Value("${exchangerate.journal.ttl:3d}") Duration ttl,
+			@Value("${exchangerate.history.retention:400d}") Duration historyRetention) throws IOException {
+		if (capacity < 4 || capacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException("Journal capacity must be 4 to " + MAX_CAPACITY + ": " + capacity);
+		}
+		this.path = Paths.get(path);
+		this.minCapacity = capacity;
+		this.ttlMillis = ttl.toMillis();
+		this.historyDays = (int) historyRetention.toDays();
+		long existing = Files.exists(this.path) ? (Files.size(this.path) - HEADER_SIZE) / RECORD_SIZE : 0;
+		this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		map((int) Math.min(MAX_CAPACITY, Math.max(capacity, existing)));
+		if (buffer.getInt(0) != MAGIC) {
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, 0);
+		}
+		this.count = countRecords();
+		this.flushedCount = count;
+		
+		this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "journal-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = Math.max(1, flushInterval.toMillis());
+		this.flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+		this.compactor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "journal-compactor");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/**
+	 * Appends a saved exchange rate to the journal.
+	 * 
+	 * @param pair
+	 * @param epochDay
+	 * @param rate
+	 * @param savedAt time in milliseconds the rate was saved
+	 */
+	public synchronized void append(int pair, int epochDay, float rate, long savedAt) {
+		if (count == capacity) {
+			makeRoom();
+		}
+		int offset = offset(count);
+		buffer.putInt(offset, pair);
+		buffer.putInt(offset + 4, epochDay);
+		buffer.putFloat(offset + 8, rate);
+		buffer.putLong(offset + 12, savedAt);
+		buffer.putInt(offset + 20, checksum(pair, epochDay, rate, savedAt));
+		count++;
+		if (!compacting && count >= capacity - capacity / 4 && !compactor.isShutdown()) {
+			compacting = true;
+			int end = count;
+			ByteBuffer records = buffer.duplicate();
+			compactor.execute(() -> compact(records, end));
+		}
+	}
+	
+	/**
+	 * Replays every journaled exchange rate that hasn't expired, oldest first.
+	 * 
+	 * @param consumer
+	 */
+	public synchronized void replay(RecordConsumer consumer) {
+		long oldest = System.currentTimeMillis() - ttlMillis;
+		for (int i = 0; i < count; i++) {
+			int offset = offset(i);
+			int pair = buffer.getInt(offset);
+			int epochDay = buffer.getInt(offset + 4);
+			float rate = buffer.getFloat(offset + 8);
+			long savedAt = buffer.getLong(offset + 12);
+			if (buffer.getInt(offset + 20) == checksum(pair, epochDay, rate, savedAt) && savedAt > oldest) {
+				consumer.accept(pair, epochDay, rate, savedAt);
+			}
+		}
+	}
+	
+	/**
+	 * @return number of records in the journal
+	 */
+	public synchronized int size() {
+		return count;
+	}
+	
+	/**
+	 * @return number of records the journal can hold before it's compacted or grown
+	 */
+	public synchronized int capacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Forces appended records to disk.  The file is forced outside the lock, appends carry on meanwhile
+	 * (they're made under the pair's write lock, so they mustn't wait for the disk).
+	 */
+	public void flush() {
+		FileChannel flushedChannel;
+		MappedByteBuffer flushedBuffer;
+		int flushing;
+		synchronized (this) {
+			if (flushedCount == count) {
+				return;
+			}
+			flushedChannel = channel;
+			flushedBuffer = buffer;
+			flushing = count;
+			flushedBuffer.putInt(4, flushing);
+		}
+		flushedBuffer.force();
+		synchronized (this) {
+			// unless compaction swapped the file meanwhile, it was forced before swapping
+			if (channel == flushedChannel) {
+				flushedCount = Math.max(flushedCount, flushing);
+			}
+		}
+	}
+	
+	/**
+	 * Waits for a compaction in progress, then flushes and closes the journal.
+	 */
+	@PreDestroy
+	@Override
+	public void close() throws IOException {
+		compactor.shutdown();
+		try {
+			compactor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			flusher.shutdownNow();
+			flush();
+			channel.close();
+		}
+	}
+	
+	private void map(int capacity) throws IOException {
+		this.capacity = capacity;
+		this.buffer = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+	}
+	
+	/**
+	 * Grows the full file while it's being compacted, or waits for the compaction if it can't grow.
+	 */
+	private void makeRoom() {
+		try {
+			while (count == capacity) {
+				if (capacity < MAX_CAPACITY) {
+					map((int) Math.min(MAX_CAPACITY, capacity * 2L));
+				} else if (compacting) {
+					wait();
+				} else {
+					throw new IllegalStateException("Journal " + path + " is full with " + count + " live records");
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to grow journal " + path, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for journal " + path + " to be compacted", e);
+		}
+	}
+	
+	/**
+	 * Counts the records, which is the flushed count plus any records written after the last flush.  An
+	 * empty (all zero) record marks the end.
+	 */
+	private int countRecords() {
+		int records = Math.min(buffer.getInt(4), capacity);
+		while (records < capacity && !isEmpty(offset(records))) {
+			records++;
+		}
+		return records;
+	}
+	
+	private boolean isEmpty(int offset) {
+		return buffer.getLong(offset) == 0 && buffer.getLong(offset + 8) == 0 && buffer.getLong(offset + 16) == 0;
+	}
+	
+	/**
+	 * Rewrites the live records before the end into a new file, only the last for each pair and day older 
+	 * than the history retention, then swaps it in with the records appended since.  Runs on the compactor thread; the records
+	 * before the end are never written again, so they're read without the lock.
+	 */
+	private void compact(ByteBuffer records, int end) {
+		Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+		try {
+			long oldest = System.currentTimeMillis() - ttlMillis;
+			long historyStart = LocalDate.now().toEpochDay() - historyDays;
+			LastRecords last = new LastRecords(end);
+			boolean[] keep = new boolean[end];
+			for (int i = 0; i < end; i++) {
+				int offset = offset(i);
+				int pair = records.getInt(offset);
+				int epochDay = records.getInt(offset + 4);
+				float rate = records.getFloat(offset + 8);
+				long savedAt = records.getLong(offset + 12);
+				if (records.getInt(offset + 20) == checksum(pair, epochDay, rate, savedAt) && savedAt > oldest) {
+					if (epochDay > historyStart) {
+						// every rate for the day counts in its history aggregates
+						keep[i] = true;
+						continue;
+					}
+					int previous = last.put(((long) pair << 32) | (epochDay & 0xFFFFFFFFL), i);
+					if (previous >= 0) {
+						keep[previous] = false;
+					}
+					keep[i] = true;
+				}
+			}
+			int live = 0;
+			for (int i = 0; i < end; i++) {
+				live += keep[i] ? 1 : 0;
+			}
+			
+			Files.deleteIfExists(compacted);
+			FileChannel compactedChannel = FileChannel.open(compacted, 
+					StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				int compactedCapacity = capacityFor(live);
+				MappedByteBuffer compactedBuffer = compactedChannel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) compactedCapacity * RECORD_SIZE);
+				compactedBuffer.putInt(0, MAGIC);
+				compactedBuffer.putInt(4, live);
+				int written = 0;
+				for (int i = 0; i < end; i++) {
+					if (keep[i]) {
+						copy(records, i, compactedBuffer, written++);
+					}
+				}
+				compactedBuffer.force();
+				swap(compactedChannel, compactedBuffer, compactedCapacity, live, end);
+			} catch (IOException | RuntimeException e) {
+				compactedChannel.close();
+				throw e;
+			}
+		} catch (IOException | RuntimeException e) {
+			LOG.error("Unable to compact journal {}", path, e);
+			try {
+				Files.deleteIfExists(compacted);
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			synchronized (this) {
+				compacting = false;
+				notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Copies the records appended during compaction after the compacted ones, then replaces the journal with
+	 * the compacted file.
+	 */
+	private synchronized void swap(FileChannel compactedChannel, MappedByteBuffer compactedBuffer, int compactedCapacity, 
+			int live, int end) throws IOException {
+		int total = live + count - end;
+		if (total > compactedCapacity - compactedCapacity / 4) {
+			compactedCapacity = capacityFor(total);
+			compactedBuffer = compactedChannel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) compactedCapacity * RECORD_SIZE);
+		}
+		for (int i = end; i < count; i++) {
+			copy(buffer, i, compactedBuffer, live + i - end);
+		}
+		Files.move(path.resolveSibling(path.getFileName() + ".compact"), path, 
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel.close();
+		channel = compactedChannel;
+		buffer = compactedBuffer;
+		capacity = compactedCapacity;
+		count = total;
+		flushedCount = live;
+		compacting = false;
+		notifyAll();
+	}
+	
+	/**
+	 * @return capacity for a journal holding the records, at least twice as many so it isn't compacted again
+	 *         straight away
+	 */
+	private int capacityFor(int records) {
+		return (int) Math.min(MAX_CAPACITY, Math.max(minCapacity, records * 2L));
+	}
+	
+	private static void copy(ByteBuffer from, int fromRecord, ByteBuffer to, int toRecord) {
+		int fromOffset = offset(fromRecord);
+		int toOffset = offset(toRecord);
+		to.putLong(toOffset, from.getLong(fromOffset));
+		to.putLong(toOffset + 8, from.getLong(fromOffset + 8));
+		to.putLong(toOffset + 16, from.getLong(fromOffset + 16));
+	}
+	
+	/**
+	 * @return byte offset of the record, which fits in an int for every record up to {@link #MAX_CAPACITY}
+	 */
+	private static int offset(int record) {
+		return (int) (HEADER_SIZE + (long) record * RECORD_SIZE);
+	}
+	
+	/**
+	 * Murmur3 finalizer over the record fields, seeded so an all zero record doesn't match.
+	 */
+	private static int checksum(int pair, int epochDay, float rate, long savedAt) {
+		int hash = MAGIC;
+		hash = mix(hash ^ pair);
+		hash = mix(hash ^ epochDay);
+		hash = mix(hash ^ Float.floatToRawIntBits(rate));
+		hash = mix(hash ^ (int) savedAt);
+		return mix(hash ^ (int) (savedAt >>> 32));
+	}
+	
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		return hash ^ (hash >>> 16);
+	}
+	
+	/**
+	 * Open addressing map of pair and day keys to the index of their last record, without boxing.
+	 */
+	private static class LastRecords {
+		
+		private final long[] keys;
+		private final int[] records;
+		private final int mask;
+		
+		LastRecords(int expected) {
+			int size = Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1;
+			keys = new long[size];
+			records = new int[size];
+			mask = size - 1;
+			Arrays.fill(records, -1);
+		}
+		
+		/**
+		 * @return the previous record for the key, or -1
+		 */
+		int put(long key, int record) {
+			long hash = key * 0x9E3779B97F4A7C15L;
+			int slot = (int) (hash ^ (hash >>> 32)) & mask;
+			while (records[slot] >= 0 && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			int previous = records[slot];
+			keys[slot] = key;
+			records[slot] = record;
+			return previous;
+		}
+	}
+	
+	public interface RecordConsumer {
+		public void accept(int pair, int epochDay, float rate, long savedAt);
+	}
+}
@@ -0,0 +1,128 @@
+package com.csa.exchangerate.repository;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.csa.exchangerate.repository.RateJournal.RecordConsumer;
+
+/**
+ * Ordered log of the exchange rates saved on a primary, which read replicas follow (see the replication
+ * package).
+ * 
+ * Each saved rate gets the next offset, appended under its from->to key's lock so the log has the same
+ * order per pair as the repository.  Records are held in a ring of primitives:
+ * 
+ *    pair id (int) | epoch day (int) | rate (float) | saved at millis (long)
+ * 
+ * so a replica can catch up from any offset still in the ring.  Older offsets have been overwritten, a
+ * replica further behind than that needs a snapshot instead.  Every log has a random generation, so a
+ * replica can tell a restarted primary (whose offsets start again from 0) from the one it was following.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@Component
+@ConditionalOnProperty(prefix = "exchangerate.replication", name = "role", havingValue = "primary")
+public class ReplicationLog {
+	
+	private final long generation;
+	private final int mask;
+	private final int[] pairs;
+	private final int[] epochDays;
+	private final float[] rates;
+	private final long[] savedAts;
+	private long head;  // next offset, guarded by this
+	
+	private volatile Runnable listener;
+	
+	/**
+	 * @param capacity records kept, rounded up to a power of 2
+	 */
+	public ReplicationLog(@Value("${exchangerate.replication.log-capacity:262144}") int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.mask = size - 1;
+		this.pairs = new int[size];
+		this.epochDays = new int[size];
+		this.rates = new float[size];
+		this.savedAts = new long[size];
+		long generation;
+		do {
+			generation = ThreadLocalRandom.current().nextLong();
+		} while (generation == 0);
+		this.generation = generation;
+	}
+	
+	/**
+	 * Appends a saved exchange rate to the log.
+	 * 
+	 * @param pair
+	 * @param epochDay
+	 * @param rate
+	 * @param savedAt time in milliseconds the rate was saved
+	 */
+	public void append(int pair, int epochDay, float rate, long savedAt) {
+		synchronized (this) {
+			int slot = (int) head & mask;
+			pairs[slot] = pair;
+			epochDays[slot] = epochDay;
+			rates[slot] = rate;
+			savedAts[slot] = savedAt;
+			head++;
+		}
+		Runnable listener = this.listener;
+		if (listener != null) {
+			listener.run();
+		}
+	}
+	
+	/**
+	 * Reads records in offset order.
+	 * 
+	 * @param offset first offset to read
+	 * @param max most records to read
+	 * @param consumer
+	 * @return the offset after the last record read, or -1 if the offset has been overwritten
+	 */
+	public synchronized long read(long offset, int max, RecordConsumer consumer) {
+		if (offset < getTail() || offset > head) {
+			return -1;
+		}
+		long end = Math.min(head, offset + max);
+		for (long i = offset; i < end; i++) {
+			int slot = (int) i & mask;
+			consumer.accept(pairs[slot], epochDays[slot], rates[slot], savedAts[slot]);
+		}
+		return end;
+	}
+	
+	/**
+	 * @return random id of this log, never 0
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * @return offset the next record will get
+	 */
+	public synchronized long getHead() {
+		return head;
+	}
+	
+	/**
+	 * @return oldest offset still in the log
+	 */
+	public synchronized long getTail() {
+		return Math.max(0, head - pairs.length);
+	}
+	
+	/**
+	 * @param listener called after every append, on the appending thread, so it must be quick
+	 */
+	public void setListener(Runnable listener) {
+		this.listener = listener;
+	}
+}
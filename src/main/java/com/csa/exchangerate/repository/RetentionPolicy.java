@@ -0,0 +1,91 @@
+package com.csa.exchangerate.repository;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import com.csa.exchangerate.util.CurrencyCodes;
+import com.csa.exchangerate.util.CurrencyPair;
+
+/**
+ * How long the exchange rates of each from->to pair are kept after they're saved.
+ * 
+ * Every pair has the default retention unless it's overridden, either for the pair itself or for a
+ * currency, which covers every pair from or to that currency (for example to keep the rates of a currency
+ * class such as the majors longer).  Overrides are written as a comma separated list:
+ * 
+ *    USD-EUR=7d,GBP/JPY=5d,CHF=10d
+ * 
+ * An override for the pair wins over one for its currencies, and the longer of its two currencies'
+ * overrides wins over the default.
+ * 
+ * @author Brian A Zied
+ *
+ */
+class RetentionPolicy {
+	
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+	
+	private final long defaultMillis;
+	private final long[] currencyMillis = new long[CurrencyCodes.count()];  // 0 when not overridden
+	private final Map<Integer, Long> pairMillis = new HashMap<>();
+	
+	/**
+	 * @param defaultRetention retention of pairs that aren't overridden
+	 * @param overrides comma separated pair or currency code=retention, may be empty
+	 * @throws IllegalArgumentException if an override isn't a valid pair or code and duration
+	 */
+	RetentionPolicy(Duration defaultRetention, String overrides) {
+		this.defaultMillis = checkRetention(defaultRetention);
+		for (String override : overrides.split(",")) {
+			if (override.trim().isEmpty()) {
+				continue;
+			}
+			int separator = override.indexOf('=');
+			if (separator < 0) {
+				throw new IllegalArgumentException("Invalid retention override: " + override);
+			}
+			String key = override.substring(0, separator).trim();
+			long millis = checkRetention(DurationStyle.detectAndParse(override.substring(separator + 1).trim()));
+			if (key.length() == 3 && CurrencyCodes.indexOf(key) != CurrencyCodes.INVALID) {
+				currencyMillis[CurrencyCodes.indexOf(key)] = millis;
+			} else if (CurrencyPair.isIso(CurrencyPair.parse(key))) {
+				pairMillis.put(CurrencyPair.parse(key), millis);
+			} else {
+				throw new IllegalArgumentException("Invalid retention override: " + override);
+			}
+		}
+	}
+	
+	/**
+	 * @param pair
+	 * @return time the pair's rates live after they're saved, in milliseconds
+	 */
+	long millis(int pair) {
+		Long millis = pairMillis.get(pair);
+		if (millis != null) {
+			return millis;
+		}
+		long currency = Math.max(currencyMillis[CurrencyCodes.index(CurrencyPair.from(pair))],
+				currencyMillis[CurrencyCodes.index(CurrencyPair.to(pair))]);
+		return currency > 0 ? currency : defaultMillis;
+	}
+	
+	/**
+	 * @param pair
+	 * @return days the pair's rates can span, the retention rounded up to whole days
+	 */
+	int days(int pair) {
+		return (int) ((millis(pair) + DAY_MILLIS - 1) / DAY_MILLIS);
+	}
+	
+	private static long checkRetention(Duration retention) {
+		if (retention.isNegative() || retention.isZero()) {
+			throw new IllegalArgumentException("Retention must be positive: " + retention);
+		}
+		return retention.toMillis();
+	}
+}
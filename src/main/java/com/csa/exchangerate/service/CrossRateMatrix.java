@@ -0,0 +1,389 @@
+package com.csa.exchangerate.service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.util.CurrencyCodes;
+import com.csa.exchangerate.util.CurrencyPair;
+
+/**
+ * Matrix of the latest exchange rate between every pair of currencies, derived from the latest direct
+ * rates.
+ * 
+ * Every direct rate from->to is an edge of a currency graph, and so is its reciprocal to->from (unless
+ * to->from has a direct rate of its own).  Each from->to cell holds the rate along the path with the fewest
+ * hops, e.g. CHF->JPY = CHF->USD * USD->JPY, and is reported on the oldest date along the path.  An edge is
+ * only used while its rate is no older than the max age (by the time the rate was saved), once it's older
+ * the paths are rebuilt without it, so the cross rates through it are rerouted where another path exists.
+ * 
+ * Cells are indexed by the dense currency code indexes (from index * code count + to index).  Paths only
+ * change when a pair is quoted for the first time or an edge expires; then the paths are rebuilt with a
+ * breadth first search from every quoted currency, and each edge gets the list of derived cells whose path
+ * uses it.  Any other update only recomputes the updated edge's derived cells in hop order (each cell is
+ * the product of a shorter cell and an edge), so a write holds the lock for as long as its own cross rates
+ * take, and a read is a plain array lookup.  A rate saved before the one the edge already has, or the same
+ * latest rate again (when an older day was saved), changes nothing.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@Component
+public class CrossRateMatrix {
+	
+	private static final int DIRECT = -1;
+	private static final int NEW_EDGE = -2;
+	
+	private final int codes = CurrencyCodes.count();
+	private final long maxAgeMillis;
+	
+	// latest direct rates, savedAt of 0 means no rate
+	private final float[] directRate = new float[codes * codes];
+	private final int[] directDay = new int[codes * codes];
+	private final long[] directSavedAt = new long[codes * codes];
+	
+	// shortest paths over the edges that haven't expired, hops of 0 means no path
+	private final byte[] hops = new byte[codes * codes];
+	private final short[] via = new short[codes * codes];
+	private int[] derivedCells = new int[0];  // cells with 2 or more hops, fewest hops first
+	private final int[][] dependents = new int[codes * codes][];  // derived cells using each edge, fewest hops first
+	private volatile long nextExpiry = Long.MAX_VALUE;  // when the oldest edge in the paths passes the max age
+	
+	// rates along the shortest paths, savedAt is the oldest along the path
+	private final float[] rate = new float[codes * codes];
+	private final int[] day = new int[codes * codes];
+	private final long[] savedAt = new long[codes * codes];
+	
+	private final boolean[] quoted = new boolean[codes];
+	private int[] quotedCodes = new int[0];
+	
+	private final StampedLock lock = new StampedLock();
+	
+	public CrossRateMatrix(@Value("${exchangerate.cross-rates.max-age:3d}") Duration maxAge) {
+		this.maxAgeMillis = maxAge.toMillis();
+	}
+	
+	/**
+	 * Updates the latest direct rate for a pair and every cross rate derived from it.
+	 * 
+	 * @param pair
+	 * @param exchangeRate latest direct rate of the pair, with the time it was saved (now if not set)
+	 */
+	public void update(int pair, ExchangeRate exchangeRate) {
+		long now = System.currentTimeMillis();
+		long stamp = lock.writeLock();
+		try {
+			int cell = setDirect(pair, exchangeRate, now);
+			if (cell == NEW_EDGE || now >= nextExpiry) {
+				rebuildPaths(now);
+			} else if (cell >= 0) {
+				updateEdges(cell, now);
+				updateDependents(cell);
+				updateDependents(reverse(cell));
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Updates the latest direct rates for several pairs, recomputing each derived cell once at most.
+	 * 
+	 * @param pairs
+	 * @param exchangeRates latest direct rate of each pair (null if it has none)
+	 */
+	public void updateAll(int[] pairs, List<ExchangeRate> exchangeRates) {
+		long now = System.currentTimeMillis();
+		long stamp = lock.writeLock();
+		try {
+			boolean newEdge = false;
+			int[] cells = new int[pairs.length];
+			int count = 0;
+			int dependentCount = 0;
+			for (int i = 0; i < pairs.length; i++) {
+				if (exchangeRates.get(i) != null) {
+					int cell = setDirect(pairs[i], exchangeRates.get(i), now);
+					if (cell == NEW_EDGE) {
+						newEdge = true;
+					} else if (cell >= 0) {
+						cells[count++] = cell;
+						dependentCount += dependentCount(cell) + dependentCount(reverse(cell));
+					}
+				}
+			}
+			if (newEdge || now >= nextExpiry) {
+				rebuildPaths(now);
+				return;
+			}
+			for (int i = 0; i < count; i++) {
+				updateEdges(cells[i], now);
+			}
+			if (dependentCount >= derivedCells.length) {
+				// cheaper to recompute every derived cell once than the edges' dependents one edge at a time
+				for (int cell : derivedCells) {
+					updateDerived(cell);
+				}
+			} else {
+				for (int i = 0; i < count; i++) {
+					updateDependents(cells[i]);
+					updateDependents(reverse(cells[i]));
+				}
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * @param pair
+	 * @return the cross rate for the pair, or null if there is no path or it's older than the max age
+	 */
+	public ExchangeRate find(int pair) {
+		int from = CurrencyCodes.index(CurrencyPair.from(pair));
+		int to = CurrencyCodes.index(CurrencyPair.to(pair));
+		if (from == CurrencyCodes.INVALID || to == CurrencyCodes.INVALID || from == to) {
+			return null;
+		}
+		int cell = from * codes + to;
+		long now = System.currentTimeMillis();
+		if (now >= nextExpiry) {
+			expire(now);
+		}
+		
+		long stamp = lock.tryOptimisticRead();
+		byte cellHops = hops[cell];
+		float cellRate = rate[cell];
+		int cellDay = day[cell];
+		long cellSavedAt = savedAt[cell];
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				cellHops = hops[cell];
+				cellRate = rate[cell];
+				cellDay = day[cell];
+				cellSavedAt = savedAt[cell];
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		
+		if (cellHops == 0 || now - cellSavedAt > maxAgeMillis) {
+			return null;
+		}
+		return new ExchangeRate(CurrencyCodes.code(from), CurrencyCodes.code(to), cellRate, LocalDate.ofEpochDay(cellDay).toString());
+	}
+	
+	/**
+	 * Sets the direct rate of a pair.
+	 * 
+	 * @return the pair's cell, {@link #NEW_EDGE} if the pair isn't an edge of the paths yet, or -1 if the
+	 *         rate was ignored or is the one the pair already has
+	 */
+	private int setDirect(int pair, ExchangeRate exchangeRate, long now) {
+		int from = CurrencyCodes.index(CurrencyPair.from(pair));
+		int to = CurrencyCodes.index(CurrencyPair.to(pair));
+		if (from == CurrencyCodes.INVALID || to == CurrencyCodes.INVALID || from == to || !(exchangeRate.getRate() > 0)) {
+			return -1;
+		}
+		int cell = from * codes + to;
+		long rateSavedAt = exchangeRate.getSavedAt() != 0 ? exchangeRate.getSavedAt() : now;
+		int rateDay = (int) exchangeRate.getEpochDay();
+		if (rateSavedAt < directSavedAt[cell] || (rateSavedAt == directSavedAt[cell]
+				&& exchangeRate.getRate() == directRate[cell] && rateDay == directDay[cell])) {
+			return -1;
+		}
+		directRate[cell] = exchangeRate.getRate();
+		directDay[cell] = rateDay;
+		directSavedAt[cell] = rateSavedAt;
+		if (hops[cell] != 1) {
+			quote(from);
+			quote(to);
+			return NEW_EDGE;
+		}
+		return cell;
+	}
+	
+	private void quote(int code) {
+		if (!quoted[code]) {
+			quoted[code] = true;
+			quotedCodes = Arrays.copyOf(quotedCodes, quotedCodes.length + 1);
+			quotedCodes[quotedCodes.length - 1] = code;
+		}
+	}
+	
+	private void expire(long now) {
+		long stamp = lock.writeLock();
+		try {
+			if (now >= nextExpiry) {
+				rebuildPaths(now);
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Rebuilds the shortest paths between all quoted currencies over the edges that haven't expired, and
+	 * each edge's derived cells, then recomputes every cell.
+	 */
+	private void rebuildPaths(long now) {
+		int[] distance = new int[codes];
+		int[] parent = new int[codes];
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		int[] derived = new int[quotedCodes.length * quotedCodes.length];
+		int derivedCount = 0;
+		long expiry = Long.MAX_VALUE;
+		
+		for (int from : quotedCodes) {
+			Arrays.fill(distance, -1);
+			distance[from] = 0;
+			queue.add(from);
+			while (!queue.isEmpty()) {
+				int current = queue.poll();
+				for (int next : quotedCodes) {
+					if (distance[next] < 0 && isEdge(current, next, now)) {
+						distance[next] = distance[current] + 1;
+						parent[next] = current;
+						queue.add(next);
+					}
+				}
+			}
+			
+			for (int to : quotedCodes) {
+				int cell = from * codes + to;
+				hops[cell] = (byte) Math.max(0, Math.min(distance[to], Byte.MAX_VALUE));
+				via[cell] = (short) (distance[to] > 1 ? parent[to] : DIRECT);
+				if (distance[to] > 1) {
+					derived[derivedCount++] = cell;
+				}
+				if (isLive(cell, now)) {
+					expiry = Math.min(expiry, directSavedAt[cell] + maxAgeMillis + 1);
+				}
+			}
+		}
+		nextExpiry = expiry;
+		
+		// derived cells are computed from shorter ones, so order them by hops (counting sort)
+		int[] start = new int[Byte.MAX_VALUE + 2];
+		for (int i = 0; i < derivedCount; i++) {
+			start[hops[derived[i]] + 1]++;
+		}
+		for (int i = 1; i < start.length; i++) {
+			start[i] += start[i - 1];
+		}
+		derivedCells = new int[derivedCount];
+		for (int i = 0; i < derivedCount; i++) {
+			derivedCells[start[hops[derived[i]]]++] = derived[i];
+		}
+		
+		// list each derived cell under every edge of its path, so the lists are in hop order too
+		int[] path = new int[Byte.MAX_VALUE];
+		int[] dependentCounts = new int[codes * codes];
+		for (int cell : derivedCells) {
+			for (int i = path(cell, path) - 1; i >= 0; i--) {
+				dependentCounts[path[i]]++;
+			}
+		}
+		for (int cell = 0; cell < dependents.length; cell++) {
+			dependents[cell] = dependentCounts[cell] > 0 ? new int[dependentCounts[cell]] : null;
+			dependentCounts[cell] = 0;
+		}
+		for (int cell : derivedCells) {
+			for (int i = path(cell, path) - 1; i >= 0; i--) {
+				dependents[path[i]][dependentCounts[path[i]]++] = cell;
+			}
+		}
+		
+		for (int from : quotedCodes) {
+			for (int to : quotedCodes) {
+				if (hops[from * codes + to] == 1) {
+					updateEdge(from * codes + to, now);
+				}
+			}
+		}
+		for (int cell : derivedCells) {
+			updateDerived(cell);
+		}
+	}
+	
+	/**
+	 * @param cell derived cell
+	 * @param path filled with the one hop cells along the cell's path
+	 * @return number of hops
+	 */
+	private int path(int cell, int[] path) {
+		int from = cell / codes;
+		int current = cell % codes;
+		int length = 0;
+		while (hops[from * codes + current] > 1) {
+			int previous = via[from * codes + current];
+			path[length++] = previous * codes + current;
+			current = previous;
+		}
+		path[length++] = from * codes + current;
+		return length;
+	}
+	
+	private boolean isEdge(int from, int to, long now) {
+		return from != to && (isLive(from * codes + to, now) || isLive(to * codes + from, now));
+	}
+	
+	private boolean isLive(int cell, long now) {
+		return directSavedAt[cell] != 0 && now - directSavedAt[cell] <= maxAgeMillis;
+	}
+	
+	private int reverse(int cell) {
+		return (cell % codes) * codes + cell / codes;
+	}
+	
+	private int dependentCount(int cell) {
+		return dependents[cell] == null ? 0 : dependents[cell].length;
+	}
+	
+	/**
+	 * Sets both directions of the edge from their direct rates, or the reciprocal of the opposite direct rate.
+	 */
+	private void updateEdges(int cell, long now) {
+		updateEdge(cell, now);
+		updateEdge(reverse(cell), now);
+	}
+	
+	private void updateEdge(int cell, long now) {
+		if (isLive(cell, now)) {
+			rate[cell] = directRate[cell];
+			day[cell] = directDay[cell];
+			savedAt[cell] = directSavedAt[cell];
+		} else {
+			int reverse = reverse(cell);
+			rate[cell] = 1 / directRate[reverse];
+			day[cell] = directDay[reverse];
+			savedAt[cell] = directSavedAt[reverse];
+		}
+	}
+	
+	private void updateDependents(int edge) {
+		int[] cells = dependents[edge];
+		if (cells != null) {
+			for (int cell : cells) {
+				updateDerived(cell);
+			}
+		}
+	}
+	
+	private void updateDerived(int cell) {
+		int from = cell / codes;
+		int to = cell % codes;
+		int first = from * codes + via[cell];
+		int second = via[cell] * codes + to;
+		rate[cell] = rate[first] * rate[second];
+		day[cell] = Math.min(day[first], day[second]);
+		savedAt[cell] = Math.min(savedAt[first], savedAt[second]);
+	}
+}
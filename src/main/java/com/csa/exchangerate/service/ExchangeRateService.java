@@ -1,36 +1,263 @@
 package com.csa.exchangerate.service;
 
 import java.time.LocalDate;
-import java.util.Currency;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
+import com.csa.exchangerate.executor.Deadline;
 import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.model.RateAggregate;
+import com.csa.exchangerate.model.RateInterval;
+import com.csa.exchangerate.replication.ReadOnlyReplicaException;
+import com.csa.exchangerate.replication.ReplicationClient;
 import com.csa.exchangerate.repository.ExchangeRateRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
+/**
+ * The history is cached per pair, and evicted for the pair of every rate saved through this service (after 
+ * it's saved, the cache drops a load that raced with the eviction) and of every pair the repository evicts.
+ * The latest rate and the rate for a date aren't cached here, the repository already keeps their encoded
+ * JSON with the rates.  Cross rates aren't cached: every saved rate can change all of them.  Date range and
+ * aggregate reads aren't cached either, there are too many ranges for any one to be read often.
+ * 
+ * Subscribers to the pairs of saved rates (and to cross rates) are told about them once the caches are
+ * evicted, see {@link RateSubscriptions}.
+ * 
+ * Writes check the current request's {@link Deadline} before they save anything, so a request the caller
+ * has given up on doesn't change the rates; once saved, the cross rates, caches and subscribers are always
+ * brought in line.
+ * 
+ * On a read replica rates are only saved from the primary (see {@link ReplicationClient}), writes are
+ * refused.
+ * 
+ * @author Brian A Zied
+ *
+ */
 @Service
 public class ExchangeRateService {
 
+	public static final String HISTORY_CACHE = "history";
+	
 	@Autowired
 	private ExchangeRateRepository exchangeRateRepository;
 	
+	@Autowired
+	private CrossRateMatrix crossRateMatrix;
+	
+	@Autowired
+	private ObjectMapper objectMapper;
+	
+	@Autowired
+	private CacheManager cacheManager;
+	
+	@Autowired(required = false)
+	private ReplicationClient replicationClient;
+	
+	@Autowired
+	private RateSubscriptions rateSubscriptions;
+	
+	// the repository keeps what this encodes with the rate, so it must be the only encoder it's given
+	private final Function<ExchangeRate, byte[]> jsonEncoder = this::toJson;
+	
+	/**
+	 * Derives the cross rates for any exchange rates the repository already holds (restored from the journal),
+	 * and evicts the cached history of pairs the repository evicts.
+	 */
+	@PostConstruct
+	public void loadCrossRates() {
+		exchangeRateRepository.setRemovalListener(pair -> evict(HISTORY_CACHE, pair));
+		int[] pairs = exchangeRateRepository.findPairs();
+		if (pairs.length > 0) {
+			crossRateMatrix.updateAll(pairs, Arrays.asList(exchangeRateRepository.findLatest(pairs)));
+		}
+	}
+	
+	/**
+	 * @throws ReadOnlyReplicaException if this is a read replica
+	 */
+	public void checkWritable() {
+		if (replicationClient != null) {
+			throw new ReadOnlyReplicaException();
+		}
+	}
+	
 	public ExchangeRate setExchangeRate(ExchangeRate exchangeRate) {
-		return exchangeRateRepository.save(exchangeRate);
+		checkWritable();
+		Deadline.checkCurrent();
+		ExchangeRate saved = exchangeRateRepository.save(exchangeRate);
+		
+		// keep cross rates in line with the latest direct rate (which may not be this one)
+		int pair = exchangeRate.getPair();
+		exchangeRateRepository.findLatest(pair).ifPresent(latest -> crossRateMatrix.update(pair, latest));
+		evict(HISTORY_CACHE, pair);
+		rateSubscriptions.saved(pair);
+		return saved;
+	}
+	
+	/**
+	 * Saves a batch of exchange rates, updating the cross rates and telling subscribers once for the whole
+	 * batch, and evicting each pair's cached history once.
+	 * 
+	 * @param exchangeRates
+	 * @return Exchange rates
+	 */
+	public List<ExchangeRate> setExchangeRates(List<ExchangeRate> exchangeRates) {
+		checkWritable();
+		Deadline.checkCurrent();
+		return save(exchangeRates, exchangeRateRepository.saveAll(exchangeRates));
+	}
+	
+	/**
+	 * Saves a batch of exchange rates replicated from the primary, like {@link #setExchangeRates(List)} but
+	 * as of the time the primary saved each of them.
+	 * 
+	 * @param exchangeRates
+	 * @return Exchange rates
+	 */
+	public List<ExchangeRate> saveReplicated(List<ExchangeRate> exchangeRates) {
+		return save(exchangeRates, exchangeRateRepository.saveReplicated(exchangeRates));
+	}
+	
+	/**
+	 * Brings the cross rates, caches and subscribers in line with a batch the repository has saved.
+	 */
+	private List<ExchangeRate> save(List<ExchangeRate> exchangeRates, List<ExchangeRate> saved) {
+		int[] pairs = exchangeRates.stream().mapToInt(ExchangeRate::getPair).distinct().toArray();
+		List<ExchangeRate> latest = new ArrayList<>(pairs.length);
+		for (int pair : pairs) {
+			latest.add(exchangeRateRepository.findLatest(pair).orElse(null));
+		}
+		crossRateMatrix.updateAll(pairs, latest);
+		for (int pair : pairs) {
+			evict(HISTORY_CACHE, pair);
+		}
+		rateSubscriptions.saved(pairs);
+		return saved;
+	}
+	
+	/**
+	 * Gets the latest direct exchange rate, or when there is none, the latest cross rate derived through
+	 * other currencies.
+	 * 
+	 * @param pair
+	 * @return Exchange rate (if it exists)
+	 */
+	public Optional<ExchangeRate> getLatestExchangeRate(int pair) {
+		Optional<ExchangeRate> exchangeRate = exchangeRateRepository.findLatest(pair);
+		return exchangeRate.isPresent() ? exchangeRate : Optional.ofNullable(crossRateMatrix.find(pair));
+	}
+	
+	/**
+	 * Gets the latest exchange rates of several pairs in one repository pass, falling back to cross rates
+	 * for pairs without a direct rate.
+	 * 
+	 * @param pairs
+	 * @return Exchange rates that exist, in the same order as the pairs
+	 */
+	public List<ExchangeRate> getLatestExchangeRates(int[] pairs) {
+		ExchangeRate[] latest = exchangeRateRepository.findLatest(pairs);
+		List<ExchangeRate> exchangeRates = new ArrayList<>(pairs.length);
+		for (int i = 0; i < pairs.length; i++) {
+			ExchangeRate exchangeRate = latest[i] != null ? latest[i] : crossRateMatrix.find(pairs[i]);
+			if (exchangeRate != null) {
+				exchangeRates.add(exchangeRate);
+			}
+		}
+		return exchangeRates;
+	}
+	
+	/**
+	 * Gets the latest direct exchange rate as a JSON response body, only serialized once for each time it's
+	 * saved.
+	 * 
+	 * @param pair
+	 * @return JSON exchange rate, or null
+	 */
+	public byte[] getLatestExchangeRateJson(int pair) {
+		return exchangeRateRepository.findLatestEncoded(pair, jsonEncoder);
+	}
+	
+	/**
+	 * Gets the latest cross rate derived through other currencies as a JSON response body.
+	 * 
+	 * @param pair
+	 * @return JSON exchange rate, or null
+	 */
+	public byte[] getLatestCrossRateJson(int pair) {
+		ExchangeRate crossRate = crossRateMatrix.find(pair);
+		return crossRate != null ? toJson(crossRate) : null;
+	}
+	
+	/**
+	 * Gets the exchange rate for a date as a JSON response body, serialized once for each time it's saved.
+	 * 
+	 * @param pair
+	 * @param date
+	 * @return JSON exchange rate, or null
+	 */
+	public byte[] getExchangeRateForDateJson(int pair, LocalDate date) {
+		return exchangeRateRepository.findForDateEncoded(pair, date, jsonEncoder);
+	}
+	
+	public Optional<ExchangeRate> getExchangeRateForDate(int pair, LocalDate date) {
+		return exchangeRateRepository.findForDate(pair, date);
+	}
+	
+	@Cacheable(cacheNames = HISTORY_CACHE, sync = true)
+	public List<ExchangeRate> getExchangeRateHistory(int pair) {
+		return exchangeRateRepository.findAll(pair);
+	}
+	
+	/**
+	 * Gets the exchange rates from the start date to the end date, from the repository's long term history.
+	 * 
+	 * @param pair
+	 * @param start
+	 * @param end
+	 * @return Exchange rates (oldest first)
+	 */
+	public List<ExchangeRate> getExchangeRateRange(int pair, LocalDate start, LocalDate end) {
+		return exchangeRateRepository.findRange(pair, start, end);
 	}
 	
-	public Optional<ExchangeRate> getLatestExchangeRate(Currency from, Currency to) {
-		return exchangeRateRepository.findLatest(from, to);
+	/**
+	 * Gets the daily or weekly aggregates of the exchange rates from the start date to the end date.
+	 * 
+	 * @param pair
+	 * @param start
+	 * @param end
+	 * @param interval
+	 * @return Aggregates (oldest first)
+	 */
+	public List<RateAggregate> getExchangeRateAggregates(int pair, LocalDate start, LocalDate end, RateInterval interval) {
+		return exchangeRateRepository.findAggregates(pair, start, end, interval);
 	}
 	
-	public Optional<ExchangeRate> getExchangeRateForDate(Currency from, Currency to, LocalDate date) {
-		return exchangeRateRepository.findForDate(from, to, date);
+	private void evict(String cacheName, Object key) {
+		Cache cache = cacheManager.getCache(cacheName);
+		if (cache != null) {
+			cache.evict(key);
+		}
 	}
 	
-	public List<ExchangeRate> getExchangeRateHistory(Currency from, Currency to) {
-		return exchangeRateRepository.findAll(from, to);
+	private byte[] toJson(ExchangeRate exchangeRate) {
+		try {
+			return objectMapper.writeValueAsBytes(exchangeRate);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException("Unable to serialize exchange rate", e);
+		}
 	}
 	
 }
@@ -0,0 +1,373 @@
+package com.csa.exchangerate.service;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.repository.ExchangeRateRepository;
+import com.csa.exchangerate.util.PairTable;
+
+/**
+ * Subscriptions to the latest exchange rates of a set of currency pairs, sent to the subscriber whenever
+ * a saved rate changes one of them.
+ * 
+ * Rates aren't queued for a subscriber.  A save only marks the subscribed pair as changed and schedules
+ * the subscription on the sender pool, which then reads the latest rate of every changed pair and sends
+ * it.  However many times a pair changes while a slow subscriber is still being sent to, it's only sent
+ * the latest rate once.  A rate the same as the last one sent for the pair isn't sent again.
+ * 
+ * Senders must not block the sender pool.  One that can only send by blocking (a servlet response) is 
+ * subscribed with {@link #subscribeBlocking(int[], RateSender)}, which hands each rate to a writer thread
+ * of its own, one rate at a time per subscription, so a slow subscriber only ever holds up its own writer.
+ * 
+ * A cross rate can change with any saved rate, so subscribed pairs without a direct rate are read again
+ * after every save.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@Component
+public class RateSubscriptions {
+	
+	@Autowired
+	private ExchangeRateRepository exchangeRateRepository;
+	
+	@Autowired
+	private CrossRateMatrix crossRateMatrix;
+	
+	private final PairTable<List<Subscription>> subscribersByPair = new PairTable<>();
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+	private final AtomicInteger subscriptionCount = new AtomicInteger();
+	private final int maxSubscriptions;
+	private final ExecutorService senders;
+	private final ExecutorService writers;
+	private final LongAdder sent = new LongAdder();
+	
+	public RateSubscriptions(
+			@Value("${exchangerate.subscriptions.max:1000}") int maxSubscriptions,
+			@Value("${exchangerate.subscriptions.sender-threads:2}") int senderThreads) {
+		this.maxSubscriptions = maxSubscriptions;
+		AtomicInteger count = new AtomicInteger();
+		this.senders = Executors.newFixedThreadPool(senderThreads, r -> {
+			Thread thread = new Thread(r, "subscription-sender-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		// at most one thread per subscription, each only while it's writing a rate
+		AtomicInteger writerCount = new AtomicInteger();
+		this.writers = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "subscription-writer-" + writerCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/**
+	 * Subscribes to the latest exchange rates of the pairs, starting with the ones they have now.
+	 * 
+	 * @param pairs
+	 * @param sender sends rates to the subscriber without blocking, always on one thread at a time
+	 * @return the subscription
+	 * @throws RejectedExecutionException if there are already as many subscriptions as allowed
+	 */
+	public Subscription subscribe(int[] pairs, RateSender sender) {
+		return add(new Subscription(pairs, sender));
+	}
+	
+	/**
+	 * Subscribes like {@link #subscribe(int[], RateSender)} with a sender that blocks until the subscriber
+	 * has taken the rate.  Rates are sent on a writer thread, and while one is being written the subscription
+	 * holds on to its changes.
+	 * 
+	 * @param pairs
+	 * @param sender sends rates to the subscriber, always on one thread at a time
+	 * @return the subscription
+	 * @throws RejectedExecutionException if there are already as many subscriptions as allowed
+	 */
+	public Subscription subscribeBlocking(int[] pairs, RateSender sender) {
+		HandOff handOff = new HandOff(sender);
+		Subscription subscription = new Subscription(pairs, handOff);
+		handOff.subscription = subscription;
+		return add(subscription);
+	}
+	
+	private Subscription add(Subscription subscription) {
+		if (subscriptionCount.incrementAndGet() > maxSubscriptions) {
+			subscriptionCount.decrementAndGet();
+			throw new RejectedExecutionException("Too many subscriptions");
+		}
+		subscriptions.add(subscription);
+		for (int pair : subscription.pairs) {
+			subscribersByPair.computeIfAbsent(pair, p -> new CopyOnWriteArrayList<>()).add(subscription);
+		}
+		subscription.changedAll();
+		return subscription;
+	}
+	
+	/**
+	 * Lets the subscribers of the pair (and of any cross rate) know a rate for it has been saved.
+	 * 
+	 * @param pair
+	 */
+	public void saved(int pair) {
+		changed(pair);
+		crossRatesChanged();
+	}
+	
+	/**
+	 * Lets the subscribers of the pairs (and of any cross rate) know rates for them have been saved.
+	 * 
+	 * @param pairs
+	 */
+	public void saved(int[] pairs) {
+		for (int pair : pairs) {
+			changed(pair);
+		}
+		crossRatesChanged();
+	}
+	
+	public int getSubscriptionCount() {
+		return subscriptionCount.get();
+	}
+	
+	/**
+	 * @return number of rates sent to subscribers
+	 */
+	public long getSentCount() {
+		return sent.sum();
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		senders.shutdownNow();
+		writers.shutdownNow();
+	}
+	
+	private void changed(int pair) {
+		List<Subscription> subscribers = subscribersByPair.get(pair);
+		if (subscribers != null) {
+			for (Subscription subscription : subscribers) {
+				subscription.changed(pair);
+			}
+		}
+	}
+	
+	private void crossRatesChanged() {
+		for (Subscription subscription : subscriptions) {
+			if (subscription.crossPairs > 0) {
+				subscription.crossRatesChanged();
+			}
+		}
+	}
+	
+	/**
+	 * Sends a rate to a subscriber.
+	 */
+	@FunctionalInterface
+	public interface RateSender {
+		
+		/**
+		 * @param exchangeRate
+		 * @return false if the subscriber can't take the rate yet, it's sent after {@link Subscription#resume()}
+		 * @throws IOException if the subscriber is gone, which cancels the subscription
+		 */
+		boolean send(ExchangeRate exchangeRate) throws IOException;
+	}
+	
+	/**
+	 * Hands rates to a writer thread for a sender that blocks, refusing the next rate until the last one 
+	 * has been written.
+	 */
+	private class HandOff implements RateSender {
+		
+		private final RateSender sender;
+		private final AtomicBoolean writing = new AtomicBoolean();
+		private Subscription subscription;  // set before it's subscribed
+		
+		HandOff(RateSender sender) {
+			this.sender = sender;
+		}
+		
+		@Override
+		public boolean send(ExchangeRate exchangeRate) {
+			if (!writing.compareAndSet(false, true)) {
+				return false;
+			}
+			writers.execute(() -> write(exchangeRate));
+			return true;
+		}
+		
+		private void write(ExchangeRate exchangeRate) {
+			try {
+				sender.send(exchangeRate);
+			} catch (IOException | RuntimeException e) {
+				subscription.cancel();
+				return;
+			} finally {
+				writing.set(false);
+			}
+			subscription.resume();
+		}
+	}
+	
+	/**
+	 * A subscriber's pairs, which of them changed since they were last sent and what was last sent.
+	 * 
+	 * Sends run through a work-in-progress counter, the thread that takes it from 0 schedules a send and the
+	 * send keeps going until it has caught up with every change made while it ran.
+	 */
+	public class Subscription {
+		
+		private final int[] pairs;  // sorted
+		private final RateSender sender;
+		private final AtomicLongArray changed;  // bit per pair
+		private final AtomicBoolean crossRatesChanged = new AtomicBoolean();
+		private final AtomicInteger wip = new AtomicInteger();
+		private volatile boolean cancelled;
+		
+		// only used by the send in progress
+		private final boolean[] cross;
+		private final float[] lastRate;
+		private final String[] lastReportedOn;
+		private volatile int crossPairs;
+		
+		Subscription(int[] pairs, RateSender sender) {
+			this.pairs = Arrays.stream(pairs).sorted().distinct().toArray();
+			this.sender = sender;
+			this.changed = new AtomicLongArray((this.pairs.length + 63) >>> 6);
+			this.cross = new boolean[this.pairs.length];
+			this.lastRate = new float[this.pairs.length];
+			this.lastReportedOn = new String[this.pairs.length];
+		}
+		
+		/**
+		 * Sends whatever changed while the subscriber couldn't take it.
+		 */
+		public void resume() {
+			schedule();
+		}
+		
+		public synchronized void cancel() {
+			if (!cancelled) {
+				cancelled = true;
+				subscriptions.remove(this);
+				for (int pair : pairs) {
+					subscribersByPair.get(pair).remove(this);
+				}
+				subscriptionCount.decrementAndGet();
+			}
+		}
+		
+		public boolean isCancelled() {
+			return cancelled;
+		}
+		
+		void changed(int pair) {
+			int index = Arrays.binarySearch(pairs, pair);
+			if (index >= 0) {
+				mark(index);
+				schedule();
+			}
+		}
+		
+		void changedAll() {
+			for (int index = 0; index < pairs.length; index++) {
+				mark(index);
+			}
+			schedule();
+		}
+		
+		void crossRatesChanged() {
+			crossRatesChanged.set(true);
+			schedule();
+		}
+		
+		private void mark(int index) {
+			changed.getAndAccumulate(index >>> 6, 1L << index, (word, bit) -> word | bit);
+		}
+		
+		private boolean clear(int index) {
+			long bit = 1L << index;
+			return (changed.getAndAccumulate(index >>> 6, ~bit, (word, mask) -> word & mask) & bit) != 0;
+		}
+		
+		private void schedule() {
+			if (!cancelled && wip.getAndIncrement() == 0) {
+				try {
+					senders.execute(this::drain);
+				} catch (RejectedExecutionException e) {
+					// shutting down
+					cancel();
+				}
+			}
+		}
+		
+		private void drain() {
+			int missed = 1;
+			do {
+				if (!cancelled) {
+					sendChanged();
+				}
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+		
+		private void sendChanged() {
+			boolean crossRatesChanged = this.crossRatesChanged.getAndSet(false);
+			for (int index = 0; index < pairs.length; index++) {
+				if (!clear(index) && !(crossRatesChanged && cross[index])) {
+					continue;
+				}
+				ExchangeRate exchangeRate = latest(index);
+				if (exchangeRate == null || isLastSent(index, exchangeRate)) {
+					continue;
+				}
+				try {
+					if (!sender.send(exchangeRate)) {
+						// the subscriber is full, keep this one and any cross rates for the resume
+						mark(index);
+						if (crossRatesChanged) {
+							this.crossRatesChanged.set(true);
+						}
+						return;
+					}
+				} catch (IOException | RuntimeException e) {
+					cancel();
+					return;
+				}
+				sent.increment();
+				lastRate[index] = exchangeRate.getRate();
+				lastReportedOn[index] = exchangeRate.getReportedOn();
+			}
+		}
+		
+		private ExchangeRate latest(int index) {
+			ExchangeRate exchangeRate = exchangeRateRepository.findLatest(pairs[index]).orElse(null);
+			boolean isCross = exchangeRate == null;
+			if (cross[index] != isCross) {
+				cross[index] = isCross;
+				crossPairs += isCross ? 1 : -1;
+			}
+			return isCross ? crossRateMatrix.find(pairs[index]) : exchangeRate;
+		}
+		
+		private boolean isLastSent(int index, ExchangeRate exchangeRate) {
+			return lastRate[index] == exchangeRate.getRate() && exchangeRate.getReportedOn().equals(lastReportedOn[index]);
+		}
+	}
+}
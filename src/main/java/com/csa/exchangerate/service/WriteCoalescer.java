@@ -0,0 +1,165 @@
+package com.csa.exchangerate.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.csa.exchangerate.executor.Deadline;
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.util.IsoDates;
+
+/**
+ * Coalesces single exchange rate writes into batches (group commit).  Feeds resend the same pair and day
+ * several times a second, and each write on its own takes the pair's lock, appends to the journal, updates
+ * the cross rates, evicts the caches and tells the subscribers.
+ * 
+ * The first write into an empty batch schedules the batch to be saved after the coalescing window, and
+ * writes arriving until then join it.  Within a batch the last write for a pair and day wins, the ones it
+ * replaces are never saved.  The batch is saved with {@link ExchangeRateService#setExchangeRates(java.util.List)},
+ * so the journal, cross rates, caches and subscribers are all brought up to date once per batch.  Batches
+ * are saved one at a time in order, writes arriving while one is saved start the next, so batches grow
+ * with the load.
+ * 
+ * Each write returns a future completed when its batch is saved, so the response can be sent once the
+ * write would be read back, like any other write, without a thread waiting for the batch.  A window of 0
+ * turns coalescing off and writes are saved straight away.  Writes arriving once shutdown has started are
+ * rejected, the last flush has already taken the batch they would join.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@Component
+public class WriteCoalescer {
+	
+	@Autowired
+	private ExchangeRateService exchangeRateService;
+	
+	private final long windowNanos;
+	private final ScheduledExecutorService flusher;
+	private Batch pending = new Batch();  // guarded by this
+	private boolean shutdown;  // guarded by this
+	
+	private final LongAdder written = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	
+	public WriteCoalescer(@Value("${exchangerate.write-coalescing.window:1ms}") Duration window) {
+		this.windowNanos = window.toNanos();
+		this.flusher = windowNanos > 0 ? Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "write-coalescer");
+			thread.setDaemon(true);
+			return thread;
+		}) : null;
+	}
+	
+	/**
+	 * Saves the exchange rate with the other writes in the coalescing window.
+	 * 
+	 * @param exchangeRate
+	 * @return Exchange rate, once it's saved
+	 * @throws IllegalArgumentException if the date isn't a valid ISO date
+	 * @throws RejectedExecutionException if shutting down
+	 */
+	public CompletableFuture<ExchangeRate> setExchangeRate(ExchangeRate exchangeRate) {
+		written.increment();
+		if (flusher == null) {
+			return CompletableFuture.completedFuture(exchangeRateService.setExchangeRate(exchangeRate));
+		}
+		long epochDay = exchangeRate.getEpochDay();
+		if (epochDay == IsoDates.INVALID) {
+			throw new IllegalArgumentException("Invalid ISO date");
+		}
+		
+		// once in a batch the write is saved whole, so this is the last chance to give up
+		Deadline.checkCurrent();
+		long key = ((long) exchangeRate.getPair() << 32) | (epochDay & 0xffffffffL);
+		CompletableFuture<Void> saved;
+		synchronized (this) {
+			if (shutdown) {
+				throw new RejectedExecutionException("Shutting down");
+			}
+			boolean first = pending.exchangeRates.isEmpty();
+			if (pending.exchangeRates.put(key, exchangeRate) != null) {
+				coalesced.increment();
+			}
+			saved = pending.saved;
+			if (first) {
+				flusher.schedule(this::flush, windowNanos, TimeUnit.NANOSECONDS);
+			}
+		}
+		return saved.thenApply(v -> exchangeRate);
+	}
+	
+	private void flush() {
+		Batch batch;
+		synchronized (this) {
+			batch = pending;
+			pending = new Batch();
+		}
+		if (batch.exchangeRates.isEmpty()) {
+			return;
+		}
+		try {
+			exchangeRateService.setExchangeRates(new ArrayList<>(batch.exchangeRates.values()));
+			batches.increment();
+			batch.saved.complete(null);
+		} catch (Throwable t) {
+			batch.saved.completeExceptionally(t);
+		}
+	}
+	
+	/**
+	 * @return number of single writes
+	 */
+	public long getWrittenCount() {
+		return written.sum();
+	}
+	
+	/**
+	 * @return number of writes replaced by a later write for the same pair and day before being saved
+	 */
+	public long getCoalescedCount() {
+		return coalesced.sum();
+	}
+	
+	/**
+	 * @return number of batches saved
+	 */
+	public long getBatchCount() {
+		return batches.sum();
+	}
+	
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		if (flusher != null) {
+			synchronized (this) {
+				shutdown = true;
+			}
+			flusher.shutdown();
+			flusher.awaitTermination(1, TimeUnit.SECONDS);
+			flush();
+		}
+	}
+	
+	/**
+	 * Writes waiting to be saved, by pair and epoch day, and the future their writers wait on.
+	 */
+	private static class Batch {
+		
+		final Map<Long, ExchangeRate> exchangeRates = new LinkedHashMap<>();
+		final CompletableFuture<Void> saved = new CompletableFuture<>();
+	}
+}
@@ -0,0 +1,122 @@
+package com.csa.exchangerate.util;
+
+import java.util.Arrays;
+import java.util.Currency;
+
+/**
+ * Table of the ISO 4217 currency codes known to the JVM.
+ * 
+ * A three letter A-Z code is packed into 15 bits (5 bits per letter, case insensitive), and every known
+ * code is assigned a dense index (0 to {@link #count()} - 1) in alphabetical order.  Neither packing nor
+ * index lookup allocates, so they're safe to use on the request path.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public final class CurrencyCodes {
+
+	public static final int INVALID = -1;
+	
+	private static final int[] INDEX = new int[1 << 15];
+	private static final String[] CODES;
+	
+	static {
+		Arrays.fill(INDEX, INVALID);
+		CODES = Currency.getAvailableCurrencies().stream()
+				.map(Currency::getCurrencyCode)
+				.filter(code -> pack(code) != INVALID)
+				.sorted()
+				.toArray(String[]::new);
+		for (int i = 0; i < CODES.length; i++) {
+			INDEX[pack(CODES[i])] = i;
+		}
+	}
+	
+	private CurrencyCodes() {
+	}
+	
+	/**
+	 * @param code
+	 * @return the 15 bit packed code, or {@link #INVALID} if the code isn't three A-Z letters
+	 */
+	public static int pack(CharSequence code) {
+		if (code == null || code.length() != 3) {
+			return INVALID;
+		}
+		return pack(code, 0);
+	}
+	
+	/**
+	 * @param chars
+	 * @param start index of the code in chars
+	 * @return the 15 bit packed code, or {@link #INVALID} if the three chars at start aren't A-Z letters
+	 */
+	public static int pack(CharSequence chars, int start) {
+		if (chars == null || start < 0 || start + 3 > chars.length()) {
+			return INVALID;
+		}
+		int packed = 0;
+		for (int i = start; i < start + 3; i++) {
+			int letter = (chars.charAt(i) | 0x20) - 'a';  // lower case
+			if (letter < 0 || letter > 25) {
+				return INVALID;
+			}
+			packed = (packed << 5) | letter;
+		}
+		return packed;
+	}
+	
+	/**
+	 * @param packed
+	 * @return the upper case code for the packed code
+	 */
+	public static String unpack(int packed) {
+		int index = index(packed);
+		if (index != INVALID) {
+			return CODES[index];
+		}
+		return new String(new char[] { 
+				(char) ('A' + ((packed >>> 10) & 0x1F)), (char) ('A' + ((packed >>> 5) & 0x1F)), (char) ('A' + (packed & 0x1F)) });
+	}
+	
+	/**
+	 * @param packed
+	 * @return the dense index of the packed code, or {@link #INVALID} if it isn't an ISO 4217 code
+	 */
+	public static int index(int packed) {
+		return packed < 0 || packed >= INDEX.length ? INVALID : INDEX[packed];
+	}
+	
+	/**
+	 * @param code
+	 * @return the dense index of the code, or {@link #INVALID} if it isn't an ISO 4217 code
+	 */
+	public static int indexOf(CharSequence code) {
+		return index(pack(code));
+	}
+	
+	/**
+	 * @param code
+	 * @return true if the code is an ISO 4217 code written in upper case, as ISO 4217 writes it
+	 */
+	public static boolean isCode(CharSequence code) {
+		int packed = pack(code);
+		return packed != INVALID && INDEX[packed] != INVALID 
+				&& code.charAt(0) <= 'Z' && code.charAt(1) <= 'Z' && code.charAt(2) <= 'Z';
+	}
+	
+	/**
+	 * @param index
+	 * @return the upper case code at the dense index
+	 */
+	public static String code(int index) {
+		return CODES[index];
+	}
+	
+	/**
+	 * @return the number of known codes
+	 */
+	public static int count() {
+		return CODES.length;
+	}
+}
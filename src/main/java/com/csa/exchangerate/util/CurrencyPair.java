@@ -0,0 +1,111 @@
+package com.csa.exchangerate.util;
+
+import java.util.Currency;
+
+/**
+ * Encodes a from->to currency pair as a single int: the 15 bit packed from code in the upper bits and the
+ * 15 bit packed to code in the lower bits (see {@link CurrencyCodes#pack(CharSequence)}).  The pair id is
+ * stable across restarts and instances, and needs no allocation to build or compare.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public final class CurrencyPair {
+
+	public static final int INVALID = -1;
+	
+	private CurrencyPair() {
+	}
+	
+	/**
+	 * @param from
+	 * @param to
+	 * @return the pair id, or {@link #INVALID} if either code isn't three A-Z letters
+	 */
+	public static int of(CharSequence from, CharSequence to) {
+		int fromCode = CurrencyCodes.pack(from);
+		int toCode = CurrencyCodes.pack(to);
+		if (fromCode == CurrencyCodes.INVALID || toCode == CurrencyCodes.INVALID) {
+			return INVALID;
+		}
+		return of(fromCode, toCode);
+	}
+	
+	/**
+	 * Parses a pair written as the two codes, either joined (USDEUR) or with a separator (USD-EUR, USD/EUR).
+	 * 
+	 * @param pair
+	 * @return the pair id, or {@link #INVALID} if it isn't two three letter codes
+	 */
+	public static int parse(CharSequence pair) {
+		if (pair == null || (pair.length() != 6 && pair.length() != 7)) {
+			return INVALID;
+		}
+		int fromCode = CurrencyCodes.pack(pair, 0);
+		int toCode = CurrencyCodes.pack(pair, pair.length() - 3);
+		if (fromCode == CurrencyCodes.INVALID || toCode == CurrencyCodes.INVALID 
+				|| (pair.length() == 7 && Character.isLetterOrDigit(pair.charAt(3)))) {
+			return INVALID;
+		}
+		return of(fromCode, toCode);
+	}
+	
+	public static int of(Currency from, Currency to) {
+		return of(from.getCurrencyCode(), to.getCurrencyCode());
+	}
+	
+	/**
+	 * @param fromCode packed from code
+	 * @param toCode packed to code
+	 * @return the pair id
+	 */
+	public static int of(int fromCode, int toCode) {
+		return (fromCode << 15) | toCode;
+	}
+	
+	/**
+	 * @param pair
+	 * @return the packed from code
+	 */
+	public static int from(int pair) {
+		return pair >>> 15;
+	}
+	
+	/**
+	 * @param pair
+	 * @return the packed to code
+	 */
+	public static int to(int pair) {
+		return pair & 0x7FFF;
+	}
+	
+	/**
+	 * @param pair
+	 * @return the pair id for to->from
+	 */
+	public static int reverse(int pair) {
+		return of(to(pair), from(pair));
+	}
+	
+	public static String fromCode(int pair) {
+		return CurrencyCodes.unpack(from(pair));
+	}
+	
+	public static String toCode(int pair) {
+		return CurrencyCodes.unpack(to(pair));
+	}
+	
+	/**
+	 * @param pair
+	 * @return true if both codes are known ISO 4217 codes
+	 */
+	public static boolean isIso(int pair) {
+		return pair != INVALID 
+				&& CurrencyCodes.index(from(pair)) != CurrencyCodes.INVALID 
+				&& CurrencyCodes.index(to(pair)) != CurrencyCodes.INVALID;
+	}
+	
+	public static String toString(int pair) {
+		return fromCode(pair) + "->" + toCode(pair);
+	}
+}
@@ -0,0 +1,55 @@
+package com.csa.exchangerate.util;
+
+/**
+ * Expires entries once their expiration time has passed, off the caller's thread.
+ * 
+ * The expiration time is read again when it comes due, so an entry can be renewed just by moving its
+ * expiration time forward, without rescheduling it.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public interface ExpirationEngine {
+
+	/**
+	 * Expiration time of an entry that must never expire (it's dropped without calling 
+	 * {@link Expirable#expire()}).
+	 */
+	public static final long CANCELLED = Long.MAX_VALUE;
+	
+	/**
+	 * Schedules the entry to expire at its expiration time.
+	 * 
+	 * @param expirable
+	 */
+	public void schedule(Expirable expirable);
+	
+	/**
+	 * @return the engine's cached clock in milliseconds, which is cheaper than System.currentTimeMillis()
+	 *         but only as accurate as the engine's tick
+	 */
+	public long currentTimeMillis();
+	
+	/**
+	 * @return number of scheduled entries that haven't expired or been dropped yet
+	 */
+	public long getPendingCount();
+	
+	/**
+	 * @return number of entries expired since the engine started
+	 */
+	public long getExpiredCount();
+	
+	public interface Expirable {
+		
+		/**
+		 * @return time in milliseconds at which to expire, or {@link ExpirationEngine#CANCELLED}
+		 */
+		public long getExpirationTime();
+		
+		/**
+		 * Called once the expiration time has passed.
+		 */
+		public void expire();
+	}
+}
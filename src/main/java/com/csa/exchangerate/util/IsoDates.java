@@ -0,0 +1,87 @@
+package com.csa.exchangerate.util;
+
+/**
+ * Parses ISO dates (yyyy-MM-dd) straight to epoch days.
+ * 
+ * Unlike LocalDate.parse this neither allocates nor throws on bad input, it returns {@link #INVALID}, so
+ * it's safe to use for validation on the request path.  Only the 10 character form with a 4 digit year is
+ * accepted.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public final class IsoDates {
+	
+	public static final long INVALID = Long.MIN_VALUE;
+	
+	private static final int DAYS_0000_TO_1970 = 719528;
+	
+	private IsoDates() {
+	}
+	
+	/**
+	 * @param date
+	 * @return the epoch day of the date, or {@link #INVALID} if it isn't a valid yyyy-MM-dd date
+	 */
+	public static long parse(CharSequence date) {
+		if (date == null || date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+			return INVALID;
+		}
+		int year = digits(date, 0, 4);
+		int month = digits(date, 5, 2);
+		int day = digits(date, 8, 2);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+			return INVALID;
+		}
+		return toEpochDay(year, month, day);
+	}
+	
+	/**
+	 * @return the number in the digits, or -1 if any char isn't a digit
+	 */
+	private static int digits(CharSequence chars, int start, int length) {
+		int value = 0;
+		for (int i = start; i < start + length; i++) {
+			int digit = chars.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+	
+	private static int lengthOfMonth(int year, int month) {
+		switch (month) {
+			case 2:
+				return isLeapYear(year) ? 29 : 28;
+			case 4:
+			case 6:
+			case 9:
+			case 11:
+				return 30;
+			default:
+				return 31;
+		}
+	}
+	
+	private static boolean isLeapYear(int year) {
+		return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+	}
+	
+	/**
+	 * The same arithmetic as LocalDate.toEpochDay, for years 0 to 9999.
+	 */
+	private static long toEpochDay(int year, int month, int day) {
+		long total = 365L * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+		total += (367 * month - 362) / 12;
+		total += day - 1;
+		if (month > 2) {
+			total--;
+			if (!isLeapYear(year)) {
+				total--;
+			}
+		}
+		return total - DAYS_0000_TO_1970;
+	}
+}
@@ -0,0 +1,117 @@
+package com.csa.exchangerate.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A dense table holding one value per ISO 4217 currency pair, indexed by {@link CurrencyPair} id.
+ * 
+ * Every pair of known currency codes has its own slot (from index * code count + to index), so locating a 
+ * pair is two array lookups with no hashing, boxing or allocation.  Reads are lock-free, values are
+ * installed with a CAS.
+ * 
+ * @author Brian A Zied
+ * @param <V> the Value type
+ */
+public class PairTable<V> {
+
+	private final int codes = CurrencyCodes.count();
+	private final AtomicReferenceArray<V> slots = new AtomicReferenceArray<>(codes * codes);
+	
+	/**
+	 * @param pair
+	 * @return the slot for the pair, or -1 if either code isn't an ISO 4217 code
+	 */
+	public int slot(int pair) {
+		if (pair == CurrencyPair.INVALID) {
+			return -1;
+		}
+		int from = CurrencyCodes.index(CurrencyPair.from(pair));
+		int to = CurrencyCodes.index(CurrencyPair.to(pair));
+		return from == CurrencyCodes.INVALID || to == CurrencyCodes.INVALID ? -1 : from * codes + to;
+	}
+	
+	/**
+	 * @param pair
+	 * @return the value for the pair, or null if there is none
+	 */
+	public V get(int pair) {
+		int slot = slot(pair);
+		return slot < 0 ? null : slots.get(slot);
+	}
+	
+	/**
+	 * Returns the value for the pair, creating it if there is none.  If two threads race to create the value,
+	 * one of them wins and both get the winning value.
+	 * 
+	 * @param pair
+	 * @param factory
+	 * @return the value for the pair
+	 * @throws IllegalArgumentException if either code isn't an ISO 4217 code
+	 */
+	public V computeIfAbsent(int pair, IntFunction<V> factory) {
+		int slot = slot(pair);
+		if (slot < 0) {
+			throw new IllegalArgumentException("Invalid currency code");
+		}
+		V value = slots.get(slot);
+		if (value == null) {
+			V newValue = factory.apply(pair);
+			if (slots.compareAndSet(slot, null, newValue)) {
+				return newValue;
+			}
+			value = slots.get(slot);
+		}
+		return value;
+	}
+	
+	/**
+	 * Sets the value for the pair if it has none.
+	 * 
+	 * @param pair
+	 * @param value
+	 * @return the value the pair already had, or null if it's now the given value
+	 * @throws IllegalArgumentException if either code isn't an ISO 4217 code
+	 */
+	public V putIfAbsent(int pair, V value) {
+		int slot = slot(pair);
+		if (slot < 0) {
+			throw new IllegalArgumentException("Invalid currency code");
+		}
+		while (!slots.compareAndSet(slot, null, value)) {
+			V existing = slots.get(slot);
+			if (existing != null) {
+				return existing;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Removes the value for the pair if it is still the expected value.
+	 * 
+	 * @param pair
+	 * @param expected
+	 * @return true if removed
+	 */
+	public boolean remove(int pair, V expected) {
+		int slot = slot(pair);
+		return slot >= 0 && slots.compareAndSet(slot, expected, null);
+	}
+	
+	/**
+	 * Calls the action for every pair with a value.
+	 * 
+	 * @param action
+	 */
+	public void forEach(ObjIntConsumer<V> action) {
+		for (int slot = 0; slot < slots.length(); slot++) {
+			V value = slots.get(slot);
+			if (value != null) {
+				action.accept(value, CurrencyPair.of(
+						CurrencyCodes.pack(CurrencyCodes.code(slot / codes)), CurrencyCodes.pack(CurrencyCodes.code(slot % codes))));
+			}
+		}
+	}
+}
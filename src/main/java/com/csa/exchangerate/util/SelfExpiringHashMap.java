@@ -1,14 +1,12 @@
 package com.csa.exchangerate.util;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.Delayed;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -16,23 +14,22 @@ import java.util.concurrent.TimeUnit;
  * The life-time can be defined on a per-key basis, or using a default one, that is passed to the 
  * constructor.
  * 
+ * Expiration is done by an {@link ExpirationEngine} (by default the shared {@link TimingWheel}) on its own
+ * thread, so reads and writes never pay for cleaning up expired entries.  Renewing a key only moves its
+ * expiration time forward, the engine picks up the new time when the old one comes due.
+ * 
  * @author Brian A Zied
  * @param <K> the Key type
  * @param <V> the Value type
  */
-@SuppressWarnings({"rawtypes","unchecked","hiding"})
+@SuppressWarnings({"rawtypes","unchecked"})
 public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
 
-    private final Map<K, V> internalMap;
+    private final ConcurrentMap<K, ExpiringEntry> internalMap = new ConcurrentHashMap<>();
 
-    private final Map<K, ExpiringKey<K>> expiringKeys;
+    private final List<ExpiredEntryListener> expiredEntryListeners = new CopyOnWriteArrayList<ExpiredEntryListener>();
 
-    /**
-     * Holds the map keys using the given life time for expiration.
-     */
-	private final DelayQueue<ExpiringKey> delayQueue = new DelayQueue<ExpiringKey>();
-	
-	private List<ExpiredEntryListener> expiredEntryListeners = new ArrayList<ExpiredEntryListener>();
+    private final ExpirationEngine expirationEngine;
 
     /**
      * The default max life time in milliseconds.
@@ -40,9 +37,16 @@ public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
     private final long maxLifeTimeMillis;
 
     public SelfExpiringHashMap() {
-    	this.internalMap = new ConcurrentHashMap<K, V>();
-    	this.expiringKeys = new WeakHashMap<K, ExpiringKey<K>>();
-        this.maxLifeTimeMillis = TimeUnit.DAYS.toMillis(3);  // TTL is 3 days
+        this(TimeUnit.DAYS.toMillis(3));  // TTL is 3 days
+    }
+
+    public SelfExpiringHashMap(long maxLifeTimeMillis) {
+        this(maxLifeTimeMillis, TimingWheel.getDefault());
+    }
+
+    public SelfExpiringHashMap(long maxLifeTimeMillis, ExpirationEngine expirationEngine) {
+        this.maxLifeTimeMillis = maxLifeTimeMillis;
+        this.expirationEngine = expirationEngine;
     }
 
     /**
@@ -50,7 +54,6 @@ public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
      */
     @Override
     public int size() {
-        cleanup();
         return internalMap.size();
     }
 
@@ -59,7 +62,6 @@ public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
      */
     @Override
     public boolean isEmpty() {
-        cleanup();
         return internalMap.isEmpty();
     }
 
@@ -68,8 +70,7 @@ public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
      */
     @Override
     public boolean containsKey(Object key) {
-        cleanup();
-        return internalMap.containsKey((K) key);
+        return getLiveEntry(key) != null;
     }
 
     /**
@@ -77,15 +78,22 @@ public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
      */
     @Override
     public boolean containsValue(Object value) {
-        cleanup();
-        return internalMap.containsValue((V) value);
+        for (ExpiringEntry entry : internalMap.values()) {
+            if (entry.value.equals(value)) {
+                return true;
+            }
+        }
+        return false;
     }
 
 	@Override
     public V get(Object key) {
-        cleanup();
-        renewKey((K) key);
-        return internalMap.get((K) key);
+        ExpiringEntry entry = getLiveEntry(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.renew();
+        return (V) entry.value;
     }
 
     /**
@@ -101,15 +109,25 @@ public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
      */
     @Override
     public V put(K key, V value, long lifeTimeMillis) {
-        cleanup();
-        ExpiringKey delayedKey = new ExpiringKey(key, lifeTimeMillis);
-        ExpiringKey oldKey = expiringKeys.put((K) key, delayedKey);
-        if(oldKey != null) {
-            expireKey(oldKey);
-            expiringKeys.put((K) key, delayedKey);
+        long expirationTime = expirationEngine.currentTimeMillis() + lifeTimeMillis;
+        Object[] previous = new Object[2];
+        ExpiringEntry entry = internalMap.compute(key, (k, existing) -> {
+            if (existing != null) {
+                previous[0] = existing.value;
+                if (expirationTime >= existing.expirationTime) {
+                    // still scheduled, it'll pick up the later expiration time when the old one comes due
+                    existing.update(value, lifeTimeMillis, expirationTime);
+                    return existing;
+                }
+                existing.cancel();
+            }
+            previous[1] = Boolean.TRUE;
+            return new ExpiringEntry(key, value, lifeTimeMillis, expirationTime);
+        });
+        if (previous[1] != null) {
+            expirationEngine.schedule(entry);
         }
-        delayQueue.offer(delayedKey);
-        return internalMap.put(key, value);
+        return (V) previous[0];
     }
 
     /**
@@ -117,9 +135,12 @@ public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
      */
     @Override
     public V remove(Object key) {
-        V removedValue = internalMap.remove((K) key);
-        expireKey(expiringKeys.remove((K) key));
-        return removedValue;
+        ExpiringEntry entry = internalMap.remove((K) key);
+        if (entry == null) {
+            return null;
+        }
+        entry.cancel();
+        return (V) entry.value;
     }
 
     /**
@@ -135,9 +156,9 @@ public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
      */
     @Override
     public boolean renewKey(K key) {
-        ExpiringKey<K> delayedKey = expiringKeys.get((K) key);
-        if (delayedKey != null) {
-            delayedKey.renew();
+        ExpiringEntry entry = internalMap.get(key);
+        if (entry != null) {
+            entry.renew();
             return true;
         }
         return false;
@@ -148,9 +169,9 @@ public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
      */
     @Override
     public void expireValueAfter(V value, long timeInMillis) {
-        for (K key : keySet()) {
-            if (get(key).equals(value)) {
-            	expireKeyAfter(key, timeInMillis);
+        for (ExpiringEntry entry : internalMap.values()) {
+            if (entry.value.equals(value)) {
+            	expireKeyAfter((K) entry.key, timeInMillis);
             }
         }
     }
@@ -160,9 +181,9 @@ public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
      */
     @Override
     public void expireValue(V value) {
-        for (K key : keySet()) {
-            if (get(key).equals(value)) {
-            	expireKey(key);
+        for (ExpiringEntry entry : internalMap.values()) {
+            if (entry.value.equals(value)) {
+            	expireKey((K) entry.key);
             }
         }
     }
@@ -172,10 +193,9 @@ public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
      */
     @Override
     public void expireKeyAfter(K key, long timeInMillis) {
-        cleanup();
-        ExpiringKey<K> oldKey = expiringKeys.get((K) key);
-        if (oldKey != null) {
-        	put(key, internalMap.get(key), timeInMillis);
+        ExpiringEntry entry = internalMap.get(key);
+        if (entry != null) {
+        	put(key, (V) entry.value, timeInMillis);
         }
     }
     
@@ -184,16 +204,10 @@ public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
      */
     @Override
     public void expireKey(K key) {
-        ExpiringKey<K> delayedKey = expiringKeys.get((K) key);
-        if (delayedKey != null) {
-        	expireKey(delayedKey);
-        }
-    }
-    
-    private void expireKey(ExpiringKey<K> delayedKey) {
-        if (delayedKey != null) {
-            delayedKey.expire();
-            cleanup();
+        ExpiringEntry entry = internalMap.remove(key);
+        if (entry != null) {
+            entry.cancel();
+            notifyListeners(entry.value);
         }
     }
 
@@ -202,8 +216,7 @@ public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
      */
     @Override
     public void clear() {
-        delayQueue.clear();
-        expiringKeys.clear();
+        internalMap.values().forEach(ExpiringEntry::cancel);
         internalMap.clear();
     }
 
@@ -231,97 +244,83 @@ public class SelfExpiringHashMap<K, V> implements SelfExpiringMap<K, V> {
         throw new UnsupportedOperationException();
     }
 
-    private void cleanup() {
-        ExpiringKey<K> delayedKey = delayQueue.poll();
-        while (delayedKey != null) {
-            notifyListeners(delayedKey.getKey(), internalMap.get(delayedKey.getKey()));
-            internalMap.remove(delayedKey.getKey());
-            expiringKeys.remove(delayedKey.getKey());
-            delayedKey = delayQueue.poll();
-        }
+    /**
+     * Entries past their expiration time are treated as absent until the engine gets to them.
+     */
+    private ExpiringEntry getLiveEntry(Object key) {
+        ExpiringEntry entry = internalMap.get(key);
+        return entry == null || entry.expirationTime <= expirationEngine.currentTimeMillis() ? null : entry;
     }
 
-    private void notifyListeners(K key, V value) {
+    private void notifyListeners(Object value) {
     	expiredEntryListeners.forEach(l -> l.entryExpired(value));
 	}
 
-    public void addExpiredEntryListener(ExpiredEntryListener listener) {
+    public void addExpiredEntryListener(ExpiredEntryListener<V> listener) {
     	expiredEntryListeners.add(listener);
     }
     
-    private class ExpiringKey<K> implements Delayed {
+    private class ExpiringEntry implements ExpirationEngine.Expirable {
 
-        private long startTime = System.currentTimeMillis();
-        private final long maxLifeTimeMillis;
-        private final K key;
+        private final Object key;
+        private volatile Object value;
+        private volatile long lifeTimeMillis;
+        private volatile long expirationTime;
 
-        public ExpiringKey(K key, long maxLifeTimeMillis) {
-            this.maxLifeTimeMillis = maxLifeTimeMillis;
+        ExpiringEntry(Object key, Object value, long lifeTimeMillis, long expirationTime) {
             this.key = key;
+            this.value = value;
+            this.lifeTimeMillis = lifeTimeMillis;
+            this.expirationTime = expirationTime;
         }
 
-        public K getKey() {
-            return key;
+        void update(Object value, long lifeTimeMillis, long expirationTime) {
+            this.value = value;
+            this.lifeTimeMillis = lifeTimeMillis;
+            this.expirationTime = expirationTime;
         }
 
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public boolean equals(Object obj) {
-            if (obj == null) {
-                return false;
-            }
-            if (getClass() != obj.getClass()) {
-                return false;
-            }
-            final ExpiringKey<K> other = (ExpiringKey<K>) obj;
-            if (this.key != other.key && (this.key == null || !this.key.equals(other.key))) {
-                return false;
+        void renew() {
+            if (expirationTime != ExpirationEngine.CANCELLED) {
+                expirationTime = expirationEngine.currentTimeMillis() + lifeTimeMillis;
             }
-            return true;
         }
 
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public int hashCode() {
-            int hash = 7;
-            hash = 31 * hash + (this.key != null ? this.key.hashCode() : 0);
-            return hash;
+        void cancel() {
+            expirationTime = ExpirationEngine.CANCELLED;
         }
 
         /**
          * {@inheritDoc}
          */
         @Override
-        public long getDelay(TimeUnit unit) {
-            return unit.convert(getDelayMillis(), TimeUnit.MILLISECONDS);
-        }
-
-        private long getDelayMillis() {
-            return (startTime + maxLifeTimeMillis) - System.currentTimeMillis();
-        }
-
-        public void renew() {
-            startTime = System.currentTimeMillis();
-        }
-
-        public void expire() {
-            startTime = Long.MIN_VALUE;
+        public long getExpirationTime() {
+            return expirationTime;
         }
 
         /**
          * {@inheritDoc}
          */
         @Override
-        public int compareTo(Delayed that) {
-            return Long.compare(this.getDelayMillis(), ((ExpiringKey) that).getDelayMillis());
+        public void expire() {
+            boolean[] expired = new boolean[1];
+            internalMap.computeIfPresent((K) key, (k, entry) -> {
+                if (entry == this && expirationTime <= expirationEngine.currentTimeMillis()) {
+                    expired[0] = true;
+                    return null;
+                }
+                return entry;
+            });
+            if (expired[0]) {
+                notifyListeners(value);
+            } else if (internalMap.get(key) == this) {
+                // renewed while it was coming due
+                expirationEngine.schedule(this);
+            }
         }
     }
     
     public interface ExpiredEntryListener<V> {
     	public void entryExpired(V value);
     }
-}
\ No newline at end of file
+}
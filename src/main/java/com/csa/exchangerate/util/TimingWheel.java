@@ -0,0 +1,214 @@
+package com.csa.exchangerate.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ExpirationEngine} built on a hierarchical timing wheel.
+ * 
+ * Each level is a wheel of 2^bits buckets.  A bucket on level 0 covers one tick, a bucket on level n covers
+ * all the ticks of one turn of level n - 1.  An entry is placed in the lowest level whose range covers its 
+ * expiration time, and moves down a level whenever the level below completes a turn, until it reaches
+ * level 0 and expires.  Scheduling, expiring and moving an entry are all O(1).
+ * 
+ * Callers only append to a lock-free queue.  A single background ticker drains the queue into the wheel,
+ * advances the wheel and refreshes the cached clock, so expiration never runs on the caller's thread.  An
+ * expiry callback that throws is logged and doesn't stop the rest of the wheel.
+ * 
+ * @author Brian A Zied
+ *
+ */
+public class TimingWheel implements ExpirationEngine, AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TimingWheel.class);
+	
+	private static final int DEFAULT_TICK_MILLIS = 100;
+	private static final int DEFAULT_BITS = 6;
+	private static final int DEFAULT_LEVELS = 4;  // 64 buckets of 100ms on level 0 covers ~19 days on level 3
+	
+	private final long tickMillis;
+	private final int bits;
+	private final int mask;
+	private final Queue<Expirable>[][] wheels;
+	
+	private final Queue<Expirable> incoming = new ConcurrentLinkedQueue<>();
+	private final ScheduledExecutorService ticker;
+	
+	private final LongAdder scheduled = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	
+	private volatile long now;
+	private long currentTick;  // ticker thread only
+	
+	public TimingWheel() {
+		this(DEFAULT_TICK_MILLIS, DEFAULT_BITS, DEFAULT_LEVELS);
+	}
+	
+	/**
+	 * @param tickMillis duration of a tick, which is also the resolution of the cached clock
+	 * @param bits each level has 2^bits buckets
+	 * @param levels number of levels
+	 */
+	public TimingWheel(long tickMillis, int bits, int levels) {
+		this.tickMillis = tickMillis;
+		this.bits = bits;
+		this.mask = (1 << bits) - 1;
+		this.wheels = newWheels(levels, 1 << bits);
+		for (Queue<Expirable>[] wheel : wheels) {
+			for (int i = 0; i < wheel.length; i++) {
+				wheel[i] = new ArrayDeque<>();
+			}
+		}
+		this.now = System.currentTimeMillis();
+		this.currentTick = now / tickMillis;
+		this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "expiration-ticker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.ticker.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @return the engine shared by maps that aren't given one
+	 */
+	public static TimingWheel getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void schedule(Expirable expirable) {
+		scheduled.increment();
+		incoming.offer(expirable);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long currentTimeMillis() {
+		return now;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getPendingCount() {
+		return scheduled.sum() - expired.sum() - dropped.sum();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getExpiredCount() {
+		return expired.sum();
+	}
+	
+	@Override
+	public void close() {
+		ticker.shutdownNow();
+	}
+	
+	private void advance() {
+		try {
+			long time = System.currentTimeMillis();
+			now = time;
+			for (Expirable expirable = incoming.poll(); expirable != null; expirable = incoming.poll()) {
+				place(expirable);
+			}
+			long targetTick = time / tickMillis;
+			while (currentTick < targetTick) {
+				tick();
+			}
+		} catch (RuntimeException e) {
+			// keep the ticker alive, a failing listener mustn't stop expiration
+			LOG.error("Timing wheel failed to advance", e);
+		}
+	}
+	
+	private void tick() {
+		currentTick++;
+		
+		// when a level completes a turn, move the next bucket of the level above down (highest first)
+		int level = 0;
+		for (long tick = currentTick; level < wheels.length - 1 && (tick & mask) == 0; tick >>>= bits) {
+			level++;
+		}
+		for (; level > 0; level--) {
+			Queue<Expirable> bucket = wheels[level][(int) ((currentTick >>> (level * bits)) & mask)];
+			for (Expirable expirable = bucket.poll(); expirable != null; expirable = bucket.poll()) {
+				place(expirable);
+			}
+		}
+		
+		Queue<Expirable> bucket = wheels[0][(int) (currentTick & mask)];
+		for (Expirable expirable = bucket.poll(); expirable != null; expirable = bucket.poll()) {
+			long expirationTime = expirable.getExpirationTime();
+			if (expirationTime == CANCELLED) {
+				dropped.increment();
+			} else if (expirationTime > now) {
+				place(expirable);  // renewed since it was scheduled
+			} else {
+				expired.increment();
+				expire(expirable);
+			}
+		}
+	}
+	
+	private void place(Expirable expirable) {
+		long expirationTime = expirable.getExpirationTime();
+		if (expirationTime == CANCELLED) {
+			dropped.increment();
+			return;
+		}
+		long expirationTick = (expirationTime + tickMillis - 1) / tickMillis;
+		long delta = expirationTick - currentTick;
+		if (delta <= 0) {
+			expired.increment();
+			expire(expirable);
+			return;
+		}
+		int level = 0;
+		while (level < wheels.length - 1 && delta >= 1L << ((level + 1) * bits)) {
+			level++;
+		}
+		long maxDelta = (1L << ((level + 1) * bits)) - 1;
+		if (delta > maxDelta) {
+			// beyond the top level, park it as far out as possible and place it again when it comes due
+			expirationTick = currentTick + maxDelta;
+		}
+		wheels[level][(int) ((expirationTick >>> (level * bits)) & mask)].add(expirable);
+	}
+	
+	private static void expire(Expirable expirable) {
+		try {
+			expirable.expire();
+		} catch (RuntimeException e) {
+			// one failing entry mustn't stop the rest of the bucket
+			LOG.warn("Expiry callback failed", e);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Queue<Expirable>[][] newWheels(int levels, int buckets) {
+		return (Queue<Expirable>[][]) new Queue<?>[levels][buckets];
+	}
+	
+	private static class DefaultHolder {
+		static final TimingWheel INSTANCE = new TimingWheel();
+	}
+}
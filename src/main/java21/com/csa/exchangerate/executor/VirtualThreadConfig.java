@@ -0,0 +1,39 @@
+package com.csa.exchangerate.executor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Runs requests on virtual threads, only built by the jdk21 profile (see pom.xml).
+ * 
+ * Tomcat hands each request to a new virtual thread instead of its worker pool, and the
+ * {@link RequestExecutor} runs each task on a new virtual thread instead of its fixed pool.  A request
+ * waiting on its task then parks its virtual thread rather than holding a platform thread, so the number
+ * of platform threads stays at about one per core however many requests are in flight.
+ * 
+ * Set exchangerate.executor.virtual-threads=false to compare with platform threads in the same build.
+ * 
+ * @author Brian A Zied
+ *
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "exchangerate.executor", name = "virtual-threads", havingValue = "true", matchIfMissing = true)
+public class VirtualThreadConfig {
+	
+	@Bean(RequestExecutor.TASK_EXECUTOR)
+	public ExecutorService requestTaskExecutor() {
+		return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("exchange-rate-worker-", 1).factory());
+	}
+	
+	@Bean
+	public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer() {
+		return protocolHandler -> protocolHandler.setExecutor(
+				Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-virtual-", 1).factory()));
+	}
+}
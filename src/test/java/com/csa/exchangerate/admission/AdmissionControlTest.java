@@ -0,0 +1,49 @@
+package com.csa.exchangerate.admission;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class AdmissionControlTest {
+	
+	// 1 request per second, 3 at once
+	private final AdmissionControl admissionControl = new AdmissionControl("X-API-Key", 1, 3, 1, 3, 2, Duration.ofMinutes(1));
+	
+	@Test
+	void throttlesClientOverItsBurst() {
+		for (int i = 0; i < 3; i++) {
+			assertThat(admissionControl.admit("feed", Traffic.WRITE)).isZero();
+		}
+		long wait = admissionControl.admit("feed", Traffic.WRITE);
+		assertThat(wait).isPositive().isLessThanOrEqualTo(Duration.ofSeconds(1).toNanos());
+		assertThat(admissionControl.getThrottledCount(Traffic.WRITE)).isEqualTo(1);
+		
+		// reads and other clients have their own budgets
+		assertThat(admissionControl.admit("feed", Traffic.READ)).isZero();
+		assertThat(admissionControl.admit("reader", Traffic.WRITE)).isZero();
+	}
+	
+	@Test
+	void appliesNewLimitToNextRequest() {
+		for (int i = 0; i < 3; i++) {
+			admissionControl.admit("feed", Traffic.WRITE);
+		}
+		assertThat(admissionControl.admit("feed", Traffic.WRITE)).isPositive();
+		
+		admissionControl.setLimit(Traffic.WRITE, new AdmissionLimit(0, 1));
+		assertThat(admissionControl.admit("feed", Traffic.WRITE)).isZero();
+	}
+	
+	@Test
+	void newClientsShareBudgetOverMaximum() {
+		admissionControl.admit("a", Traffic.WRITE);
+		admissionControl.admit("b", Traffic.WRITE);
+		for (int i = 0; i < 3; i++) {
+			assertThat(admissionControl.admit("c" + i, Traffic.WRITE)).isZero();
+		}
+		assertThat(admissionControl.admit("d", Traffic.WRITE)).isPositive();
+		assertThat(admissionControl.getClientCount()).isEqualTo(2);
+	}
+}
@@ -0,0 +1,77 @@
+package com.csa.exchangerate.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class TinyLfuCacheTest {
+
+	@Test
+	void frequentKeysSurviveScan() {
+		TinyLfuCache cache = new TinyLfuCache("test", 100, 0);
+		for (int round = 0; round < 5; round++) {
+			for (int key = 0; key < 50; key++) {
+				if (cache.get(key) == null) {
+					cache.put(key, "hot");
+				}
+			}
+		}
+		
+		// one-off keys, 10x the size of the cache
+		for (int key = 1000; key < 2000; key++) {
+			cache.get(key);
+			cache.put(key, "cold");
+		}
+		
+		int hot = 0;
+		for (int key = 0; key < 50; key++) {
+			if (cache.get(key) != null) {
+				hot++;
+			}
+		}
+		assertThat(hot).isGreaterThanOrEqualTo(45);
+		assertThat(cache.getStats().getSize()).isLessThanOrEqualTo(100);
+		assertThat(cache.getStats().getEvictionCount()).isGreaterThanOrEqualTo(900);
+	}
+	
+	@Test
+	void countsHitsAndMisses() {
+		TinyLfuCache cache = new TinyLfuCache("test", 10, 0);
+		assertThat(cache.get("USD")).isNull();
+		cache.put("USD", null);
+		assertThat(cache.get("USD")).isNotNull();
+		assertThat(cache.get("USD").get()).isNull();
+		cache.evict("USD");
+		assertThat(cache.get("USD")).isNull();
+		
+		CacheStats stats = cache.getStats();
+		assertThat(stats.getHitCount()).isEqualTo(2);
+		assertThat(stats.getMissCount()).isEqualTo(2);
+		assertThat(stats.getHitRate()).isEqualTo(0.5);
+	}
+	
+	@Test
+	void entriesExpireAfterWrite() throws InterruptedException {
+		TinyLfuCache cache = new TinyLfuCache("test", 10, 20);
+		cache.put("USD", "1.0");
+		assertThat(cache.get("USD", String.class)).isEqualTo("1.0");
+		Thread.sleep(30);
+		assertThat(cache.get("USD")).isNull();
+		assertThat(cache.getStats().getSize()).isZero();
+	}
+	
+	@Test
+	void loadRacingAnEvictionIsNotCached() {
+		TinyLfuCache cache = new TinyLfuCache("test", 10, 0);
+		// the value is loaded, then written and evicted before the load is cached
+		String loaded = cache.get("USD", () -> {
+			cache.evict("USD");
+			return "stale";
+		});
+		assertThat(loaded).isEqualTo("stale");
+		assertThat(cache.get("USD")).isNull();
+		
+		assertThat(cache.get("USD", () -> "1.0")).isEqualTo("1.0");
+		assertThat(cache.get("USD", String.class)).isEqualTo("1.0");
+	}
+}
@@ -0,0 +1,78 @@
+package com.csa.exchangerate.controller;
+
+import java.time.LocalDate;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.reactive.server.WebTestClient.ResponseSpec;
+
+import com.csa.exchangerate.model.ExchangeRate;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "spring.main.web-application-type=reactive")
+class ReactiveExchangeRateControllerTest {
+
+	@Autowired
+	private WebTestClient webTestClient;
+	
+	@Test
+	void setAndGetLatestExchangeRate() {
+		String today = LocalDate.now().toString();
+		served(() -> webTestClient.post().uri("/currency").contentType(MediaType.APPLICATION_JSON)
+			.bodyValue(new ExchangeRate("GBP", "CHF", 1.25f, today))
+			.exchange())
+			.expectStatus().isOk();
+		
+		served(() -> webTestClient.get().uri("/currency/latest?fromCurrencyCode=GBP&toCurrencyCode=CHF")
+			.exchange())
+			.expectStatus().isOk()
+			.expectBody()
+			.jsonPath("$.rate").isEqualTo(1.25)
+			.jsonPath("$.reportedOn").isEqualTo(today);
+		
+		served(() -> webTestClient.get().uri("/currency/" + today + "?fromCurrencyCode=CHF&toCurrencyCode=GBP")
+			.exchange())
+			.expectStatus().isNotFound();
+	}
+	
+	/**
+	 * Repeats the request while it times out (which the first requests can do while the JVM warms up), then
+	 * makes it once more for the test to check.
+	 */
+	private static ResponseSpec served(Supplier<ResponseSpec> request) {
+		for (int attempt = 0; attempt < 20; attempt++) {
+			if (request.get().returnResult(Void.class).getStatus() != HttpStatus.SERVICE_UNAVAILABLE) {
+				break;
+			}
+		}
+		return request.get();
+	}
+	
+	@Test
+	void rejectsInvalidRequests() {
+		webTestClient.get().uri("/currency/latest?fromCurrencyCode=ABQ&toCurrencyCode=CHF")
+			.exchange()
+			.expectStatus().isBadRequest()
+			.expectBody()
+			.jsonPath("$.metadata.fields[0].name").isEqualTo("fromCurrencyCode");
+		
+		webTestClient.post().uri("/currency").contentType(MediaType.APPLICATION_JSON)
+			.bodyValue(new ExchangeRate("GBP", "GBP", 1f, LocalDate.now().toString()))
+			.exchange()
+			.expectStatus().isBadRequest()
+			.expectBody()
+			.jsonPath("$.message").isEqualTo("From/To must be different currency codes");
+		
+		webTestClient.post().uri("/currency").contentType(MediaType.APPLICATION_JSON)
+			.bodyValue(new ExchangeRate("GBP", "CHF", 1f, "yesterday"))
+			.exchange()
+			.expectStatus().isBadRequest()
+			.expectBody()
+			.jsonPath("$.metadata.fields[0].name").isEqualTo("reportedOn");
+	}
+}
@@ -0,0 +1,76 @@
+package com.csa.exchangerate.executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.mock.env.MockEnvironment;
+
+class RequestExecutorTest {
+	
+	private final RequestExecutor requestExecutor = new RequestExecutor(1, 16, 
+			new StaticListableBeanFactory().getBeanProvider(ExecutorService.class), new MockEnvironment());
+	private final ExecutorService callers = Executors.newCachedThreadPool();
+	
+	@AfterEach
+	void shutdown() {
+		requestExecutor.shutdown();
+		callers.shutdownNow();
+	}
+	
+	@Test
+	void stopsTaskAtItsDeadline() throws InterruptedException {
+		CountDownLatch stopped = new CountDownLatch(1);
+		assertThatThrownBy(() -> requestExecutor.execute(Endpoint.GET_EXCHANGE_RATE_RANGE, () -> {
+			try {
+				while (true) {
+					Deadline.checkCurrent();
+				}
+			} finally {
+				stopped.countDown();
+			}
+		}, Deadline.after(20, TimeUnit.MILLISECONDS))).isInstanceOf(TimeoutException.class);
+		
+		assertThat(stopped.await(1, TimeUnit.SECONDS)).isTrue();
+		assertThat(requestExecutor.getTimeoutCount(Endpoint.GET_EXCHANGE_RATE_RANGE)).isEqualTo(1);
+	}
+	
+	@Test
+	void shedsWhenQueuedWorkCantFinishInTime() throws Exception {
+		// tasks take 20ms on average
+		for (int i = 0; i < 16; i++) {
+			requestExecutor.execute(Endpoint.GET_EXCHANGE_RATE_HISTORY, () -> {
+				Thread.sleep(20);
+				return null;
+			}, Deadline.after(1, TimeUnit.SECONDS));
+		}
+		
+		// one running and one queued ahead
+		CountDownLatch release = new CountDownLatch(1);
+		for (int i = 0; i < 2; i++) {
+			callers.submit(() -> requestExecutor.execute(Endpoint.GET_EXCHANGE_RATE_HISTORY, () -> release.await(5, TimeUnit.SECONDS), 
+					Deadline.after(5, TimeUnit.SECONDS)));
+		}
+		while (requestExecutor.getQueueDepth(Endpoint.GET_EXCHANGE_RATE_HISTORY) == 0) {
+			Thread.sleep(1);
+		}
+		
+		assertThatThrownBy(() -> requestExecutor.execute(Endpoint.GET_LATEST_EXCHANGE_RATE, () -> 1, 
+				Deadline.after(10, TimeUnit.MILLISECONDS))).isInstanceOf(RejectedExecutionException.class);
+		assertThat(requestExecutor.getShedCount(Endpoint.GET_LATEST_EXCHANGE_RATE)).isEqualTo(1);
+		
+		// a request with time to wait is queued
+		release.countDown();
+		assertThat(requestExecutor.execute(Endpoint.GET_LATEST_EXCHANGE_RATE, () -> 1, 
+				Deadline.after(2, TimeUnit.SECONDS))).isEqualTo(1);
+	}
+}
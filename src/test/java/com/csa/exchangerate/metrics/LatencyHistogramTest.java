@@ -0,0 +1,39 @@
+package com.csa.exchangerate.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+	@Test
+	void bucketsCoverEveryValueInOrder() {
+		long[] values = { 0, 1, 7, 8, 9, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE };
+		int previous = -1;
+		for (long value : values) {
+			int bucket = LatencyHistogram.bucket(value);
+			assertThat(bucket).isGreaterThanOrEqualTo(previous);
+			assertThat(LatencyHistogram.highestValue(bucket)).isGreaterThanOrEqualTo(value);
+			if (value > 0) {
+				assertThat(LatencyHistogram.highestValue(bucket) - value).isLessThanOrEqualTo(value / 8);
+			}
+			previous = bucket;
+		}
+	}
+	
+	@Test
+	void snapshotReportsPercentilesInMicros() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertThat(snapshot.getCount()).isEqualTo(1000);
+		assertThat(snapshot.getMean()).isCloseTo(500.5, within(0.1));
+		assertThat(snapshot.getP50()).isCloseTo(500, within(500 / 8d));
+		assertThat(snapshot.getP99()).isCloseTo(990, within(990 / 8d));
+		assertThat(snapshot.getMax()).isEqualTo(1000);
+	}
+}
@@ -0,0 +1,116 @@
+package com.csa.exchangerate.replication;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.model.RateInterval;
+import com.csa.exchangerate.repository.InMemoryExchangeRateRepository;
+import com.csa.exchangerate.repository.ReplicationLog;
+import com.csa.exchangerate.util.CurrencyPair;
+
+class ReplicationTest {
+	
+	private static final int USD_EUR = CurrencyPair.of("USD", "EUR");
+	private static final int USD_JPY = CurrencyPair.of("USD", "JPY");
+	
+	private final InMemoryExchangeRateRepository primary = new InMemoryExchangeRateRepository();
+	private final InMemoryExchangeRateRepository replica = new InMemoryExchangeRateRepository();
+	private final ReplicationLog log = new ReplicationLog(1024);
+	private final ReplicationServer server;
+	private final ReplicationClient client;
+	
+	private final String today = LocalDate.now().toString();
+	
+	ReplicationTest() throws IOException {
+		ReflectionTestUtils.setField(primary, "replicationLog", log);
+		server = new ReplicationServer(log, primary, 0);
+		client = new ReplicationClient("localhost", server.getPort(), replica::saveReplicated);
+	}
+	
+	@AfterEach
+	void close() throws Exception {
+		client.close();
+		server.close();
+	}
+	
+	@Test
+	void replicatesSnapshotThenLog() throws InterruptedException {
+		primary.save(new ExchangeRate("USD", "EUR", 0.85f, today));
+		client.start();
+		await(() -> replica.findLatest(USD_EUR).isPresent());
+		assertThat(client.getSnapshotRateCount()).isEqualTo(1);
+		
+		primary.save(new ExchangeRate("USD", "EUR", 0.86f, today));
+		primary.save(new ExchangeRate("USD", "JPY", 110.5f, today));
+		await(() -> client.getNextOffset() == log.getHead());
+		assertThat(replica.findLatest(USD_EUR).get().getRate()).isEqualTo(0.86f);
+		assertThat(replica.findLatest(USD_JPY).get().getRate()).isEqualTo(110.5f);
+		assertThat(client.getGeneration()).isEqualTo(log.getGeneration());
+		assertThat(client.getLagOffsets()).isZero();
+	}
+	
+	@Test
+	void catchesUpFromOffsetAfterReconnecting() throws Exception {
+		client.start();
+		await(() -> client.getGeneration() == log.getGeneration());
+		primary.save(new ExchangeRate("USD", "EUR", 0.85f, today));
+		await(() -> client.getNextOffset() == log.getHead());
+		
+		// drop the connection and save while the replica reconnects
+		((SocketChannel) ReflectionTestUtils.getField(client, "channel")).close();
+		primary.save(new ExchangeRate("USD", "EUR", 0.86f, today));
+		await(() -> client.getReconnectCount() > 0 && client.getNextOffset() == log.getHead());
+		assertThat(replica.findLatest(USD_EUR).get().getRate()).isEqualTo(0.86f);
+		assertThat(client.getSnapshotRateCount()).isZero();
+	}
+	
+	@Test
+	void sameDayRatesInOneBatchAreAllApplied() throws InterruptedException {
+		client.start();
+		await(() -> client.getGeneration() == log.getGeneration());
+		
+		// both are saved at the same time, the last one is the day's rate
+		primary.saveAll(Arrays.asList(new ExchangeRate("USD", "EUR", 0.85f, today), new ExchangeRate("USD", "EUR", 0.9f, today)));
+		await(() -> client.getNextOffset() == log.getHead());
+		assertThat(primary.findLatest(USD_EUR).get().getRate()).isEqualTo(0.9f);
+		assertThat(replica.findLatest(USD_EUR).get().getRate()).isEqualTo(0.9f);
+		LocalDate day = LocalDate.parse(today);
+		assertThat(replica.findAggregates(USD_EUR, day, day, RateInterval.DAY).get(0).getCount()).isEqualTo(2);
+	}
+	
+	@Test
+	void snapshotAgainKeepsSavedTimeAndCountsRatesOnce() throws Exception {
+		primary.save(new ExchangeRate("USD", "EUR", 0.85f, today));
+		client.start();
+		await(() -> replica.findLatest(USD_EUR).isPresent());
+		long savedAt = primary.findLatest(USD_EUR).get().getSavedAt();
+		assertThat(replica.findLatest(USD_EUR).get().getSavedAt()).isEqualTo(savedAt);
+		
+		// a second replica process following a different generation gets the snapshot again
+		try (ReplicationClient resync = new ReplicationClient("localhost", server.getPort(), replica::saveReplicated)) {
+			resync.start();
+			await(() -> resync.getSnapshotRateCount() == 1 && resync.getGeneration() == log.getGeneration());
+		}
+		LocalDate day = LocalDate.parse(today);
+		assertThat(replica.findAggregates(USD_EUR, day, day, RateInterval.DAY).get(0).getCount()).isEqualTo(1);
+		assertThat(replica.findLatest(USD_EUR).get().getSavedAt()).isEqualTo(savedAt);
+	}
+	
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean()) {
+			assertThat(System.currentTimeMillis()).isLessThan(deadline);
+			Thread.sleep(10);
+		}
+	}
+}
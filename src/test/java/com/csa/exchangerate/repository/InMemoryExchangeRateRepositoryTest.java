@@ -0,0 +1,195 @@
+package com.csa.exchangerate.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.assertj.core.api.Assertions.within;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.model.RateAggregate;
+import com.csa.exchangerate.model.RateInterval;
+import com.csa.exchangerate.util.CurrencyPair;
+
+class InMemoryExchangeRateRepositoryTest {
+
+	private static final int USD_EUR = CurrencyPair.of("USD", "EUR");
+	private static final int EUR_USD = CurrencyPair.of("EUR", "USD");
+	
+	private final InMemoryExchangeRateRepository repository = new InMemoryExchangeRateRepository();
+	
+	@Test
+	void findLatestReturnsNewestDay() {
+		repository.save(new ExchangeRate("USD", "EUR", 0.85f, "2021-09-02"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.87f, "2021-09-03"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.86f, "2021-09-01"));
+		
+		assertThat(repository.findLatest(USD_EUR)).get().extracting(ExchangeRate::getRate).isEqualTo(0.87f);
+		assertThat(repository.findLatest(EUR_USD)).isEmpty();
+	}
+	
+	@Test
+	void findForDateReturnsLastSavedRateForDay() {
+		repository.save(new ExchangeRate("USD", "EUR", 0.85f, "2021-09-02"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.84f, "2021-09-02"));
+		
+		assertThat(repository.findForDate(USD_EUR, LocalDate.parse("2021-09-02")))
+			.get().extracting(ExchangeRate::getRate).isEqualTo(0.84f);
+		assertThat(repository.findForDate(USD_EUR, LocalDate.parse("2021-09-01"))).isEmpty();
+	}
+	
+	@Test
+	void findAllReturnsRatesOldestFirst() {
+		repository.save(new ExchangeRate("USD", "EUR", 0.87f, "2021-09-03"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.85f, "2021-09-01"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.86f, "2021-09-02"));
+		
+		assertThat(repository.findAll(USD_EUR)).extracting(ExchangeRate::getReportedOn)
+			.containsExactly("2021-09-01", "2021-09-02", "2021-09-03");
+	}
+	
+	@Test
+	void findRangeReturnsHistoryOutsideRetentionWindowOldestFirst() {
+		repository.save(new ExchangeRate("USD", "EUR", 0.87f, "2021-09-20"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.85f, "2021-08-01"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.86f, "2021-09-01"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.80f, "2020-01-01"));  // older than 400 days
+		
+		assertThat(repository.findRange(USD_EUR, LocalDate.parse("2019-01-01"), LocalDate.parse("2021-09-10")))
+			.extracting(ExchangeRate::getReportedOn).containsExactly("2021-08-01", "2021-09-01");
+		assertThat(repository.findAll(USD_EUR)).extracting(ExchangeRate::getReportedOn).containsExactly("2021-09-20");
+	}
+	
+	@Test
+	void findAggregatesReturnsDailyAndWeeklyOpenHighLowClose() {
+		repository.save(new ExchangeRate("USD", "EUR", 0.85f, "2021-09-01"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.88f, "2021-09-01"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.86f, "2021-09-01"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.82f, "2021-09-05"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.90f, "2021-09-06"));
+		
+		List<RateAggregate> days = repository.findAggregates(USD_EUR, LocalDate.parse("2021-09-01"), LocalDate.parse("2021-09-05"), RateInterval.DAY);
+		assertThat(days).extracting(RateAggregate::getStart).containsExactly("2021-09-01", "2021-09-05");
+		assertThat(days.get(0)).extracting(RateAggregate::getOpen, RateAggregate::getHigh, RateAggregate::getLow, RateAggregate::getClose, RateAggregate::getCount)
+			.containsExactly(0.85f, 0.88f, 0.85f, 0.86f, 3);
+		
+		// Monday to Sunday, the 6th starts the next week
+		List<RateAggregate> weeks = repository.findAggregates(USD_EUR, LocalDate.parse("2021-09-03"), LocalDate.parse("2021-09-06"), RateInterval.WEEK);
+		assertThat(weeks).extracting(RateAggregate::getStart, RateAggregate::getEnd)
+			.containsExactly(tuple("2021-08-30", "2021-09-05"), tuple("2021-09-06", "2021-09-12"));
+		assertThat(weeks.get(0)).extracting(RateAggregate::getOpen, RateAggregate::getHigh, RateAggregate::getLow, RateAggregate::getClose, RateAggregate::getCount)
+			.containsExactly(0.85f, 0.88f, 0.82f, 0.82f, 4);
+		assertThat(weeks.get(0).getAverage()).isCloseTo(0.8525f, within(0.0001f));
+	}
+	
+	@Test
+	void newerDayReplacesDayOutsideRetentionWindow() {
+		repository.save(new ExchangeRate("USD", "EUR", 0.85f, "2021-09-01"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.86f, "2021-09-02"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.87f, "2021-09-03"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.88f, "2021-09-04"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.80f, "2021-08-31"));
+		
+		assertThat(repository.findAll(USD_EUR)).extracting(ExchangeRate::getReportedOn)
+			.containsExactly("2021-09-02", "2021-09-03", "2021-09-04");
+		assertThat(repository.findLatest(USD_EUR)).get().extracting(ExchangeRate::getRate).isEqualTo(0.88f);
+	}
+	
+	@Test
+	void dayOutsideRetentionWindowIsNotFoundEvenIfNotOverwritten() {
+		repository.save(new ExchangeRate("USD", "EUR", 0.85f, "2021-09-01"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.86f, "2021-09-02"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.88f, "2021-09-10"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.87f, "2021-09-05"));
+		
+		assertThat(repository.findForDate(USD_EUR, LocalDate.parse("2021-09-02"))).isEmpty();
+		assertThat(repository.findForDate(USD_EUR, LocalDate.parse("2021-09-05"))).isEmpty();
+		assertThat(repository.findAll(USD_EUR)).extracting(ExchangeRate::getReportedOn).containsExactly("2021-09-10");
+		
+		// still in the history
+		assertThat(repository.findRange(USD_EUR, LocalDate.parse("2021-09-01"), LocalDate.parse("2021-09-10")))
+			.extracting(ExchangeRate::getReportedOn).containsExactly("2021-09-01", "2021-09-02", "2021-09-05", "2021-09-10");
+	}
+	
+	@Test
+	void retentionIsOverriddenByPairThenCurrency() {
+		RetentionPolicy retention = new RetentionPolicy(Duration.ofDays(3), "USD-EUR=7d, CHF=10d,JPY=5d");
+		
+		assertThat(retention.days(USD_EUR)).isEqualTo(7);
+		assertThat(retention.days(EUR_USD)).isEqualTo(3);
+		assertThat(retention.days(CurrencyPair.of("CHF", "JPY"))).isEqualTo(10);
+		assertThat(retention.days(CurrencyPair.of("USD", "JPY"))).isEqualTo(5);
+		assertThatIllegalArgumentException().isThrownBy(() -> new RetentionPolicy(Duration.ofDays(3), "USD-XYZ=1d"));
+	}
+	
+	@Test
+	void sweepReclaimsExpiredPairs() throws InterruptedException {
+		InMemoryExchangeRateRepository repository = new InMemoryExchangeRateRepository(
+				new RetentionPolicy(Duration.ofDays(3), "USD-EUR=1ms"), 400, Long.MAX_VALUE, null);
+		repository.save(new ExchangeRate("USD", "EUR", 0.85f, "2021-09-01"));
+		repository.save(new ExchangeRate("EUR", "USD", 1.17f, "2021-09-01"));
+		Thread.sleep(5);
+		repository.sweep();
+		
+		assertThat(repository.findLatest(USD_EUR)).isEmpty();
+		assertThat(repository.findLatest(EUR_USD)).isPresent();
+		assertThat(repository.getPairCount()).isEqualTo(1);
+		assertThat(repository.getReclaimedCount()).isEqualTo(1);
+	}
+	
+	@Test
+	void leastRecentlyUsedPairIsEvictedOverMemoryBudget() throws InterruptedException {
+		long pairSize = ExchangeRateRing.estimateSize(3) + RateHistory.estimateSize(400);
+		InMemoryExchangeRateRepository repository = new InMemoryExchangeRateRepository(
+				new RetentionPolicy(Duration.ofDays(3), ""), 400, pairSize * 7 / 2, null);
+		String today = LocalDate.now().toString();
+		repository.save(new ExchangeRate("USD", "EUR", 0.85f, today));
+		repository.save(new ExchangeRate("EUR", "USD", 1.17f, today));
+		repository.save(new ExchangeRate("GBP", "USD", 1.38f, today));
+		
+		// access times are kept to the second
+		Thread.sleep(1100);
+		repository.findLatest(USD_EUR);
+		repository.findLatest(EUR_USD);
+		repository.save(new ExchangeRate("JPY", "USD", 0.009f, today));
+		
+		assertThat(repository.findLatest(CurrencyPair.of("GBP", "USD"))).isEmpty();
+		assertThat(repository.findPairs()).hasSize(3);
+		assertThat(repository.getEvictedCount()).isEqualTo(1);
+		assertThat(repository.getMemoryUsed()).isEqualTo(pairSize * 3);
+	}
+	
+	@Test
+	void encodedRateIsKeptUntilItsDayIsSaved() {
+		LongAdder encodings = new LongAdder();
+		Function<ExchangeRate, byte[]> encoder = exchangeRate -> {
+			encodings.increment();
+			return (exchangeRate.getReportedOn() + "=" + exchangeRate.getRate()).getBytes(StandardCharsets.UTF_8);
+		};
+		repository.save(new ExchangeRate("USD", "EUR", 0.85f, "2021-09-02"));
+		repository.save(new ExchangeRate("USD", "EUR", 0.86f, "2021-09-03"));
+		
+		assertThat(repository.findLatestEncoded(USD_EUR, encoder)).asString(StandardCharsets.UTF_8).isEqualTo("2021-09-03=0.86");
+		assertThat(repository.findLatestEncoded(USD_EUR, encoder)).asString(StandardCharsets.UTF_8).isEqualTo("2021-09-03=0.86");
+		assertThat(repository.findForDateEncoded(USD_EUR, LocalDate.parse("2021-09-02"), encoder))
+			.asString(StandardCharsets.UTF_8).isEqualTo("2021-09-02=0.85");
+		assertThat(encodings.sum()).isEqualTo(2);
+		
+		// saving another day leaves the latest alone, saving the latest day replaces it
+		repository.save(new ExchangeRate("USD", "EUR", 0.84f, "2021-09-01"));
+		assertThat(repository.findLatestEncoded(USD_EUR, encoder)).asString(StandardCharsets.UTF_8).isEqualTo("2021-09-03=0.86");
+		assertThat(encodings.sum()).isEqualTo(2);
+		repository.save(new ExchangeRate("USD", "EUR", 0.87f, "2021-09-03"));
+		assertThat(repository.findLatestEncoded(USD_EUR, encoder)).asString(StandardCharsets.UTF_8).isEqualTo("2021-09-03=0.87");
+		assertThat(encodings.sum()).isEqualTo(3);
+		assertThat(repository.findLatestEncoded(EUR_USD, encoder)).isNull();
+	}
+}
@@ -0,0 +1,124 @@
+package com.csa.exchangerate.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.csa.exchangerate.util.CurrencyPair;
+
+class RateJournalTest {
+
+	private static final int USD_EUR = CurrencyPair.of("USD", "EUR");
+	private static final int USD_CAD = CurrencyPair.of("USD", "CAD");
+	
+	@TempDir
+	Path dir;
+	
+	@Test
+	void replaysRecordsAfterReopen() throws IOException {
+		Path path = dir.resolve("rates.journal");
+		long now = System.currentTimeMillis();
+		try (RateJournal journal = open(path, 16)) {
+			journal.append(USD_EUR, 18900, 0.85f, now);
+			journal.append(USD_CAD, 18900, 1.25f, now);
+			journal.append(USD_EUR, 18800, 0.80f, now - Duration.ofDays(4).toMillis());
+		}
+		
+		try (RateJournal journal = open(path, 16)) {
+			assertThat(journal.size()).isEqualTo(3);
+			assertThat(replay(journal)).containsExactly(
+					USD_EUR + "@18900=0.85", 
+					USD_CAD + "@18900=1.25");
+		}
+	}
+	
+	@Test
+	void skipsCorruptRecord() throws IOException {
+		Path path = dir.resolve("rates.journal");
+		long now = System.currentTimeMillis();
+		try (RateJournal journal = open(path, 16)) {
+			journal.append(USD_EUR, 18900, 0.85f, now);
+			journal.append(USD_CAD, 18900, 1.25f, now);
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			// overwrite the first record's rate
+			channel.write(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }), 16 + 8);
+		}
+		
+		try (RateJournal journal = open(path, 16)) {
+			assertThat(replay(journal)).containsExactly(USD_CAD + "@18900=1.25");
+		}
+	}
+	
+	@Test
+	void compactsWhenFull() throws IOException {
+		Path path = dir.resolve("rates.journal");
+		long now = System.currentTimeMillis();
+		RateJournal full = open(path, 4);
+		for (int i = 0; i < 10; i++) {
+			full.append(USD_EUR, 18900, i, now);
+			full.append(USD_CAD, 18900 + i % 2, i, now);
+		}
+		// compaction runs in the background, closing waits for it
+		full.close();
+		assertThat(full.size()).isLessThan(20);
+		
+		try (RateJournal journal = open(path, 4)) {
+			// later records for the same pair and day replace earlier ones
+			Map<String, Float> latest = new HashMap<>();
+			journal.replay((pair, epochDay, rate, savedAt) -> latest.put(pair + "@" + epochDay, rate));
+			assertThat(latest).containsOnly(
+					entry(USD_EUR + "@18900", 9f), 
+					entry(USD_CAD + "@18900", 8f), 
+					entry(USD_CAD + "@18901", 9f));
+		}
+	}
+	
+	@Test
+	void compactionKeepsEveryRecordForDaysInHistory() throws IOException {
+		Path path = dir.resolve("rates.journal");
+		long now = System.currentTimeMillis();
+		int today = (int) LocalDate.now().toEpochDay();
+		RateJournal full = open(path, 4);
+		for (int i = 0; i < 10; i++) {
+			full.append(USD_CAD, 18900, i, now);
+		}
+		for (int i = 0; i < 10; i++) {
+			full.append(USD_EUR, today, i, now);
+		}
+		full.close();
+		
+		try (RateJournal journal = open(path, 4)) {
+			// today's aggregates need all 10, the old day only its rate
+			assertThat(journal.size()).isLessThan(20);
+			List<String> records = replay(journal);
+			assertThat(records).filteredOn(record -> record.startsWith(USD_EUR + "@")).hasSize(10);
+			assertThat(records).filteredOn(record -> record.startsWith(USD_CAD + "@")).hasSizeLessThan(10)
+					.endsWith(USD_CAD + "@18900=9.0");
+		}
+	}
+	
+	private RateJournal open(Path path, int capacity) throws IOException {
+		return new RateJournal(path.toString(), capacity, Duration.ofMillis(5), Duration.ofDays(3), Duration.ofDays(400));
+	}
+	
+	private List<String> replay(RateJournal journal) {
+		List<String> records = new ArrayList<>();
+		journal.replay((pair, epochDay, rate, savedAt) -> records.add(pair + "@" + epochDay + "=" + rate));
+		return records;
+	}
+}
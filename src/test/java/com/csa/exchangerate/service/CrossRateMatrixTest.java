@@ -0,0 +1,87 @@
+package com.csa.exchangerate.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.util.CurrencyPair;
+
+class CrossRateMatrixTest {
+
+	private final CrossRateMatrix matrix = new CrossRateMatrix(Duration.ofDays(3));
+	
+	@Test
+	void derivesRateThroughIntermediateCurrency() {
+		update("CHF", "USD", 1.08f, "2021-09-02");
+		update("USD", "JPY", 110f, "2021-09-01");
+		
+		ExchangeRate rate = matrix.find(CurrencyPair.of("CHF", "JPY"));
+		assertThat(rate.getFrom()).isEqualTo("CHF");
+		assertThat(rate.getTo()).isEqualTo("JPY");
+		assertThat(rate.getRate()).isCloseTo(118.8f, within(0.01f));
+		assertThat(rate.getReportedOn()).isEqualTo("2021-09-01");
+	}
+	
+	@Test
+	void usesReciprocalRates() {
+		update("USD", "JPY", 110f, "2021-09-01");
+		update("EUR", "USD", 1.2f, "2021-09-01");
+		
+		assertThat(matrix.find(CurrencyPair.of("JPY", "USD")).getRate()).isCloseTo(1 / 110f, within(0.0001f));
+		assertThat(matrix.find(CurrencyPair.of("JPY", "EUR")).getRate()).isCloseTo(1 / 132f, within(0.0001f));
+	}
+	
+	@Test
+	void updatesDerivedRatesIncrementally() {
+		update("CHF", "USD", 1.08f, "2021-09-01");
+		update("USD", "JPY", 110f, "2021-09-01");
+		update("JPY", "KRW", 10f, "2021-09-01");
+		assertThat(matrix.find(CurrencyPair.of("CHF", "KRW")).getRate()).isCloseTo(1188f, within(0.1f));
+		
+		update("USD", "JPY", 100f, "2021-09-02");
+		assertThat(matrix.find(CurrencyPair.of("CHF", "KRW")).getRate()).isCloseTo(1080f, within(0.1f));
+		
+		// a direct CHF->JPY quote makes CHF->KRW a two hop path
+		update("CHF", "JPY", 120f, "2021-09-02");
+		assertThat(matrix.find(CurrencyPair.of("CHF", "KRW")).getRate()).isCloseTo(1200f, within(0.1f));
+	}
+	
+	@Test
+	void noRateWithoutPath() {
+		update("CHF", "USD", 1.08f, "2021-09-01");
+		update("EUR", "GBP", 0.85f, "2021-09-01");
+		
+		assertThat(matrix.find(CurrencyPair.of("CHF", "GBP"))).isNull();
+	}
+	
+	@Test
+	void expiredEdgeIsRoutedAround() throws InterruptedException {
+		// CHF->USD passes the max age in 100ms, by the time it was saved however often it's updated again
+		long expiresSoon = System.currentTimeMillis() - Duration.ofDays(3).toMillis() + 100;
+		update("CHF", "USD", 1.08f, "2021-09-01", expiresSoon);
+		update("USD", "JPY", 110f, "2021-09-01", 0);
+		update("CHF", "EUR", 0.9f, "2021-09-01", 0);
+		update("EUR", "GBP", 0.85f, "2021-09-01", 0);
+		update("GBP", "USD", 1.4f, "2021-09-01", 0);
+		assertThat(matrix.find(CurrencyPair.of("CHF", "JPY")).getRate()).isCloseTo(118.8f, within(0.01f));
+		
+		Thread.sleep(150);
+		update("CHF", "USD", 1.08f, "2021-09-01", expiresSoon);
+		assertThat(matrix.find(CurrencyPair.of("CHF", "JPY")).getRate()).isCloseTo(117.81f, within(0.01f));
+		assertThat(matrix.find(CurrencyPair.of("CHF", "USD")).getRate()).isCloseTo(1.071f, within(0.001f));
+	}
+	
+	private void update(String from, String to, float rate, String reportedOn) {
+		update(from, to, rate, reportedOn, 0);
+	}
+	
+	private void update(String from, String to, float rate, String reportedOn, long savedAt) {
+		ExchangeRate exchangeRate = new ExchangeRate(from, to, rate, reportedOn);
+		exchangeRate.setSavedAt(savedAt);
+		matrix.update(CurrencyPair.of(from, to), exchangeRate);
+	}
+}
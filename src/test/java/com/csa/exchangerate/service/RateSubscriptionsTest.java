@@ -0,0 +1,151 @@
+package com.csa.exchangerate.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.csa.exchangerate.model.ExchangeRate;
+import com.csa.exchangerate.repository.InMemoryExchangeRateRepository;
+import com.csa.exchangerate.service.RateSubscriptions.Subscription;
+import com.csa.exchangerate.util.CurrencyPair;
+
+class RateSubscriptionsTest {
+	
+	private static final int USD_EUR = CurrencyPair.of("USD", "EUR");
+	private static final int EUR_JPY = CurrencyPair.of("EUR", "JPY");
+	private static final int USD_JPY = CurrencyPair.of("USD", "JPY");
+	
+	private final InMemoryExchangeRateRepository repository = new InMemoryExchangeRateRepository();
+	private final CrossRateMatrix crossRateMatrix = new CrossRateMatrix(Duration.ofDays(3));
+	private final RateSubscriptions subscriptions = new RateSubscriptions(10, 2);
+	
+	private final BlockingQueue<ExchangeRate> received = new LinkedBlockingQueue<>();
+	private final String today = LocalDate.now().toString();
+	
+	RateSubscriptionsTest() {
+		ReflectionTestUtils.setField(subscriptions, "exchangeRateRepository", repository);
+		ReflectionTestUtils.setField(subscriptions, "crossRateMatrix", crossRateMatrix);
+	}
+	
+	@AfterEach
+	void shutdown() {
+		subscriptions.shutdown();
+	}
+	
+	@Test
+	void sendsCurrentRateThenChanges() throws InterruptedException {
+		save("USD", "EUR", 0.85f);
+		subscriptions.subscribe(new int[] { USD_EUR }, received::add);
+		assertThat(received.poll(1, TimeUnit.SECONDS).getRate()).isEqualTo(0.85f);
+		
+		save("USD", "EUR", 0.86f);
+		assertThat(received.poll(1, TimeUnit.SECONDS).getRate()).isEqualTo(0.86f);
+		
+		// the same rate again isn't sent
+		save("USD", "EUR", 0.86f);
+		save("USD", "EUR", 0.87f);
+		assertThat(received.poll(1, TimeUnit.SECONDS).getRate()).isEqualTo(0.87f);
+		assertThat(received).isEmpty();
+	}
+	
+	@Test
+	void slowSubscriberIsSentLatestRate() throws InterruptedException {
+		CountDownLatch sending = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		subscriptions.subscribe(new int[] { USD_EUR }, exchangeRate -> {
+			sending.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return received.add(exchangeRate);
+		});
+		
+		save("USD", "EUR", 0.80f);
+		assertThat(sending.await(1, TimeUnit.SECONDS)).isTrue();
+		for (int i = 1; i <= 100; i++) {
+			save("USD", "EUR", 0.80f + i / 1000f);
+		}
+		release.countDown();
+		
+		assertThat(received.poll(1, TimeUnit.SECONDS).getRate()).isEqualTo(0.80f);
+		assertThat(received.poll(1, TimeUnit.SECONDS).getRate()).isCloseTo(0.9f, within(0.0001f));
+		assertThat(received.poll(100, TimeUnit.MILLISECONDS)).isNull();
+	}
+	
+	@Test
+	void blockedSubscribersDontHoldUpOthers() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		for (int i = 0; i < 4; i++) {
+			subscriptions.subscribeBlocking(new int[] { USD_EUR }, exchangeRate -> {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return true;
+			});
+		}
+		subscriptions.subscribeBlocking(new int[] { USD_EUR }, received::add);
+		
+		save("USD", "EUR", 0.85f);
+		assertThat(received.poll(1, TimeUnit.SECONDS).getRate()).isEqualTo(0.85f);
+		save("USD", "EUR", 0.86f);
+		assertThat(received.poll(1, TimeUnit.SECONDS).getRate()).isEqualTo(0.86f);
+		release.countDown();
+	}
+	
+	@Test
+	void fullSubscriberIsSentChangesOnResume() throws InterruptedException {
+		AtomicBoolean full = new AtomicBoolean(true);
+		Subscription subscription = subscriptions.subscribe(new int[] { USD_EUR },
+				exchangeRate -> !full.get() && received.add(exchangeRate));
+		save("USD", "EUR", 0.85f);
+		save("USD", "EUR", 0.86f);
+		assertThat(received.poll(100, TimeUnit.MILLISECONDS)).isNull();
+		
+		full.set(false);
+		subscription.resume();
+		assertThat(received.poll(1, TimeUnit.SECONDS).getRate()).isEqualTo(0.86f);
+	}
+	
+	@Test
+	void sendsCrossRatesWhenTheirPathChanges() throws InterruptedException {
+		subscriptions.subscribe(new int[] { USD_JPY }, received::add);
+		save("USD", "EUR", 0.8f);
+		save("EUR", "JPY", 130f);
+		assertThat(received.poll(1, TimeUnit.SECONDS).getRate()).isCloseTo(104f, within(0.01f));
+		
+		save("EUR", "JPY", 140f);
+		assertThat(received.poll(1, TimeUnit.SECONDS).getRate()).isCloseTo(112f, within(0.01f));
+	}
+	
+	@Test
+	void cancelledSubscriptionIsNotSent() throws InterruptedException {
+		Subscription subscription = subscriptions.subscribe(new int[] { USD_EUR, EUR_JPY }, received::add);
+		subscription.cancel();
+		save("USD", "EUR", 0.85f);
+		
+		assertThat(received.poll(100, TimeUnit.MILLISECONDS)).isNull();
+		assertThat(subscriptions.getSubscriptionCount()).isZero();
+	}
+	
+	private void save(String from, String to, float rate) {
+		int pair = CurrencyPair.of(from, to);
+		repository.save(new ExchangeRate(from, to, rate, today));
+		crossRateMatrix.update(pair, repository.findLatest(pair).get());
+		subscriptions.saved(pair);
+	}
+}
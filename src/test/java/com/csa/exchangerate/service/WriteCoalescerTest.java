@@ -0,0 +1,88 @@
+package com.csa.exchangerate.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.csa.exchangerate.model.ExchangeRate;
+
+class WriteCoalescerTest {
+	
+	private final WriteCoalescer coalescer = new WriteCoalescer(Duration.ofMillis(100));
+	
+	private final BlockingQueue<List<ExchangeRate>> saved = new LinkedBlockingQueue<>();
+	private volatile RuntimeException failure;
+	private final String today = LocalDate.now().toString();
+	
+	WriteCoalescerTest() {
+		ReflectionTestUtils.setField(coalescer, "exchangeRateService", new ExchangeRateService() {
+			
+			@Override
+			public List<ExchangeRate> setExchangeRates(List<ExchangeRate> exchangeRates) {
+				if (failure != null) {
+					throw failure;
+				}
+				saved.add(new ArrayList<>(exchangeRates));
+				return exchangeRates;
+			}
+		});
+	}
+	
+	@AfterEach
+	void shutdown() throws InterruptedException {
+		coalescer.shutdown();
+	}
+	
+	@Test
+	void lastWriteForPairAndDayWins() throws Exception {
+		CompletableFuture<ExchangeRate> first = coalescer.setExchangeRate(new ExchangeRate("USD", "EUR", 0.85f, today));
+		CompletableFuture<ExchangeRate> second = coalescer.setExchangeRate(new ExchangeRate("USD", "EUR", 0.86f, today));
+		
+		assertThat(second.get(1, TimeUnit.SECONDS).getRate()).isEqualTo(0.86f);
+		first.get(1, TimeUnit.SECONDS);
+		List<ExchangeRate> batch = saved.poll(1, TimeUnit.SECONDS);
+		assertThat(batch).hasSize(1);
+		assertThat(batch.get(0).getRate()).isEqualTo(0.86f);
+		assertThat(saved.poll(200, TimeUnit.MILLISECONDS)).isNull();
+		assertThat(coalescer.getCoalescedCount()).isEqualTo(1);
+		assertThat(coalescer.getBatchCount()).isEqualTo(1);
+	}
+	
+	@Test
+	void failedBatchFailsAllItsWrites() {
+		failure = new IllegalStateException("Journal is full");
+		CompletableFuture<ExchangeRate> usdEur = coalescer.setExchangeRate(new ExchangeRate("USD", "EUR", 0.85f, today));
+		CompletableFuture<ExchangeRate> eurJpy = coalescer.setExchangeRate(new ExchangeRate("EUR", "JPY", 130f, today));
+		
+		assertThatThrownBy(() -> usdEur.get(1, TimeUnit.SECONDS))
+				.isInstanceOf(ExecutionException.class).hasCauseReference(failure);
+		assertThatThrownBy(() -> eurJpy.get(1, TimeUnit.SECONDS))
+				.isInstanceOf(ExecutionException.class).hasCauseReference(failure);
+		assertThat(coalescer.getBatchCount()).isZero();
+	}
+	
+	@Test
+	void writesAfterShutdownAreRejected() throws Exception {
+		CompletableFuture<ExchangeRate> pending = coalescer.setExchangeRate(new ExchangeRate("USD", "EUR", 0.85f, today));
+		coalescer.shutdown();
+		
+		// the last flush saves the batch the write joined
+		assertThat(pending.get(1, TimeUnit.SECONDS).getRate()).isEqualTo(0.85f);
+		assertThatThrownBy(() -> coalescer.setExchangeRate(new ExchangeRate("USD", "EUR", 0.86f, today)))
+				.isInstanceOf(RejectedExecutionException.class);
+	}
+}
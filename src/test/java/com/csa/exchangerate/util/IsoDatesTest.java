@@ -0,0 +1,29 @@
+package com.csa.exchangerate.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+
+class IsoDatesTest {
+	
+	@Test
+	void parseMatchesLocalDate() {
+		for (LocalDate date = LocalDate.of(1899, 12, 1); date.getYear() < 2101; date = date.plusDays(1)) {
+			assertThat(IsoDates.parse(date.toString())).as(date.toString()).isEqualTo(date.toEpochDay());
+		}
+		assertThat(IsoDates.parse("0000-01-01")).isEqualTo(LocalDate.of(0, 1, 1).toEpochDay());
+		assertThat(IsoDates.parse("9999-12-31")).isEqualTo(LocalDate.of(9999, 12, 31).toEpochDay());
+	}
+	
+	@Test
+	void parseRejectsInvalidDates() {
+		String[] invalid = { null, "", "2021-9-01", "2021/09/01", "2021-09-01T00:00", "20210901", "2021-13-01", 
+				"2021-00-10", "2021-09-00", "2021-09-31", "2021-02-29", "1900-02-29", "2o21-09-01", "+2021-09-1" };
+		for (String date : invalid) {
+			assertThat(IsoDates.parse(date)).as(String.valueOf(date)).isEqualTo(IsoDates.INVALID);
+		}
+		assertThat(IsoDates.parse("2000-02-29")).isEqualTo(LocalDate.of(2000, 2, 29).toEpochDay());
+	}
+}
@@ -0,0 +1,73 @@
+package com.csa.exchangerate.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class SelfExpiringHashMapTest {
+
+	// 4 buckets per level and 3 levels only cover 64 ticks, so longer lifetimes exercise every level
+	private final TimingWheel engine = new TimingWheel(2, 2, 3);
+	
+	private final SelfExpiringHashMap<String, String> map = new SelfExpiringHashMap<>(100, engine);
+	
+	private final List<String> expired = new CopyOnWriteArrayList<>();
+	
+	@AfterEach
+	void closeEngine() {
+		engine.close();
+	}
+	
+	@Test
+	void entryExpiresAfterLifeTime() throws InterruptedException {
+		map.addExpiredEntryListener(expired::add);
+		map.put("USD", "1.0");
+		map.put("EUR", "0.85", 400);
+		
+		assertThat(map.get("USD")).isEqualTo("1.0");
+		Thread.sleep(250);
+		assertThat(map.get("USD")).isNull();
+		assertThat(map.containsKey("EUR")).isTrue();
+		Thread.sleep(400);
+		assertThat(map.containsKey("EUR")).isFalse();
+		assertThat(expired).containsExactly("1.0", "0.85");
+		assertThat(map.size()).isZero();
+		assertThat(engine.getExpiredCount()).isEqualTo(2);
+	}
+	
+	@Test
+	void getRenewsKey() throws InterruptedException {
+		map.put("USD", "1.0");
+		for (int i = 0; i < 10; i++) {
+			Thread.sleep(40);
+			assertThat(map.get("USD")).isEqualTo("1.0");
+		}
+	}
+	
+	@Test
+	void removedAndReplacedEntriesDoNotExpire() throws InterruptedException {
+		map.addExpiredEntryListener(expired::add);
+		map.put("USD", "1.0");
+		map.remove("USD");
+		map.put("EUR", "0.85");
+		map.put("EUR", "0.86", 10);
+		
+		Thread.sleep(250);
+		assertThat(expired).containsExactly("0.86");
+		assertThat(engine.getPendingCount()).isZero();
+	}
+	
+	@Test
+	void expireKeyNotifiesListeners() {
+		map.addExpiredEntryListener(expired::add);
+		map.put("USD", "1.0");
+		map.expireValue("1.0");
+		
+		assertThat(map.containsKey("USD")).isFalse();
+		assertThat(expired).containsExactly("1.0");
+	}
+}